@@ -0,0 +1,88 @@
+package com.fwumdesoft.project8.benchmark;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.fwumdesoft.project8.Circuit;
+import com.fwumdesoft.project8.CircuitComponent;
+import com.fwumdesoft.project8.CircuitSolver;
+import com.fwumdesoft.project8.CircuitSolver.SolverMode;
+
+/**
+ * Solves the circuits in core/circuits, with their empty slots filled </br>
+ * One operation solves every circuit once; pass -p file=name to time a single
+ * circuit instead. The folder is read from the circuits.dir property, or the
+ * working directory
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class AssetBenchmark
+{
+	@Param({ "all" })
+	public String file;
+
+	@Param({ "KIRCHHOFF", "NODAL", "ITERATIVE", "REDUCED" })
+	public SolverMode mode;
+
+	private List<Circuit> circuits;
+	/**
+	 * A resistor in each circuit that is edited before every check, or null
+	 */
+	private CircuitComponent[] edited;
+
+	@Setup(Level.Trial)
+	public void load() throws Exception
+	{
+		circuits = Circuits.load(new File(System.getProperty("circuits.dir", ".")), file);
+		CircuitSolver.mode = mode;
+		edited = new CircuitComponent[circuits.size()];
+		for (int i = 0; i < edited.length; i++)
+			edited[i] = Circuits.editable(circuits.get(i).grid);
+	}
+
+	/**
+	 * Solves every circuit from scratch, building its plan or reduction again
+	 */
+	@Benchmark
+	public void solve(ColdCaches cold)
+	{
+		for (Circuit circuit : circuits)
+			CircuitSolver.solve(circuit.grid, mode);
+	}
+
+	/**
+	 * Changes one resistor in every circuit and checks it again, the way the
+	 * game does after the player edits it
+	 */
+	@Benchmark
+	public void isSolved(Blackhole blackhole)
+	{
+		for (int i = 0; i < edited.length; i++)
+		{
+			Circuit circuit = circuits.get(i);
+			if (edited[i] != null)
+				Circuits.edit(edited[i]);
+			circuit.modified();
+			blackhole.consume(circuit.isSolved());
+		}
+	}
+}
@@ -0,0 +1,226 @@
+package com.fwumdesoft.project8.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import com.fwumdesoft.project8.Circuit;
+import com.fwumdesoft.project8.CircuitComponent;
+import com.fwumdesoft.project8.CircuitDiagnostic;
+import com.fwumdesoft.project8.CircuitFormat;
+
+/**
+ * Loads and builds the circuits the benchmarks solve </br>
+ * Everything random is seeded, so every run solves the same circuits
+ */
+public class Circuits
+{
+	/**
+	 * How many times the empty slots of a circuit are filled before giving up
+	 * on finding a fill that can be solved
+	 */
+	private static final int FILL_TRIES = 100;
+
+	/**
+	 * Loads every circuit in a folder, filling any empty slots so there is
+	 * something to solve that has a unique solution
+	 * 
+	 * @param folder
+	 *            The folder holding the .circuit files
+	 * @param name
+	 *            The name of a single file to load, without .circuit, or "all"
+	 * @return The circuits, sorted by file name
+	 */
+	public static List<Circuit> load(File folder, String name) throws IOException
+	{
+		File[] files = folder.listFiles((dir, file) -> file.endsWith(".circuit")
+				&& (name.equals("all") || file.equals(name + ".circuit")));
+		if (files == null || files.length == 0)
+			throw new IOException("No circuits named " + name + " in " + folder.getAbsolutePath());
+		Arrays.sort(files);
+		List<Circuit> circuits = new ArrayList<Circuit>();
+		for (File file : files)
+		{
+			byte[] bytes = Files.readAllBytes(file.toPath());
+			Random random = new Random(file.getName().hashCode());
+			Circuit circuit;
+			int tries = 0;
+			do
+			{
+				if (++tries > FILL_TRIES)
+					throw new IOException("No way to fill " + file.getName() + " was found that can be solved");
+				circuit = CircuitFormat.read(bytes);
+				fill(circuit.grid, random);
+			} while (!CircuitDiagnostic.check(circuit.grid).isOk());
+			circuit.name = file.getName().substring(0, file.getName().indexOf(".circuit"));
+			circuits.add(circuit);
+		}
+		return circuits;
+	}
+
+	/**
+	 * Puts a random battery, resistor or lamp in every empty slot
+	 */
+	private static void fill(CircuitComponent[][] grid, Random random)
+	{
+		for (int x = 0; x < grid.length; x++)
+			for (int y = 0; y < grid[x].length; y++)
+				if (grid[x][y] != null && !grid[x][y].hasMainValue() && grid[x][y].isChangeable)
+				{
+					int kind = random.nextInt(3);
+					CircuitComponent comp = kind == 0 ? CircuitComponent.battery()
+							: kind == 1 ? CircuitComponent.resistor() : CircuitComponent.lamp();
+					comp.setMainValue(random.nextInt(9) + 1);
+					comp.isChangeable = true;
+					grid[x][y] = comp;
+				}
+	}
+
+	/**
+	 * Finds a resistor whose value can change without changing the layout,
+	 * preferring one the player can change
+	 * 
+	 * @param grid
+	 *            The circuit
+	 * @return The resistor, or null if the circuit has none
+	 */
+	public static CircuitComponent editable(CircuitComponent[][] grid)
+	{
+		CircuitComponent found = null;
+		for (CircuitComponent[] column : grid)
+			for (CircuitComponent comp : column)
+				if (comp != null && comp.hasMainValue() && !comp.isLamp && comp.resistance > 0
+						&& (found == null || comp.isChangeable && !found.isChangeable))
+					found = comp;
+		return found;
+	}
+
+	/**
+	 * Changes the value of a resistor found by editable, the way the player
+	 * would, keeping it between 1 and 9 so the layout stays the same
+	 */
+	public static void edit(CircuitComponent comp)
+	{
+		comp.setMainValue(comp.resistance % 9 + 1);
+	}
+
+	/**
+	 * Builds a synthetic circuit
+	 * 
+	 * @param shape
+	 *            "ladder", "mesh" or "star"
+	 * @param size
+	 *            The size of the grid, like "100x100"
+	 * @return The circuit
+	 */
+	public static Circuit synthetic(String shape, String size)
+	{
+		int split = size.indexOf('x');
+		int width = Integer.parseInt(size.substring(0, split)), height = Integer.parseInt(size.substring(split + 1));
+		// Odd sizes let every part sit between two wires
+		width -= 1 - width % 2;
+		height -= 1 - height % 2;
+		Random random = new Random(size.hashCode() * 31 + shape.hashCode());
+		CircuitComponent[][] grid = new CircuitComponent[width][height];
+		switch (shape)
+		{
+		case "ladder":
+			ladder(grid, random);
+			break;
+		case "mesh":
+			mesh(grid, random);
+			break;
+		case "star":
+			star(grid, random);
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown shape " + shape);
+		}
+		Circuit circuit = new Circuit(grid, 0);
+		circuit.name = shape + " " + size;
+		return circuit;
+	}
+
+	/**
+	 * Two rails of resistors along the top and bottom, with a rung of
+	 * resistors and wire down every other column and a battery in the top
+	 * rail
+	 */
+	private static void ladder(CircuitComponent[][] grid, Random random)
+	{
+		int width = grid.length, height = grid[0].length;
+		for (int x = 0; x < width; x++)
+		{
+			boolean rung = x % 2 == 0;
+			grid[x][0] = rung ? CircuitComponent.wire() : part(random);
+			grid[x][height - 1] = rung ? CircuitComponent.wire() : part(random);
+			if (rung)
+				for (int y = 1; y < height - 1; y++)
+					grid[x][y] = y % 2 == 1 ? part(random) : CircuitComponent.wire();
+		}
+		grid[1][0] = battery(random);
+	}
+
+	/**
+	 * A wire at every even cell, with a part between every pair of
+	 * neighboring wires and a battery every 50 parts
+	 */
+	private static void mesh(CircuitComponent[][] grid, Random random)
+	{
+		int parts = 0;
+		for (int x = 0; x < grid.length; x++)
+			for (int y = 0; y < grid[x].length; y++)
+				if (x % 2 == 0 && y % 2 == 0)
+					grid[x][y] = CircuitComponent.wire();
+				else if (x % 2 == 0 || y % 2 == 0)
+					grid[x][y] = parts++ % 50 == 0 ? battery(random) : part(random);
+	}
+
+	/**
+	 * A ring of wire around the edge and a bar of wire across the middle,
+	 * with a spoke of resistors and wire from the bar to the ring down every
+	 * other column and a battery in the first spoke
+	 */
+	private static void star(CircuitComponent[][] grid, Random random)
+	{
+		int width = grid.length, height = grid[0].length, middle = height / 2;
+		for (int x = 0; x < width; x++)
+		{
+			grid[x][0] = CircuitComponent.wire();
+			grid[x][height - 1] = CircuitComponent.wire();
+		}
+		for (int y = 0; y < height; y++)
+		{
+			grid[0][y] = CircuitComponent.wire();
+			grid[width - 1][y] = CircuitComponent.wire();
+		}
+		for (int x = 2; x < width - 2; x++)
+			grid[x][middle] = CircuitComponent.wire();
+		for (int x = 2; x < width - 2; x += 2)
+			for (int y = 1; y < height - 1; y++)
+				if (y != middle)
+					grid[x][y] = Math.abs(y - middle) % 2 == 1 ? part(random) : CircuitComponent.wire();
+		grid[2][middle - 1] = battery(random);
+	}
+
+	/**
+	 * @return A resistor, or a lamp one time in five
+	 */
+	private static CircuitComponent part(Random random)
+	{
+		CircuitComponent comp = random.nextInt(5) == 0 ? CircuitComponent.lamp() : CircuitComponent.resistor();
+		comp.setMainValue(random.nextInt(9) + 1);
+		return comp;
+	}
+
+	private static CircuitComponent battery(Random random)
+	{
+		CircuitComponent comp = CircuitComponent.battery();
+		comp.setMainValue(random.nextInt(9) + 1);
+		return comp;
+	}
+}
@@ -0,0 +1,22 @@
+package com.fwumdesoft.project8.benchmark;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.fwumdesoft.project8.CircuitSolver;
+
+/**
+ * Taken by benchmarks that time solving from scratch, so the shared plans and
+ * the reduction kept between solves are thrown away before every call
+ */
+@State(Scope.Thread)
+public class ColdCaches
+{
+	@Setup(Level.Invocation)
+	public void clear()
+	{
+		CircuitSolver.clearCaches();
+	}
+}
@@ -0,0 +1,80 @@
+package com.fwumdesoft.project8.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fwumdesoft.project8.Circuit;
+import com.fwumdesoft.project8.CircuitComponent;
+import com.fwumdesoft.project8.CircuitSolver;
+import com.fwumdesoft.project8.CircuitSolver.SolverMode;
+
+/**
+ * Solves generated ladder, mesh and star circuits from 10x20 up to 500x500
+ * cells </br>
+ * Loop equations get very long on big meshes, so KIRCHHOFF is left out by
+ * default; add it back with -p mode=KIRCHHOFF and a smaller -p size
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class SyntheticBenchmark
+{
+	@Param({ "ladder", "mesh", "star" })
+	public String shape;
+
+	@Param({ "10x20", "50x50", "100x100", "250x250", "500x500" })
+	public String size;
+
+	@Param({ "NODAL", "ITERATIVE" })
+	public SolverMode mode;
+
+	private Circuit circuit;
+	/**
+	 * A resistor that is edited before every check
+	 */
+	private CircuitComponent edited;
+
+	@Setup(Level.Trial)
+	public void build()
+	{
+		circuit = Circuits.synthetic(shape, size);
+		CircuitSolver.mode = mode;
+		edited = Circuits.editable(circuit.grid);
+	}
+
+	/**
+	 * Solves the circuit from scratch, building its plan or reduction again
+	 */
+	@Benchmark
+	public void solve(ColdCaches cold)
+	{
+		CircuitSolver.solve(circuit.grid, mode);
+	}
+
+	/**
+	 * Changes one resistor and checks the circuit again, the way the game does
+	 * after the player edits it
+	 */
+	@Benchmark
+	public boolean isSolved()
+	{
+		Circuits.edit(edited);
+		circuit.modified();
+		return circuit.isSolved();
+	}
+}
@@ -1,5 +1,6 @@
 package com.fwumdesoft.project8;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -21,6 +22,7 @@ import com.badlogic.gdx.graphics.g2d.SpriteBatch;
 import com.badlogic.gdx.graphics.g2d.TextureRegion;
 import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.GdxRuntimeException;
 import com.badlogic.gdx.utils.viewport.FitViewport;
 import com.badlogic.gdx.utils.viewport.Viewport;
 
@@ -36,11 +38,14 @@ public class App extends ApplicationAdapter
 	private Viewport viewport;
 	private Vector2 mousePosition;
 	private AssetManager assets;
+	private CircuitPack circuits;
 	private OverworldInput overInput;
 	private Vector2 circuitCamera;
 	private SpriteBatch batch;
 	private TransitionManager transition;
 	private MusicPlayer music;
+	private SolverWorker solver;
+	private BitmapFont font;
 	private final int CIRCUIT_TRANSITION_SPEED = 20;
 	private Slideshow intro, current;
 	private Sound introSound;
@@ -51,8 +56,10 @@ public class App extends ApplicationAdapter
 	public void create()
 	{
 		batch = new SpriteBatch();
+		font = new BitmapFont();
+		//One worker solves circuits for every game, including restarted ones
+		solver = new SolverWorker();
 		loadAssets();
-		initSimulation();
 		
 		Camera camera = new OrthographicCamera(Gdx.graphics.getWidth(), Gdx.graphics.getHeight());
 		camera.position.x = Gdx.graphics.getWidth() / 2;
@@ -94,6 +101,10 @@ public class App extends ApplicationAdapter
 		Gdx.gl.glClear(GL20.GL_COLOR_BUFFER_BIT);
 		Gdx.gl.glClearColor(0, 0, 0, 1);
 		transition.startDraw();
+		//The world is made once every circuit is in, which happens while the
+		//intro plays
+		if(world == null && loadCircuits())
+			initSimulation();
 		music.update(current == null, isCircuit);
 		//Update the paricle system
 		ParticleSystem.tick();
@@ -106,6 +117,10 @@ public class App extends ApplicationAdapter
 					current = null;
 			batch.end();
 		}
+		else if (world == null)
+		{
+			//Still loading circuits, so there is nothing to draw yet
+		}
 		else if (isCircuit)
 		{
 			//Calculate the cursor position in the circuit
@@ -165,9 +180,12 @@ public class App extends ApplicationAdapter
 	{
 		inventory = new Inventory();
 
-		world = new Overworld(this, 1000, assets.getAll(Circuit.class, new Array<>()), inventory);
+		world = new Overworld(this, 1000, circuits, inventory);
 		circuitCamera = new Vector2();
-		rend = new Renderer(batch, new BitmapFont(), assets, 32, 64, 640, 480, circuitCamera);
+		//A restart replaces the renderer, so free the old one
+		if(rend != null)
+			rend.dispose();
+		rend = new Renderer(batch, font, assets, 32, 64, 640, 480, circuitCamera, solver);
 		
 		Gdx.input.setInputProcessor(overInput = new OverworldInput(this, world));
 
@@ -193,12 +211,45 @@ public class App extends ApplicationAdapter
 		.forEach(name -> assets.load(name, Music.class));
 		assetsFiles.stream().map(file -> file.name()).filter(string -> string.endsWith("ogg") && !string.equals("fire.ogg"))
 		.forEach(name -> assets.load(name, Sound.class));
-		assetsFiles.stream().map(file -> file.name()).filter(string -> string.endsWith("circuit"))
-				.forEach(name -> assets.load(name, Circuit.class));
 		assets.finishLoading();
+		//Circuits are read from the pack when they are first needed. A circuit
+		//file left in the assets replaces the packed one with the same name, so
+		//a circuit being worked on doesn't need the pack to be built again, and
+		//the game doesn't wait for them
+		try
+		{
+			circuits = CircuitPack.open(Gdx.files.internal(CircuitPack.FILE));
+		}
+		catch (IOException e)
+		{
+			throw new GdxRuntimeException("Couldn't open " + CircuitPack.FILE, e);
+		}
+		assetsFiles.stream().map(file -> file.name()).filter(string -> CircuitIO.isCircuit(string))
+				.forEach(name -> assets.load(name, Circuit.class));
 		transition = new TransitionManager(this, assets, batch);
 	}
 	
+	/**
+	 * Continue loading the circuit files in the assets, adding them to the pack
+	 * in place of the packed ones once they are all in
+	 * 
+	 * @return If every circuit is loaded
+	 */
+	private boolean loadCircuits()
+	{
+		if(!assets.update())
+			return false;
+		//Make sure every circuit that is meant to be solved actually is, which
+		//the packed ones were checked for when they were packed
+		Array<Circuit> loose = assets.getAll(Circuit.class, new Array<>());
+		for(SolveResult result : CircuitSolver.solveAll(Arrays.asList(loose.toArray())))
+			if(result.circuit.name.endsWith("_solved") && !result.solved)
+				Gdx.app.error("App", "Circuit asset is not solved: " + result);
+		for(Circuit circuit : loose)
+			circuits.add(circuit);
+		return true;
+	}
+	
 	public static enum sounds
 	{
 		door, componentMachine, fire, sparks, walking
@@ -250,6 +301,10 @@ public class App extends ApplicationAdapter
 		assets.dispose();
 		batch.dispose();
 		transition.dispose();
+		if(rend != null)
+			rend.dispose();
+		font.dispose();
+		solver.shutdown();
 	}
 
 	@Override
@@ -5,9 +5,37 @@ import java.io.Serializable;
 public class Circuit implements Serializable
 {
 	private static final long serialVersionUID = 1L;
+	/**
+	 * The components of the circuit; call modified() after changing it
+	 */
 	public CircuitComponent[][] grid;
 	public transient String name;
 	public int goalLamps;
+	/**
+	 * Keeps the last solve around so edits to the circuit can be solved quickly
+	 */
+	private transient IncrementalSolver solver;
+	private transient IterativeSolver iterative;
+	private transient NetworkReduction reduction;
+	/**
+	 * The structural check of the last layout that was solved
+	 */
+	private transient CircuitDiagnostic.Structure structure;
+	/**
+	 * Goes up every time the circuit is edited
+	 */
+	private transient int version;
+	/**
+	 * The version, mode and result of the last call to isSolved, if there was
+	 * one
+	 */
+	private transient boolean cached, solved;
+	private transient int solvedVersion;
+	private transient CircuitSolver.SolverMode solvedMode;
+	/**
+	 * The structural problem found by the last solve
+	 */
+	private transient CircuitDiagnostic diagnostic;
 	
 	public Circuit(Circuit original)
 	{
@@ -18,7 +46,7 @@ public class Circuit implements Serializable
 			grid[i] = new CircuitComponent[original.grid[i].length];
 			for(int j = 0; j < grid[i].length; j++)
 				if(original.grid[i][j] != null)
-					grid[i][j] = new CircuitComponent(original.grid[i][j]);
+					grid[i][j] = CircuitComponent.copy(original.grid[i][j]);
 		}
 	}
 
@@ -28,20 +56,125 @@ public class Circuit implements Serializable
 		this.goalLamps = goalLamps;
 	}
 
+	/**
+	 * Marks the circuit as edited, so the next call to isSolved solves it again
+	 */
+	public void modified()
+	{
+		version++;
+	}
+
+	/**
+	 * @return The number of times the circuit has been edited
+	 */
+	public int getVersion()
+	{
+		return version;
+	}
+
+	/**
+	 * @return The structural problem found the last time the circuit was
+	 *         solved, OK if there was none, or null if it hasn't been solved
+	 */
+	public CircuitDiagnostic getDiagnostic()
+	{
+		return diagnostic;
+	}
+
+	/**
+	 * Finds how the current through every lamp changes with the main value of
+	 * every part the player can change, reusing the factorization kept from
+	 * the last solve when there is one
+	 * 
+	 * @return The derivatives
+	 * @throws IllegalArgumentException
+	 *             If the circuit is not a proper circuit
+	 * @throws ArithmeticException
+	 *             If the circuit has no unique solution
+	 */
+	public Sensitivity getSensitivity()
+	{
+		CircuitSolver.SolverMode mode = CircuitSolver.factoredMode(CircuitSolver.mode);
+		if(solver == null || solver.getMode() != mode)
+			solver = new IncrementalSolver(mode);
+		return solver.sensitivity(grid);
+	}
+
+	/**
+	 * Checks if the circuit lights enough lamps with the default mode, solving
+	 * it only if it was edited since the last check
+	 * 
+	 * @return If the circuit is solved
+	 */
 	public boolean isSolved()
 	{
-//		return false;
+		return isSolved(CircuitSolver.mode);
+	}
+
+	/**
+	 * Checks if the circuit lights enough lamps, solving it only if it was
+	 * edited or the mode changed since the last check
+	 * 
+	 * @param mode
+	 *            The mode to solve with
+	 * @return If the circuit is solved
+	 */
+	public boolean isSolved(CircuitSolver.SolverMode mode)
+	{
+		if(cached && solvedVersion == version && solvedMode == mode)
+			return solved;
+		solved = solve(mode);
+		solvedVersion = version;
+		solvedMode = mode;
+		cached = true;
+		return solved;
+	}
+
+	/**
+	 * Solves the circuit and checks the lamps
+	 */
+	private boolean solve(CircuitSolver.SolverMode mode)
+	{
+		SolveStats stats = SolveStats.begin(grid, mode);
+		boolean failed = true;
 		try
 		{
-			for(CircuitComponent[] row : grid)
-				for(CircuitComponent item : row)
-					if(item != null && item.type == null)
-					{
-						resetCurrent();
-						return false;
-					}
+			// Circuits that can't be solved are caught here rather than by
+			// the solver throwing. Only the slots can change without the
+			// layout changing, so the rest is checked once per layout
+			diagnostic = CircuitDiagnostic.unfilled(grid);
+			if(diagnostic.isOk())
+			{
+				if(structure == null || !structure.matches(grid))
+					structure = new CircuitDiagnostic.Structure(grid);
+				diagnostic = structure.diagnostic;
+			}
+			if(!diagnostic.isOk())
+			{
+				resetCurrent();
+				failed = false;
+				return false;
+			}
 			
-			CircuitSolver.solve(grid);
+			boolean reduce = mode == CircuitSolver.SolverMode.REDUCED && CircuitSolver.reductionLimit >= 0;
+			if(reduce && (reduction == null || !reduction.matches(grid)))
+				reduction = new NetworkReduction(grid);
+			if(reduce && reduction.unknowns() <= CircuitSolver.reductionLimit)
+				reduction.solve(grid);
+			else if(mode == CircuitSolver.SolverMode.ITERATIVE)
+			{
+				if(iterative == null)
+					iterative = new IterativeSolver();
+				iterative.solve(grid);
+			}
+			else
+			{
+				CircuitSolver.SolverMode factored = CircuitSolver.factoredMode(mode);
+				if(solver == null || solver.getMode() != factored)
+					solver = new IncrementalSolver(factored);
+				solver.solve(grid);
+			}
+			failed = false;
 	
 			int count = 0;
 			for (CircuitComponent[] row : grid)
@@ -61,6 +194,9 @@ public class Circuit implements Serializable
 		{
 			resetCurrent();
 			return false;
+		} finally
+		{
+			SolveStats.finish(stats, failed);
 		}
 	}
 	
@@ -71,7 +207,7 @@ public class Circuit implements Serializable
 	{
 		for(CircuitComponent[] row : grid)
 			for(CircuitComponent item : row)
-				if(item != null)
+				if(item != null && !item.isShared())
 				{
 					item.current = 0;
 					item.isActive = false;
@@ -1,21 +1,23 @@
 package com.fwumdesoft.project8;
 
 import java.io.Serializable;
+import java.util.Random;
 
 /**
- * A single item in a circuit May be a wire, a battery, a resistor, or a lamp
+ * A single item in a circuit May be a wire, a battery, a resistor, a lamp, a
+ * capacitor or an inductor
  */
 public class CircuitComponent implements Serializable
 {
 	private static final long serialVersionUID = 1L;
 
 	/**
-	 * The three main types of components when it comes to the equations and
+	 * The main types of components when it comes to the equations and
 	 * solutions
 	 */
 	public enum Type
 	{
-		WIRE, BATTERY, RESISTOR
+		WIRE, BATTERY, RESISTOR, CAPACITOR, INDUCTOR
 	};
 
 	/**
@@ -39,6 +41,8 @@ public class CircuitComponent implements Serializable
 	/**
 	 * The volatage of the component </br>
 	 * For a battery, it is a given </br>
+	 * For a capacitor, it is the voltage across it, calculated by
+	 * TransientSolver</br>
 	 * For other components, it is calculated
 	 */
 	public double voltageDif;
@@ -64,6 +68,24 @@ public class CircuitComponent implements Serializable
 	 * error for the player
 	 */
 	public double targetMargin;
+	/**
+	 * The capacitance of a component </br>
+	 * Given for capacitors, should be 0 otherwise
+	 */
+	public double capacitance;
+	/**
+	 * The inductance of a component </br>
+	 * Given for inductors, should be 0 otherwise
+	 */
+	public double inductance;
+
+	/**
+	 * The wire every circuit shares </br>
+	 * Wires have no values of their own and are never solved for, so one
+	 * instance stands in for all of them, and copying a circuit only copies
+	 * the parts that can change. It must never be edited
+	 */
+	private static final CircuitComponent SHARED_WIRE = new CircuitComponent(Type.WIRE);
 
 	/**
 	 * Create a component
@@ -76,7 +98,7 @@ public class CircuitComponent implements Serializable
 		isChangeable = false;
 		isLamp = false;
 		isActive = false;
-		voltageDif = current = resistance = targetCurrent = targetMargin = 0;
+		voltageDif = current = resistance = targetCurrent = targetMargin = capacitance = inductance = 0;
 		this.type = type;
 		if (hasMainValue())
 			setMainValue(1);
@@ -97,6 +119,8 @@ public class CircuitComponent implements Serializable
 		resistance = comp.resistance;
 		targetCurrent = comp.targetCurrent;
 		targetMargin = comp.targetMargin;
+		capacitance = comp.capacitance;
+		inductance = comp.inductance;
 		if(isLamp)
 		{
 			if(targetCurrent <= 1)
@@ -112,10 +136,23 @@ public class CircuitComponent implements Serializable
 	 * @return A new random component (typically from bags)
 	 */
 	public static CircuitComponent randomComponent()
+	{
+		return randomComponent(new Random());
+	}
+
+	/**
+	 * Picks a random component the same way bags do, from a given source of
+	 * randomness so the pick can be repeated
+	 * 
+	 * @param random
+	 *            The source of randomness
+	 * @return A new random component
+	 */
+	public static CircuitComponent randomComponent(Random random)
 	{
 		Type t = null;
 		CircuitComponent comp = new CircuitComponent(t);
-		switch((int)(Math.random()*3))
+		switch(random.nextInt(3))
 		{
 		case 0:
 			comp = resistor();
@@ -128,7 +165,7 @@ public class CircuitComponent implements Serializable
 			break;
 		}
 		
-		comp.setMainValue((int)(Math.random()*9) + 1);
+		comp.setMainValue(random.nextInt(9) + 1);
 		
 		return comp;
 	}
@@ -145,11 +182,39 @@ public class CircuitComponent implements Serializable
 	}
 
 	/**
-	 * @return A new wire component
+	 * @return The shared wire component
 	 */
 	public static CircuitComponent wire()
 	{
-		return new CircuitComponent(Type.WIRE);
+		return SHARED_WIRE;
+	}
+
+	/**
+	 * @return If this is the shared wire, which must not be edited
+	 */
+	public boolean isShared()
+	{
+		return this == SHARED_WIRE;
+	}
+
+	/**
+	 * Copies a component, unless it is the shared wire
+	 * 
+	 * @param comp
+	 *            The component to copy
+	 * @return The copy, or the shared wire
+	 */
+	public static CircuitComponent copy(CircuitComponent comp)
+	{
+		return comp.isShared() ? comp : new CircuitComponent(comp);
+	}
+
+	/**
+	 * Swaps wires read from a file for the shared wire
+	 */
+	private Object readResolve()
+	{
+		return type == Type.WIRE && !isChangeable ? SHARED_WIRE : this;
 	}
 
 	/**
@@ -182,7 +247,24 @@ public class CircuitComponent implements Serializable
 	}
 
 	/**
-	 * Set the main value (resistance for a resistor, voltage for a battery)
+	 * @return A new capacitor component
+	 */
+	public static CircuitComponent capacitor()
+	{
+		return new CircuitComponent(Type.CAPACITOR);
+	}
+
+	/**
+	 * @return A new inductor component
+	 */
+	public static CircuitComponent inductor()
+	{
+		return new CircuitComponent(Type.INDUCTOR);
+	}
+
+	/**
+	 * Set the main value (resistance for a resistor, voltage for a battery,
+	 * capacitance for a capacitor, inductance for an inductor)
 	 * 
 	 * @param value
 	 *            The value
@@ -208,6 +290,12 @@ public class CircuitComponent implements Serializable
 			else
 				resistance = value;
 			break;
+		case CAPACITOR:
+			capacitance = value;
+			break;
+		case INDUCTOR:
+			inductance = value;
+			break;
 		default:
 			throw new RuntimeException(this + " has no main value");
 		}
@@ -229,6 +317,10 @@ public class CircuitComponent implements Serializable
 				return resistance;
 			else
 				return targetCurrent;
+		case CAPACITOR:
+			return capacitance;
+		case INDUCTOR:
+			return inductance;
 		default:
 			throw new RuntimeException(this + " has no main value");
 		}
@@ -241,6 +333,6 @@ public class CircuitComponent implements Serializable
 	 */
 	public boolean hasMainValue()
 	{
-		return type == Type.BATTERY || type == Type.RESISTOR;
+		return type == Type.BATTERY || type == Type.RESISTOR || type == Type.CAPACITOR || type == Type.INDUCTOR;
 	}
 }
@@ -0,0 +1,254 @@
+package com.fwumdesoft.project8;
+
+import com.fwumdesoft.project8.CircuitComponent.Type;
+
+/**
+ * A structural problem with a circuit, found by looking at how its pieces
+ * are connected without building or solving any equations </br>
+ * Wire regions are joined with union-find, first across the parts that have
+ * no resistance to find loops of them and batteries shorted by them, then
+ * across batteries to
+ * find loops of batteries, and last across everything to find pieces of
+ * circuit with lamps but no battery </br>
+ * Everything but the check for unfilled slots only depends on the layout, so
+ * a Structure keeps that part for circuits that are edited over and over
+ */
+public class CircuitDiagnostic
+{
+	/**
+	 * The kinds of problems, from the first checked to the last
+	 */
+	public enum Kind
+	{
+		/**
+		 * Nothing is wrong with the structure of the circuit
+		 */
+		OK,
+		/**
+		 * A slot has no component in it yet
+		 */
+		UNFILLED_SLOT,
+		/**
+		 * A component is not connected on exactly two sides
+		 */
+		BAD_CONNECTION,
+		/**
+		 * Parts without resistance are wired in a loop with nothing else,
+		 * like two in parallel, so the current around it could be anything
+		 */
+		SHORT_LOOP,
+		/**
+		 * The two sides of a battery are connected by wire alone
+		 */
+		SHORTED_BATTERY,
+		/**
+		 * Batteries are wired in a loop with nothing else, like two batteries
+		 * in parallel
+		 */
+		BATTERY_LOOP,
+		/**
+		 * A lamp is in a piece of the circuit with no battery to light it
+		 */
+		UNPOWERED_ISLAND
+	};
+
+	/**
+	 * Added to the layout code of a lamp, which only differs from a resistor
+	 * in being checked for power
+	 */
+	private static final byte LAMP = 8;
+
+	/**
+	 * The diagnostic for a circuit with nothing wrong
+	 */
+	public static final CircuitDiagnostic OK = new CircuitDiagnostic(Kind.OK, -1, -1);
+
+	/**
+	 * The kind of problem
+	 */
+	public final Kind kind;
+	/**
+	 * The component with the problem, indexed like the circuit's grid, or -1
+	 * if everything is OK
+	 */
+	public final int x, y;
+
+	private CircuitDiagnostic(Kind kind, int x, int y)
+	{
+		this.kind = kind;
+		this.x = x;
+		this.y = y;
+	}
+
+	/**
+	 * @return If the circuit can be solved
+	 */
+	public boolean isOk()
+	{
+		return kind == Kind.OK;
+	}
+
+	/**
+	 * Looks for the first structural problem with a circuit
+	 *
+	 * @param circuit
+	 *            The 2D array representing the circuit
+	 * @return The problem, or OK
+	 */
+	public static CircuitDiagnostic check(CircuitComponent[][] circuit)
+	{
+		CircuitDiagnostic unfilled = unfilled(circuit);
+		return unfilled.isOk() ? structure(circuit) : unfilled;
+	}
+
+	/**
+	 * Looks for a slot with no component in it yet, the only problem that
+	 * doesn't depend on the layout alone
+	 *
+	 * @param circuit
+	 *            The 2D array representing the circuit
+	 * @return UNFILLED_SLOT for the first empty slot, or OK
+	 */
+	static CircuitDiagnostic unfilled(CircuitComponent[][] circuit)
+	{
+		for (int x = 0; x < circuit.length; x++)
+			for (int y = 0; y < circuit[x].length; y++)
+				if (circuit[x][y] != null && circuit[x][y].type == null)
+					return new CircuitDiagnostic(Kind.UNFILLED_SLOT, x, y);
+		return OK;
+	}
+
+	/**
+	 * Looks for the first problem with the layout of a circuit with every
+	 * slot filled
+	 */
+	private static CircuitDiagnostic structure(CircuitComponent[][] circuit)
+	{
+		int width = circuit.length, height = circuit[0].length;
+		for (int x = 0; x < width; x++)
+			for (int y = 0; y < height; y++)
+				if (circuit[x][y] != null && circuit[x][y].type != Type.WIRE)
+				{
+					int sides = 0;
+					if (x > 0 && circuit[x - 1][y] != null)
+						sides++;
+					if (y > 0 && circuit[x][y - 1] != null)
+						sides++;
+					if (x < width - 1 && circuit[x + 1][y] != null)
+						sides++;
+					if (y < height - 1 && circuit[x][y + 1] != null)
+						sides++;
+					if (sides != 2)
+						return new CircuitDiagnostic(Kind.BAD_CONNECTION, x, y);
+				}
+
+		NodalSolver.Network network = NodalSolver.network(circuit);
+		int elements = network.elementCell.length;
+		int[] parent = UnionFind.create(network.nodes);
+
+		// Parts without resistance join their sides into one wire region, and
+		// one joining regions that are already joined closes a loop
+		for (int e = 0; e < elements; e++)
+			if ((code(circuit, network, e) == SolvePlan.SHORT || code(circuit, network, e) == SolvePlan.INDUCTOR)
+					&& !UnionFind.union(parent, network.positive[e], network.negative[e]))
+				return at(Kind.SHORT_LOOP, network, e, height);
+		for (int e = 0; e < elements; e++)
+			if (code(circuit, network, e) == SolvePlan.BATTERY
+					&& UnionFind.find(parent, network.positive[e]) == UnionFind.find(parent, network.negative[e]))
+				return at(Kind.SHORTED_BATTERY, network, e, height);
+
+		// Batteries joining regions that are already joined close a loop
+		for (int e = 0; e < elements; e++)
+			if (code(circuit, network, e) == SolvePlan.BATTERY
+					&& !UnionFind.union(parent, network.positive[e], network.negative[e]))
+				return at(Kind.BATTERY_LOOP, network, e, height);
+
+		for (int e = 0; e < elements; e++)
+			if (code(circuit, network, e) == SolvePlan.RESISTOR)
+				UnionFind.union(parent, network.positive[e], network.negative[e]);
+		boolean[] powered = new boolean[parent.length];
+		for (int e = 0; e < elements; e++)
+			if (code(circuit, network, e) == SolvePlan.BATTERY)
+				powered[UnionFind.find(parent, network.positive[e])] = true;
+		for (int e = 0; e < elements; e++)
+		{
+			int cell = network.elementCell[e];
+			if (circuit[cell / height][cell % height].isLamp && !powered[UnionFind.find(parent, network.positive[e])]
+					&& !powered[UnionFind.find(parent, network.negative[e])])
+				return at(Kind.UNPOWERED_ISLAND, network, e, height);
+		}
+		return OK;
+	}
+
+	private static byte code(CircuitComponent[][] circuit, NodalSolver.Network network, int element)
+	{
+		int height = circuit[0].length, cell = network.elementCell[element];
+		return SolvePlan.codeOf(circuit[cell / height][cell % height]);
+	}
+
+	private static CircuitDiagnostic at(Kind kind, NodalSolver.Network network, int element, int height)
+	{
+		int cell = network.elementCell[element];
+		return new CircuitDiagnostic(kind, cell / height, cell % height);
+	}
+
+	public String toString()
+	{
+		return kind == Kind.OK ? "OK" : kind + " at " + x + ", " + y;
+	}
+
+	/**
+	 * The structural check of one layout, which every circuit with the same
+	 * layout shares whatever the values of its parts
+	 */
+	static class Structure
+	{
+		private final int height;
+		/**
+		 * The layout code of each cell, with LAMP added for lamps
+		 */
+		private final byte[] codes;
+		/**
+		 * The first problem with the layout, or OK
+		 */
+		final CircuitDiagnostic diagnostic;
+
+		/**
+		 * Check the layout of a circuit
+		 *
+		 * @param circuit
+		 *            The 2D array representing the circuit, with every slot
+		 *            filled
+		 */
+		Structure(CircuitComponent[][] circuit)
+		{
+			height = circuit[0].length;
+			codes = new byte[circuit.length * height];
+			for (int x = 0; x < circuit.length; x++)
+				for (int y = 0; y < height; y++)
+					codes[x * height + y] = codeOf(circuit[x][y]);
+			diagnostic = structure(circuit);
+		}
+
+		/**
+		 * @return If a circuit with every slot filled has the layout that was
+		 *         checked
+		 */
+		boolean matches(CircuitComponent[][] circuit)
+		{
+			if (circuit[0].length != height || circuit.length * height != codes.length)
+				return false;
+			for (int x = 0; x < circuit.length; x++)
+				for (int y = 0; y < height; y++)
+					if (codeOf(circuit[x][y]) != codes[x * height + y])
+						return false;
+			return true;
+		}
+
+		private static byte codeOf(CircuitComponent comp)
+		{
+			byte code = SolvePlan.codeOf(comp);
+			return comp != null && comp.isLamp ? (byte) (code + LAMP) : code;
+		}
+	}
+}
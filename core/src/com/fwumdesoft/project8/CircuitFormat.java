@@ -0,0 +1,355 @@
+package com.fwumdesoft.project8;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Reads and writes circuits in the compact binary .circuit format </br>
+ * Every number is big endian. A file is:
+ * <ul>
+ * <li>The magic number "CIRC", then the version as a short</li>
+ * <li>The length of the rest of the header as a short, so newer versions can
+ * add to it, then the grid's width and height, the goal lamps and the length
+ * of a value record, each as an unsigned short. A grid can have at most
+ * MAX_CELLS cells</li>
+ * <li>The cells, column after column (x * height + y), as runs of a cell code
+ * byte and a count written 7 bits a byte, lowest bits first</li>
+ * <li>A value record for every battery, resistor, lamp, capacitor and inductor,
+ * in cell order: a flags byte (1 if the player can change it) then its main
+ * value as a double. Fields added later go at the end of the record, and
+ * readers skip any they don't know</li>
+ * </ul>
+ * Wires and empty slots have no record. Only what a puzzle is made of is kept,
+ * not the currents from the last solve
+ */
+public class CircuitFormat
+{
+	/**
+	 * The first four bytes of every file, "CIRC"
+	 */
+	public static final int MAGIC = 0x43495243;
+	/**
+	 * The version written by this class
+	 */
+	public static final short VERSION = 1;
+	/**
+	 * The most cells a circuit can have, so a corrupt size can't make a reader
+	 * allocate more than this
+	 */
+	public static final int MAX_CELLS = 1 << 16;
+
+	/**
+	 * The codes of each kind of cell
+	 */
+	static final byte EMPTY = 0, WIRE = 1, BLANK = 2, BATTERY = 3, RESISTOR = 4, LAMP = 5, CAPACITOR = 6, INDUCTOR = 7;
+	/**
+	 * The length of the header after its length field, and of a value record,
+	 * in this version
+	 */
+	private static final int HEADER_BYTES = 8, RECORD_BYTES = 9;
+	/**
+	 * The flag for a part the player can change
+	 */
+	private static final int CHANGEABLE = 1;
+
+	/**
+	 * Checks if a buffer starts with this format, without moving it
+	 *
+	 * @param buffer
+	 *            The buffer
+	 * @return If the magic number is at the buffer's position
+	 */
+	public static boolean isBinary(ByteBuffer buffer)
+	{
+		return buffer.remaining() >= 4 && buffer.getInt(buffer.position()) == MAGIC;
+	}
+
+	/**
+	 * Reads a circuit from a buffer, leaving the buffer just past it
+	 *
+	 * @param buffer
+	 *            The buffer holding a binary circuit
+	 * @return The circuit, without a name
+	 * @throws IOException
+	 *             If the buffer doesn't hold a circuit this version can read
+	 */
+	public static Circuit read(ByteBuffer buffer) throws IOException
+	{
+		try
+		{
+			if (buffer.getInt() != MAGIC)
+				throw new IOException("Not a binary circuit");
+			int version = buffer.getShort();
+			if (version < 1 || version > VERSION)
+				throw new IOException("Unknown circuit version " + version);
+			int headerBytes = buffer.getShort() & 0xFFFF;
+			if (headerBytes < HEADER_BYTES)
+				throw new IOException("Bad circuit header");
+			int headerEnd = buffer.position() + headerBytes;
+			int width = buffer.getShort() & 0xFFFF, height = buffer.getShort() & 0xFFFF;
+			int goalLamps = buffer.getShort() & 0xFFFF, recordBytes = buffer.getShort() & 0xFFFF;
+			if (width == 0 || height == 0 || (long) width * height > MAX_CELLS || recordBytes < RECORD_BYTES)
+				throw new IOException("Bad circuit header");
+			buffer.position(headerEnd);
+
+			byte[] codes = new byte[width * height];
+			for (int cell = 0; cell < codes.length;)
+			{
+				byte code = buffer.get();
+				int run = readCount(buffer);
+				if (code < EMPTY || code > INDUCTOR || run <= 0 || run > codes.length - cell)
+					throw new IOException("Bad run of cells at " + cell);
+				Arrays.fill(codes, cell, cell + run, code);
+				cell += run;
+			}
+
+			CircuitComponent[][] grid = new CircuitComponent[width][height];
+			for (int cell = 0; cell < codes.length; cell++)
+			{
+				int x = cell / height, y = cell % height;
+				switch (codes[cell])
+				{
+				case EMPTY:
+					break;
+				case WIRE:
+					grid[x][y] = CircuitComponent.wire();
+					break;
+				case BLANK:
+					grid[x][y] = CircuitComponent.blank();
+					break;
+				default:
+					int end = buffer.position() + recordBytes;
+					CircuitComponent comp = create(codes[cell]);
+					comp.isChangeable = (buffer.get() & CHANGEABLE) != 0;
+					comp.setMainValue(buffer.getDouble());
+					buffer.position(end);
+					grid[x][y] = comp;
+				}
+			}
+			return new Circuit(grid, goalLamps);
+		} catch (RuntimeException e)
+		{
+			// Running off the end, or a bad position, means the file is cut
+			// short or corrupt
+			throw new IOException("Corrupt circuit", e);
+		}
+	}
+
+	/**
+	 * Writes a circuit into a buffer
+	 *
+	 * @param circuit
+	 *            The circuit to write
+	 * @param buffer
+	 *            The buffer, with at least maxBytes(circuit) remaining
+	 * @throws IllegalArgumentException
+	 *             If the circuit has more than MAX_CELLS cells
+	 */
+	public static void write(Circuit circuit, ByteBuffer buffer)
+	{
+		CircuitComponent[][] grid = circuit.grid;
+		int width = grid.length, height = grid[0].length;
+		if ((long) width * height > MAX_CELLS || circuit.goalLamps < 0 || circuit.goalLamps > 0xFFFF)
+			throw new IllegalArgumentException("Circuit is too big to write");
+		buffer.putInt(MAGIC);
+		buffer.putShort(VERSION);
+		buffer.putShort((short) HEADER_BYTES);
+		buffer.putShort((short) width);
+		buffer.putShort((short) height);
+		buffer.putShort((short) circuit.goalLamps);
+		buffer.putShort((short) RECORD_BYTES);
+
+		byte code = codeOf(grid[0][0]);
+		int run = 0;
+		for (int cell = 0; cell < width * height; cell++)
+		{
+			byte next = codeOf(grid[cell / height][cell % height]);
+			if (next != code)
+			{
+				buffer.put(code);
+				writeCount(buffer, run);
+				code = next;
+				run = 0;
+			}
+			run++;
+		}
+		buffer.put(code);
+		writeCount(buffer, run);
+
+		for (int cell = 0; cell < width * height; cell++)
+		{
+			CircuitComponent comp = grid[cell / height][cell % height];
+			if (codeOf(comp) < BATTERY)
+				continue;
+			buffer.put((byte) (comp.isChangeable ? CHANGEABLE : 0));
+			buffer.putDouble(comp.getMainValue());
+		}
+	}
+
+	/**
+	 * @return The most bytes writing a circuit can take
+	 */
+	public static int maxBytes(Circuit circuit)
+	{
+		int cells = circuit.grid.length * circuit.grid[0].length;
+		return 8 + HEADER_BYTES + cells * (6 + RECORD_BYTES);
+	}
+
+	/**
+	 * Writes a circuit to a new array
+	 *
+	 * @param circuit
+	 *            The circuit to write
+	 * @return The bytes of the circuit
+	 */
+	public static byte[] toBytes(Circuit circuit)
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(maxBytes(circuit));
+		write(circuit, buffer);
+		return Arrays.copyOf(buffer.array(), buffer.position());
+	}
+
+	/**
+	 * Reads a circuit saved with Java serialization, the format .circuit files
+	 * used before this one
+	 *
+	 * @param bytes
+	 *            The contents of the file
+	 * @return The circuit, without a name
+	 * @throws IOException
+	 *             If the bytes don't hold a serialized circuit
+	 */
+	public static Circuit readSerialized(byte[] bytes) throws IOException
+	{
+		try (ObjectInputStream stream = new ObjectInputStream(new ByteArrayInputStream(bytes)))
+		{
+			return (Circuit) stream.readObject();
+		} catch (ClassNotFoundException | ClassCastException e)
+		{
+			throw new IOException("Not a serialized circuit", e);
+		}
+	}
+
+	/**
+	 * Reads a circuit in either format
+	 *
+	 * @param bytes
+	 *            The contents of the file
+	 * @return The circuit, without a name
+	 * @throws IOException
+	 *             If the bytes don't hold a circuit
+	 */
+	public static Circuit read(byte[] bytes) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		return isBinary(buffer) ? read(buffer) : readSerialized(bytes);
+	}
+
+	/**
+	 * Converts serialized .circuit files to this format in place </br>
+	 * Each argument is a file or a folder of .circuit files. Files that are
+	 * already converted are left alone
+	 *
+	 * @param args
+	 *            The files and folders to convert
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length == 0)
+		{
+			System.err.println("Usage: CircuitFormat <file or folder>...");
+			System.exit(1);
+		}
+		for (String arg : args)
+		{
+			File path = new File(arg);
+			File[] files = path.isDirectory() ? path.listFiles((dir, name) -> name.endsWith(".circuit"))
+					: new File[] { path };
+			Arrays.sort(files);
+			for (File file : files)
+			{
+				byte[] bytes = Files.readAllBytes(file.toPath());
+				if (isBinary(ByteBuffer.wrap(bytes)))
+				{
+					System.out.println(file + ": already converted");
+					continue;
+				}
+				byte[] converted = toBytes(readSerialized(bytes));
+				Files.write(file.toPath(), converted);
+				System.out.println(file + ": " + bytes.length + " -> " + converted.length + " bytes");
+			}
+		}
+	}
+
+	/**
+	 * @return The cell code of a component
+	 */
+	static byte codeOf(CircuitComponent comp)
+	{
+		if (comp == null)
+			return EMPTY;
+		if (comp.type == null)
+			return BLANK;
+		switch (comp.type)
+		{
+		case WIRE:
+			return WIRE;
+		case BATTERY:
+			return BATTERY;
+		case CAPACITOR:
+			return CAPACITOR;
+		case INDUCTOR:
+			return INDUCTOR;
+		default:
+			return comp.isLamp ? LAMP : RESISTOR;
+		}
+	}
+
+	/**
+	 * @return A new component for a cell code that has a value record
+	 */
+	static CircuitComponent create(byte code)
+	{
+		switch (code)
+		{
+		case BATTERY:
+			return CircuitComponent.battery();
+		case RESISTOR:
+			return CircuitComponent.resistor();
+		case LAMP:
+			return CircuitComponent.lamp();
+		case CAPACITOR:
+			return CircuitComponent.capacitor();
+		default:
+			return CircuitComponent.inductor();
+		}
+	}
+
+	private static int readCount(ByteBuffer buffer) throws IOException
+	{
+		int count = 0;
+		for (int shift = 0; shift < 32; shift += 7)
+		{
+			int b = buffer.get();
+			count |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return count;
+		}
+		throw new IOException("Bad count");
+	}
+
+	private static void writeCount(ByteBuffer buffer, int count)
+	{
+		while ((count & ~0x7F) != 0)
+		{
+			buffer.put((byte) ((count & 0x7F) | 0x80));
+			count >>>= 7;
+		}
+		buffer.put((byte) count);
+	}
+}
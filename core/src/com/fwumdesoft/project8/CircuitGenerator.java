@@ -0,0 +1,197 @@
+package com.fwumdesoft.project8;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Makes new circuit puzzles instead of picking from the hand made ones </br>
+ * A puzzle is a loop of wire, sometimes with a bridge across the middle, with
+ * blank slots along its straight edges and a few fixed resistors. Before a
+ * layout is kept, its slots are filled from the component distribution and the
+ * filled circuit is solved, so every puzzle has at least one answer made of
+ * components the player can find. The filled circuits are small and reduce to
+ * a few series and parallel parts, so each check is cheap, and puzzles are
+ * generated in parallel when many are needed at once
+ */
+public class CircuitGenerator
+{
+	/**
+	 * The size of a generated circuit, the same as the hand made ones
+	 */
+	public static final int ROWS = 10, COLS = 20;
+	/**
+	 * How many ways to fill a layout's slots are tried before giving up on it
+	 */
+	public static int fillsPerLayout = 50;
+	/**
+	 * How many layouts are tried before giving up on a puzzle
+	 */
+	public static int layoutsPerPuzzle = 200;
+
+	/**
+	 * Picks the components used to check that a layout can be solved
+	 */
+	private final Function<Random, CircuitComponent> distribution;
+
+	/**
+	 * Create a generator that checks puzzles with the components found in bags
+	 */
+	public CircuitGenerator()
+	{
+		this(CircuitComponent::randomComponent);
+	}
+
+	/**
+	 * Create a generator that checks puzzles with a given distribution
+	 *
+	 * @param distribution
+	 *            Picks a new component from a source of randomness
+	 */
+	public CircuitGenerator(Function<Random, CircuitComponent> distribution)
+	{
+		this.distribution = distribution;
+	}
+
+	/**
+	 * Generates a puzzle; the same seed always gives the same puzzle
+	 *
+	 * @param seed
+	 *            The seed to generate from
+	 * @return A puzzle with blank slots and a goal, or null if no solvable
+	 *         layout was found
+	 */
+	public Circuit generate(long seed)
+	{
+		Random random = new Random(seed);
+		for (int layout = 0; layout < layoutsPerPuzzle; layout++)
+		{
+			CircuitComponent[][] grid = layout(random);
+			List<int[]> slots = new ArrayList<int[]>();
+			for (int row = 0; row < ROWS; row++)
+				for (int col = 0; col < COLS; col++)
+					if (grid[row][col] != null && grid[row][col].isChangeable)
+						slots.add(new int[] { row, col });
+
+			for (int fill = 0; fill < fillsPerLayout; fill++)
+			{
+				int lamps = fill(grid, slots, random);
+				if (lamps > 0 && new Circuit(grid, lamps).isSolved())
+				{
+					for (int[] slot : slots)
+						grid[slot[0]][slot[1]] = CircuitComponent.blank();
+					Circuit puzzle = new Circuit(grid, lamps);
+					puzzle.name = "generated door";
+					return puzzle;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Generates many puzzles across all cores
+	 *
+	 * @param count
+	 *            How many puzzles to generate
+	 * @param seed
+	 *            The seed to generate from
+	 * @return The puzzles, with null for any that couldn't be generated
+	 */
+	public List<Circuit> generate(int count, long seed)
+	{
+		return IntStream.range(0, count).parallel().mapToObj(i -> generate(seed(seed, i)))
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * Mixes a seed with an index, so neighbouring puzzles don't start from
+	 * similar seeds
+	 */
+	static long seed(long seed, int index)
+	{
+		long z = seed + (index + 1) * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Lays out the wire of a puzzle, with blanks where the slots are
+	 */
+	private static CircuitComponent[][] layout(Random random)
+	{
+		CircuitComponent[][] grid = new CircuitComponent[ROWS][COLS];
+		int top = 1 + random.nextInt(2), bottom = ROWS - 2 - random.nextInt(3);
+		int left = 2 + random.nextInt(4), right = COLS - 3 - random.nextInt(4);
+		for (int col = left; col <= right; col++)
+			grid[top][col] = grid[bottom][col] = CircuitComponent.wire();
+		for (int row = top; row <= bottom; row++)
+			grid[row][left] = grid[row][right] = CircuitComponent.wire();
+		// A bridge makes two loops, so the slots can be in parallel
+		int bridge = -1;
+		if (random.nextBoolean())
+		{
+			bridge = left + 2 + random.nextInt(right - left - 3);
+			for (int row = top; row <= bottom; row++)
+				grid[row][bridge] = CircuitComponent.wire();
+		}
+
+		// Anywhere on a straight edge has exactly two sides connected
+		List<int[]> edges = new ArrayList<int[]>();
+		for (int col = left + 1; col < right; col++)
+			if (col != bridge)
+			{
+				edges.add(new int[] { top, col });
+				edges.add(new int[] { bottom, col });
+			}
+		for (int row = top + 1; row < bottom; row++)
+		{
+			edges.add(new int[] { row, left });
+			edges.add(new int[] { row, right });
+			if (bridge >= 0)
+				edges.add(new int[] { row, bridge });
+		}
+
+		int slots = 2 + random.nextInt(4), fixed = random.nextInt(3);
+		for (int i = 0; i < slots + fixed; i++)
+		{
+			int[] cell = edges.remove(random.nextInt(edges.size()));
+			if (i < slots)
+				grid[cell[0]][cell[1]] = CircuitComponent.blank();
+			else
+			{
+				CircuitComponent resistor = CircuitComponent.resistor();
+				resistor.setMainValue(random.nextInt(9) + 1);
+				resistor.isChangeable = false;
+				grid[cell[0]][cell[1]] = resistor;
+			}
+		}
+		return grid;
+	}
+
+	/**
+	 * Fills every slot from the distribution
+	 *
+	 * @return How many lamps were placed, or 0 if there is no battery
+	 */
+	private int fill(CircuitComponent[][] grid, List<int[]> slots, Random random)
+	{
+		int lamps = 0;
+		boolean battery = false;
+		for (int[] slot : slots)
+		{
+			CircuitComponent comp = distribution.apply(random);
+			comp.isChangeable = true;
+			grid[slot[0]][slot[1]] = comp;
+			if (comp.isLamp)
+				lamps++;
+			else if (comp.type == CircuitComponent.Type.BATTERY)
+				battery = true;
+		}
+		return battery ? lamps : 0;
+	}
+}
@@ -0,0 +1,513 @@
+package com.fwumdesoft.project8;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.fwumdesoft.project8.CircuitComponent.Type;
+
+/**
+ * Searches for a way to fill the empty slots of a circuit with components
+ * from an inventory so that it is solved </br>
+ * The search first picks which slots get batteries and which resistor or lamp
+ * goes in every other slot, splitting that tree across cores. With the
+ * resistances fixed, every lamp's current is a linear function of the battery
+ * voltages, so the matrix is factored once and the voltages are searched with
+ * bounds on how far each lamp's current can still move, pruning any branch
+ * that can no longer light every lamp
+ */
+public class CircuitHintEngine
+{
+	/**
+	 * How the search ended
+	 */
+	public enum Status
+	{
+		/**
+		 * A way to solve the circuit was found
+		 */
+		FOUND,
+		/**
+		 * Every way to fill the circuit was tried, and none solve it
+		 */
+		UNSOLVABLE,
+		/**
+		 * The time budget ran out before the search finished
+		 */
+		TIMED_OUT
+	};
+
+	/**
+	 * The outcome of a search
+	 */
+	public static class Hint
+	{
+		/**
+		 * How the search ended
+		 */
+		public final Status status;
+		/**
+		 * The inventory component to place in each empty slot, indexed like
+		 * the circuit's grid, if one was found
+		 */
+		public final CircuitComponent[][] placements;
+		/**
+		 * How long the search took, in nanoseconds
+		 */
+		public final long nanos;
+
+		public Hint(Status status, CircuitComponent[][] placements, long nanos)
+		{
+			this.status = status;
+			this.placements = placements;
+			this.nanos = nanos;
+		}
+
+		public String toString()
+		{
+			return status + " in " + nanos / 1000000 + " ms";
+		}
+	}
+
+	/**
+	 * Slots deeper than this in the search tree are searched on the same
+	 * thread as their parent
+	 */
+	private static final int SPLIT_DEPTH = 3;
+	/**
+	 * Slack allowed on the lamp margins for rounding error in the bounds
+	 */
+	private static final double EPSILON = 1e-9;
+
+	/**
+	 * The empty slots of the circuit
+	 */
+	private final int[] slotRow, slotCol;
+	/**
+	 * The distinct components in the inventory (one of each value of each
+	 * type), and the inventory components of each
+	 */
+	private final List<CircuitComponent> kinds;
+	private final List<List<CircuitComponent>> items;
+	/**
+	 * The kinds that are batteries
+	 */
+	private final int[] batteryKinds;
+	/**
+	 * The circuit, with its empty slots still empty
+	 */
+	private final Circuit base;
+	/**
+	 * The number of lamps that have to be placed
+	 */
+	private final int lampsNeeded;
+	private final long deadline;
+	/**
+	 * The mode to check placements with, read when the search starts so the
+	 * search threads never read the render thread's settings
+	 */
+	private final CircuitSolver.SolverMode mode;
+	private final AtomicReference<CircuitComponent[][]> found = new AtomicReference<CircuitComponent[][]>();
+	private final AtomicBoolean timedOut = new AtomicBoolean();
+
+	/**
+	 * Searches for a way to solve a circuit with what the player carries
+	 *
+	 * @param circuit
+	 *            The circuit, with empty slots to fill
+	 * @param inventory
+	 *            The components that can be placed
+	 * @param budgetMillis
+	 *            How long to search for before giving up
+	 * @return The first solution found, or why there isn't one
+	 */
+	public static Hint findHint(Circuit circuit, Inventory inventory, long budgetMillis)
+	{
+		long start = System.nanoTime();
+		return new CircuitHintEngine(circuit, inventory, start + budgetMillis * 1000000).finish(start);
+	}
+
+	/**
+	 * Starts searching for a way to solve a circuit with what the player
+	 * carries on the common ForkJoin pool, so the calling thread never waits on
+	 * it </br>
+	 * The circuit and inventory are copied before this returns, so they can be
+	 * edited while the search runs
+	 *
+	 * @param circuit
+	 *            The circuit, with empty slots to fill
+	 * @param inventory
+	 *            The components that can be placed
+	 * @param budgetMillis
+	 *            How long to search for before giving up
+	 * @return The first solution found, or why there isn't one, once the
+	 *         search is done
+	 */
+	public static CompletableFuture<Hint> findHintAsync(Circuit circuit, Inventory inventory, long budgetMillis)
+	{
+		long start = System.nanoTime();
+		CircuitHintEngine engine = new CircuitHintEngine(circuit, inventory, start + budgetMillis * 1000000);
+		return CompletableFuture.supplyAsync(() -> engine.finish(start));
+	}
+
+	/**
+	 * Runs the search
+	 *
+	 * @param start
+	 *            When the search was asked for, from System.nanoTime
+	 * @return How the search ended
+	 */
+	private Hint finish(long start)
+	{
+		Status status = search();
+		return new Hint(status, status == Status.FOUND ? found.get() : null, System.nanoTime() - start);
+	}
+
+	private CircuitHintEngine(Circuit circuit, Inventory inventory, long deadline)
+	{
+		this.deadline = deadline;
+		mode = CircuitSolver.mode;
+		base = new Circuit(circuit);
+
+		List<int[]> slots = new ArrayList<int[]>();
+		int fixedLamps = 0;
+		for (int i = 0; i < base.grid.length; i++)
+			for (int j = 0; j < base.grid[i].length; j++)
+			{
+				CircuitComponent comp = base.grid[i][j];
+				if (comp == null)
+					continue;
+				if (comp.type == null)
+					slots.add(new int[] { i, j });
+				else if (comp.isLamp)
+					fixedLamps++;
+			}
+		slotRow = new int[slots.size()];
+		slotCol = new int[slots.size()];
+		for (int s = 0; s < slotRow.length; s++)
+		{
+			slotRow[s] = slots.get(s)[0];
+			slotCol[s] = slots.get(s)[1];
+		}
+		lampsNeeded = base.goalLamps - fixedLamps;
+
+		kinds = new ArrayList<CircuitComponent>();
+		items = new ArrayList<List<CircuitComponent>>();
+		addKinds(inventory.batteries);
+		int batteries = kinds.size();
+		addKinds(inventory.resistors);
+		addKinds(inventory.lamps);
+		batteryKinds = new int[batteries];
+		for (int k = 0; k < batteries; k++)
+			batteryKinds[k] = k;
+	}
+
+	/**
+	 * Groups inventory components by value
+	 */
+	private void addKinds(List<CircuitComponent> components)
+	{
+		int first = kinds.size();
+		for (CircuitComponent comp : components)
+		{
+			int kind = first;
+			while (kind < kinds.size() && kinds.get(kind).getMainValue() != comp.getMainValue())
+				kind++;
+			if (kind == kinds.size())
+			{
+				kinds.add(comp);
+				items.add(new ArrayList<CircuitComponent>());
+			}
+			items.get(kind).add(comp);
+		}
+	}
+
+	/**
+	 * Runs the search
+	 */
+	private Status search()
+	{
+		int lampsHeld = 0;
+		for (int k = 0; k < kinds.size(); k++)
+			if (kinds.get(k).isLamp)
+				lampsHeld += items.get(k).size();
+		if (lampsNeeded < 0 || lampsNeeded > slotRow.length || lampsNeeded > lampsHeld)
+			return Status.UNSOLVABLE;
+
+		int[] remaining = new int[kinds.size()];
+		int batteries = 0;
+		for (int k = 0; k < kinds.size(); k++)
+		{
+			remaining[k] = items.get(k).size();
+			if (kinds.get(k).type == Type.BATTERY)
+				batteries += remaining[k];
+		}
+		ForkJoinPool.commonPool().invoke(new Search(new int[slotRow.length], 0, remaining, batteries, 0));
+
+		if (found.get() != null)
+			return Status.FOUND;
+		return timedOut.get() ? Status.TIMED_OUT : Status.UNSOLVABLE;
+	}
+
+	/**
+	 * @return If the search should stop, because it found something or ran
+	 *         out of time
+	 */
+	private boolean stopped()
+	{
+		if (found.get() != null)
+			return true;
+		if (System.nanoTime() > deadline)
+			timedOut.set(true);
+		return timedOut.get();
+	}
+
+	/**
+	 * Picks what goes in each slot, marking battery slots with -1 and leaving
+	 * the voltages for later
+	 */
+	private class Search extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final int[] assignment;
+		private final int slot;
+		private final int[] remaining;
+		private final int batteriesLeft, lampsPlaced;
+
+		public Search(int[] assignment, int slot, int[] remaining, int batteriesLeft, int lampsPlaced)
+		{
+			this.assignment = assignment;
+			this.slot = slot;
+			this.remaining = remaining;
+			this.batteriesLeft = batteriesLeft;
+			this.lampsPlaced = lampsPlaced;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (stopped())
+				return;
+			if (slot == assignment.length)
+			{
+				searchVoltages(assignment, remaining);
+				return;
+			}
+
+			// Every lamp still needed has to fit in the slots that are left
+			int slotsLeft = assignment.length - slot;
+			boolean mustPlaceLamp = lampsNeeded - lampsPlaced == slotsLeft;
+			List<Search> children = new ArrayList<Search>();
+			if (batteriesLeft > 0 && !mustPlaceLamp)
+				children.add(child(-1, batteriesLeft - 1, lampsPlaced));
+			for (int k = batteryKinds.length; k < kinds.size(); k++)
+			{
+				if (remaining[k] == 0)
+					continue;
+				boolean lamp = kinds.get(k).isLamp;
+				if (lamp ? lampsPlaced == lampsNeeded : mustPlaceLamp)
+					continue;
+				remaining[k]--;
+				children.add(child(k, batteriesLeft, lamp ? lampsPlaced + 1 : lampsPlaced));
+				remaining[k]++;
+			}
+
+			if (slot < SPLIT_DEPTH)
+				invokeAll(children);
+			else
+				for (Search child : children)
+					child.compute();
+		}
+
+		private Search child(int kind, int batteriesLeft, int lampsPlaced)
+		{
+			int[] next = assignment.clone();
+			next[slot] = kind;
+			return new Search(next, slot + 1, remaining.clone(), batteriesLeft, lampsPlaced);
+		}
+	}
+
+	/**
+	 * With every resistor and lamp placed, searches the battery voltages
+	 *
+	 * @param assignment
+	 *            The kind in each slot, or -1 for a battery
+	 * @param remaining
+	 *            How many of each kind are left
+	 */
+	private void searchVoltages(int[] assignment, int[] remaining)
+	{
+		// Fill the circuit, with every placed battery at 0 volts for now
+		CircuitComponent[][] grid = new Circuit(base).grid;
+		int batterySlots = 0;
+		for (int s = 0; s < assignment.length; s++)
+		{
+			if (assignment[s] < 0)
+			{
+				grid[slotRow[s]][slotCol[s]] = CircuitComponent.battery();
+				grid[slotRow[s]][slotCol[s]].setMainValue(0);
+				batterySlots++;
+			} else
+				grid[slotRow[s]][slotCol[s]] = new CircuitComponent(kinds.get(assignment[s]));
+		}
+
+		SolvePlan plan = SolvePlan.of(grid, CircuitSolver.factoredMode(mode));
+		double[] values = new double[plan.elements];
+		plan.readValues(grid, values);
+		SolverMatrix matrix;
+		try
+		{
+			matrix = plan.factor(values);
+		} catch (ArithmeticException e)
+		{
+			// No unique currents, so this layout can't be solved
+			return;
+		}
+
+		// Find the elements of the lamps and of the placed batteries, and the
+		// values with every battery off
+		int[] batteryElement = new int[batterySlots];
+		List<Integer> lampList = new ArrayList<Integer>();
+		double[] unit = values.clone();
+		for (int e = 0; e < plan.elements; e++)
+		{
+			int cell = plan.elementCell[e];
+			CircuitComponent comp = grid[cell / plan.height][cell % plan.height];
+			if (comp.isLamp)
+				lampList.add(e);
+			else if (comp.type == Type.BATTERY)
+				unit[e] = 0;
+		}
+		for (int s = 0, b = 0; s < assignment.length; s++)
+			if (assignment[s] < 0)
+				batteryElement[b++] = plan.elementAt(slotRow[s] * plan.height + slotCol[s]);
+		int lamps = lampList.size();
+		double[] target = new double[lamps], margin = new double[lamps];
+		for (int l = 0; l < lamps; l++)
+		{
+			int cell = plan.elementCell[lampList.get(l)];
+			CircuitComponent comp = grid[cell / plan.height][cell % plan.height];
+			target[l] = comp.targetCurrent;
+			margin[l] = comp.targetMargin;
+		}
+
+		// The currents from the batteries already in the circuit, and from 1
+		// volt on each placed battery
+		double[] constants = new double[plan.rows], result = new double[plan.cols];
+		double[] fixed = lampCurrents(plan, matrix, values, lampList, constants, result);
+		double[][] response = new double[batterySlots][];
+		for (int b = 0; b < batterySlots; b++)
+		{
+			unit[batteryElement[b]] = 1;
+			response[b] = lampCurrents(plan, matrix, unit, lampList, constants, result);
+			unit[batteryElement[b]] = 0;
+		}
+
+		// How far the batteries not yet picked can move each lamp's current
+		double[][] lowest = new double[batterySlots + 1][lamps], highest = new double[batterySlots + 1][lamps];
+		for (int b = batterySlots - 1; b >= 0; b--)
+			for (int l = 0; l < lamps; l++)
+			{
+				double low = Double.MAX_VALUE, high = -Double.MAX_VALUE;
+				for (int k : batteryKinds)
+				{
+					if (remaining[k] == 0)
+						continue;
+					double current = kinds.get(k).voltageDif * response[b][l];
+					low = Math.min(low, current);
+					high = Math.max(high, current);
+				}
+				lowest[b][l] = lowest[b + 1][l] + low;
+				highest[b][l] = highest[b + 1][l] + high;
+			}
+
+		searchBatteries(0, fixed, assignment, new int[batterySlots], response, lowest, highest, target, margin,
+				remaining);
+	}
+
+	/**
+	 * Solves for the signed current of each lamp
+	 */
+	private static double[] lampCurrents(SolvePlan plan, SolverMatrix matrix, double[] values,
+			List<Integer> lampList, double[] constants, double[] result)
+	{
+		plan.assembleConstants(values, constants);
+		matrix.solve(constants, result);
+		double[] currents = new double[lampList.size()];
+		for (int l = 0; l < currents.length; l++)
+			currents[l] = plan.current(lampList.get(l), values, result);
+		return currents;
+	}
+
+	/**
+	 * Picks a voltage for each placed battery in turn, pruning when some lamp
+	 * can no longer reach its target
+	 *
+	 * @return If a solution was found
+	 */
+	private boolean searchBatteries(int battery, double[] currents, int[] assignment, int[] voltages,
+			double[][] response, double[][] lowest, double[][] highest, double[] target, double[] margin,
+			int[] remaining)
+	{
+		if (stopped())
+			return false;
+		for (int l = 0; l < currents.length; l++)
+		{
+			// A lamp is lit by current in either direction
+			double low = currents[l] + lowest[battery][l], high = currents[l] + highest[battery][l];
+			double min = target[l] - margin[l] - EPSILON, max = target[l] + margin[l] + EPSILON;
+			if ((high < min || low > max) && (-low < min || -high > max))
+				return false;
+		}
+		if (battery == voltages.length)
+		{
+			CircuitComponent[][] placements = placements(assignment, voltages);
+			return placements != null && found.compareAndSet(null, placements);
+		}
+
+		for (int k : batteryKinds)
+		{
+			if (remaining[k] == 0)
+				continue;
+			double[] next = currents.clone();
+			for (int l = 0; l < next.length; l++)
+				next[l] += kinds.get(k).voltageDif * response[battery][l];
+			voltages[battery] = k;
+			remaining[k]--;
+			boolean lit = searchBatteries(battery + 1, next, assignment, voltages, response, lowest, highest, target,
+					margin, remaining);
+			remaining[k]++;
+			if (lit)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Turns a finished assignment into inventory components, checking that
+	 * the circuit really is solved with them
+	 *
+	 * @return The placements, or null if the check failed
+	 */
+	private CircuitComponent[][] placements(int[] assignment, int[] voltages)
+	{
+		CircuitComponent[][] placements = new CircuitComponent[base.grid.length][];
+		for (int i = 0; i < placements.length; i++)
+			placements[i] = new CircuitComponent[base.grid[i].length];
+		int[] used = new int[kinds.size()];
+		Circuit check = new Circuit(base);
+		for (int s = 0, b = 0; s < assignment.length; s++)
+		{
+			int kind = assignment[s] < 0 ? voltages[b++] : assignment[s];
+			CircuitComponent comp = items.get(kind).get(used[kind]++);
+			placements[slotRow[s]][slotCol[s]] = comp;
+			check.grid[slotRow[s]][slotCol[s]] = new CircuitComponent(comp);
+		}
+		return check.isSolved(mode) ? placements : null;
+	}
+}
@@ -1,23 +1,34 @@
 package com.fwumdesoft.project8;
 
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.Reader;
 import com.badlogic.gdx.assets.AssetDescriptor;
 import com.badlogic.gdx.assets.AssetLoaderParameters;
 import com.badlogic.gdx.assets.AssetManager;
+import com.badlogic.gdx.assets.loaders.AsynchronousAssetLoader;
 import com.badlogic.gdx.assets.loaders.FileHandleResolver;
-import com.badlogic.gdx.assets.loaders.SynchronousAssetLoader;
 import com.badlogic.gdx.files.FileHandle;
 import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.GdxRuntimeException;
 
 /**
- * Handles saving and loading of circuits to and from files
+ * Handles saving and loading of circuits to and from files </br>
+ * Circuits are read and decoded on the AssetManager's loading thread, so
+ * loading them never holds up drawing. Files ending in .circuit are binary, see
+ * CircuitFormat, and files ending in .circuit.txt are text, see CircuitText
  */
-public class CircuitIO extends SynchronousAssetLoader<Circuit, CircuitIO.CircuitParameters>
+public class CircuitIO extends AsynchronousAssetLoader<Circuit, CircuitIO.CircuitParameters>
 {
+	/**
+	 * The circuit decoded by the last call to loadAsync, waiting for loadSync
+	 * to hand it over. The AssetManager only loads one asset at a time with a
+	 * loader
+	 */
+	private Circuit circuit;
+	/**
+	 * The parser for text circuits, kept to reuse its buffer
+	 */
+	private final CircuitText text = new CircuitText();
 
 	/**
 	 * Create a new CircuitIO object
@@ -32,29 +43,57 @@ public class CircuitIO extends SynchronousAssetLoader<Circuit, CircuitIO.Circuit
 
 	@Override
 	/**
-	 * Don't use this method, it's called by the AssetManager
+	 * Don't use this method, it's called by the AssetManager off of the render
+	 * thread
 	 */
-	public Circuit load(AssetManager assetManager, String fileName, FileHandle file, CircuitParameters parameter)
+	public void loadAsync(AssetManager assetManager, String fileName, FileHandle file, CircuitParameters parameter)
 	{
-		Object o = null;
 		try
 		{
-			ObjectInputStream stream = new ObjectInputStream(new FileInputStream(file.file()));
-			o = stream.readObject();
-			stream.close();
+			if (fileName.endsWith(CircuitText.EXTENSION))
+				try (Reader reader = file.reader("UTF-8"))
+				{
+					circuit = text.parse(reader);
+				}
+			else
+				circuit = CircuitFormat.read(file.readBytes());
 		}
-		catch (IOException | ClassNotFoundException e)
+		catch (IOException | GdxRuntimeException e)
 		{
-			e.printStackTrace();
-			System.exit(1);
+			throw new GdxRuntimeException("Couldn't load circuit " + fileName, e);
 		}
-		Circuit c = (Circuit) o;
-		c.name = fileName.substring(0, fileName.indexOf(".circuit"));
+		circuit.name = nameOf(fileName);
+	}
+
+	@Override
+	/**
+	 * Don't use this method, it's called by the AssetManager
+	 */
+	public Circuit loadSync(AssetManager assetManager, String fileName, FileHandle file, CircuitParameters parameter)
+	{
+		Circuit c = circuit;
+		circuit = null;
 		return c;
 	}
 
 	/**
-	 * Write a circuit to a file
+	 * @return If a file is a circuit, in either format
+	 */
+	public static boolean isCircuit(String fileName)
+	{
+		return fileName.endsWith(".circuit") || fileName.endsWith(CircuitText.EXTENSION);
+	}
+
+	/**
+	 * @return The name of the circuit in a file
+	 */
+	public static String nameOf(String fileName)
+	{
+		return fileName.substring(0, fileName.indexOf(".circuit"));
+	}
+
+	/**
+	 * Write a circuit to a file, as text if its name ends with .circuit.txt
 	 * 
 	 * @param file
 	 *            The file to write to
@@ -65,11 +104,12 @@ public class CircuitIO extends SynchronousAssetLoader<Circuit, CircuitIO.Circuit
 	{
 		try
 		{
-			ObjectOutputStream stream = new ObjectOutputStream(new FileOutputStream(file.file()));
-			stream.writeObject(circuit);
-			stream.close();
+			if (file.name().endsWith(CircuitText.EXTENSION))
+				file.writeString(CircuitText.toString(circuit), false, "UTF-8");
+			else
+				file.writeBytes(CircuitFormat.toBytes(circuit), false);
 		}
-		catch (IOException e)
+		catch (GdxRuntimeException e)
 		{
 			e.printStackTrace();
 			System.exit(1);
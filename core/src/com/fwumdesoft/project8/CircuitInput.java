@@ -1,6 +1,7 @@
 package com.fwumdesoft.project8;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
@@ -14,7 +15,7 @@ import com.badlogic.gdx.math.Vector2;
  */
 /*
  * Keybindings: END: Activate 1: Place wire 2: Place resistor 3: Place lamp 4:
- * Place battery 5: Delete S: Save L: Load
+ * Place battery 5: Delete S: Save L: Load H: Hint
  */
 public class CircuitInput
 {
@@ -38,6 +39,17 @@ public class CircuitInput
 	 * The number of pixels the camera can move per frame
 	 */
 	private final int CAMERA_SPEED = 2;
+	/**
+	 * How long a hint may search for, in milliseconds
+	 */
+	private final int HINT_BUDGET = 250;
+	/**
+	 * The hint being searched for off the render thread, and the circuit and
+	 * version it is for, or null if there is no search
+	 */
+	private CompletableFuture<CircuitHintEngine.Hint> hint;
+	private Circuit hintCircuit;
+	private int hintVersion;
 
 	/**
 	 * Create a new circuit designer
@@ -72,6 +84,20 @@ public class CircuitInput
 		if (Gdx.input.isKeyPressed(Keys.UP)) camera.y += CAMERA_SPEED;
 		if (Gdx.input.isKeyPressed(Keys.DOWN)) camera.y -= CAMERA_SPEED;
 		if (Gdx.input.isKeyPressed(Keys.SHIFT_RIGHT)) camera.set(0, 0);
+		if (Gdx.input.isKeyJustPressed(Keys.H) && hint == null)
+		{
+			hint = CircuitHintEngine.findHintAsync(circuit, inventory, HINT_BUDGET);
+			hintCircuit = circuit;
+			hintVersion = circuit.getVersion();
+		}
+		if (hint != null && hint.isDone())
+		{
+			// A hint for a circuit that has since been left or changed is
+			// thrown away
+			if (hintCircuit == circuit && hintVersion == circuit.getVersion()) showHint(hint.join());
+			hint = null;
+			hintCircuit = null;
+		}
 		// If the cursor is off the screen no input needs to be processed
 				if (cursorY < 0 || cursorX < 0 || cursorY >= circuit.grid.length || cursorX >= circuit.grid[cursorY].length
 						|| circuit.grid[cursorY][cursorX] == null)
@@ -119,6 +145,7 @@ public class CircuitInput
 						// Pick up the component in the slot
 						inventory.addComponent(circuit.grid[cursorY][cursorX]);
 						circuit.grid[cursorY][cursorX] = CircuitComponent.blank();
+						circuit.modified();
 					}
 					previousPress = true;
 				}
@@ -163,6 +190,7 @@ public class CircuitInput
 					if (old.type != null) inventory.addComponent(old);
 					circuit.grid[cursorY][cursorX] = place;
 					inventory.removeComponent(place);
+					circuit.modified();
 				}
 				else
 				{
@@ -171,6 +199,39 @@ public class CircuitInput
 				}
 	}
 
+	/**
+	 * Tell the player if the circuit can be solved with what they carry, and
+	 * where one of the needed components goes
+	 * 
+	 * @param hint
+	 *            The result of the search
+	 */
+	private void showHint(CircuitHintEngine.Hint hint)
+	{
+		switch (hint.status)
+		{
+		case FOUND:
+			for (int y = 0; y < hint.placements.length; y++)
+				for (int x = 0; x < hint.placements[y].length; x++)
+					if (hint.placements[y][x] != null)
+					{
+						CircuitComponent comp = hint.placements[y][x];
+						String name = comp.type == CircuitComponent.Type.BATTERY ? "battery" : comp.isLamp ? "lamp" : "resistor";
+						JOptionPane.showMessageDialog(null, "Try a " + name + " of value " + comp.getMainValue() + " at the slot "
+								+ (x + 1) + " across, " + (y + 1) + " up.");
+						return;
+					}
+			JOptionPane.showMessageDialog(null, "The circuit is already solved.");
+			break;
+		case UNSOLVABLE:
+			JOptionPane.showMessageDialog(null, "Nothing you carry can solve this circuit.");
+			break;
+		case TIMED_OUT:
+			JOptionPane.showMessageDialog(null, "No hint could be found in time.");
+			break;
+		}
+	}
+
 	/**
 	 * Get the circuit that is being edited
 	 * 
@@ -0,0 +1,375 @@
+package com.fwumdesoft.project8;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.badlogic.gdx.Files.FileType;
+import com.badlogic.gdx.files.FileHandle;
+
+/**
+ * Every circuit of the game in one file, opened without reading it </br>
+ * The file is mapped into memory and only its header is checked when it is
+ * opened. A circuit is decoded the first time it is asked for, so opening the
+ * pack costs the same however many circuits it holds. Every number is big
+ * endian. A pack is:
+ * <ul>
+ * <li>The magic number "CPAK", then the version as a short</li>
+ * <li>The number of circuits as an int</li>
+ * <li>The index, an entry per circuit in order of name: where its name starts
+ * and where the circuit starts, each as an int from the start of the file</li>
+ * <li>The names, each a short length then that many bytes of UTF-8</li>
+ * <li>The circuits, in the binary format of CircuitFormat</li>
+ * </ul>
+ * Build a pack with main, which also checks that every circuit meant to be
+ * solved is. A circuit added after the pack is opened replaces the one in the
+ * file with the same name, so a circuit being worked on can be loaded on its
+ * own without building the pack again
+ */
+public class CircuitPack
+{
+	/**
+	 * The first four bytes of every pack, "CPAK"
+	 */
+	public static final int MAGIC = 0x4350414B;
+	/**
+	 * The version written by this class
+	 */
+	public static final short VERSION = 1;
+	/**
+	 * The name of the pack in the assets
+	 */
+	public static final String FILE = "circuits.pack";
+
+	/**
+	 * The length of the part of the header before the index, and of an entry
+	 * of the index
+	 */
+	private static final int HEADER_BYTES = 10, ENTRY_BYTES = 8;
+
+	/**
+	 * The contents of the pack, which is never moved so it can be shared
+	 */
+	private final ByteBuffer buffer;
+	/**
+	 * The number of circuits in the file
+	 */
+	private final int count;
+	/**
+	 * Each circuit in the file that has been decoded, by its place in the
+	 * index
+	 */
+	private final Circuit[] decoded;
+	/**
+	 * Circuits added after the pack was opened, by name, which replace those in
+	 * the file with the same name
+	 */
+	private final Map<String, Circuit> added;
+
+	/**
+	 * Create a pack from its contents
+	 *
+	 * @param buffer
+	 *            A buffer holding the whole pack, from its position on
+	 * @throws IOException
+	 *             If the buffer doesn't hold a pack this version can read
+	 */
+	public CircuitPack(ByteBuffer buffer) throws IOException
+	{
+		this.buffer = buffer.slice();
+		if (this.buffer.remaining() < HEADER_BYTES || this.buffer.getInt(0) != MAGIC)
+			throw new IOException("Not a circuit pack");
+		int version = this.buffer.getShort(4);
+		if (version < 1 || version > VERSION)
+			throw new IOException("Unknown circuit pack version " + version);
+		count = this.buffer.getInt(6);
+		if (count < 0 || HEADER_BYTES + (long) count * ENTRY_BYTES > this.buffer.limit())
+			throw new IOException("Corrupt circuit pack");
+		decoded = new Circuit[count];
+		added = new HashMap<>();
+	}
+
+	/**
+	 * Open a pack, mapping it into memory if it is a file on disk and reading
+	 * it otherwise
+	 *
+	 * @param file
+	 *            The pack
+	 * @return The pack
+	 * @throws IOException
+	 *             If the file can't be read or isn't a pack
+	 */
+	public static CircuitPack open(FileHandle file) throws IOException
+	{
+		// Internal files can be inside a jar or an apk, where they can only be
+		// read
+		if (file.type() != FileType.Classpath && file.file().isFile())
+			return open(file.file());
+		return new CircuitPack(ByteBuffer.wrap(file.readBytes()));
+	}
+
+	/**
+	 * Open a pack on disk by mapping it into memory
+	 *
+	 * @param file
+	 *            The pack
+	 * @return The pack
+	 * @throws IOException
+	 *             If the file can't be read or isn't a pack
+	 */
+	public static CircuitPack open(File file) throws IOException
+	{
+		// The mapping stays valid after the channel is closed
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			return new CircuitPack(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/**
+	 * @return The number of circuits, in the file and added
+	 */
+	public synchronized int size()
+	{
+		int size = count + added.size();
+		for (String name : added.keySet())
+			if (find(name) >= 0)
+				size--;
+		return size;
+	}
+
+	/**
+	 * @return The name of every circuit, in the file and added
+	 */
+	public synchronized List<String> names()
+	{
+		List<String> names = new ArrayList<>(size());
+		for (int i = 0; i < count; i++)
+		{
+			String name = name(i);
+			if (!added.containsKey(name))
+				names.add(name);
+		}
+		names.addAll(added.keySet());
+		return names;
+	}
+
+	/**
+	 * @return The name of every circuit whose name ends with a suffix
+	 */
+	public List<String> names(String suffix)
+	{
+		List<String> names = names();
+		names.removeIf(name -> !name.endsWith(suffix));
+		return names;
+	}
+
+	/**
+	 * @return If there is a circuit with a name
+	 */
+	public synchronized boolean contains(String name)
+	{
+		return added.containsKey(name) || find(name) >= 0;
+	}
+
+	/**
+	 * Get a circuit, decoding it if it hasn't been asked for before </br>
+	 * The same circuit is given to everyone who asks for it, so copy it before
+	 * changing it
+	 *
+	 * @param name
+	 *            The name of the circuit
+	 * @return The circuit, or null if there is none with that name
+	 * @throws IllegalStateException
+	 *             If the circuit in the file is corrupt
+	 */
+	public synchronized Circuit get(String name)
+	{
+		Circuit circuit = added.get(name);
+		if (circuit != null)
+			return circuit;
+		int index = find(name);
+		if (index < 0)
+			return null;
+		if (decoded[index] == null)
+		{
+			ByteBuffer data = buffer.duplicate();
+			try
+			{
+				data.position(buffer.getInt(HEADER_BYTES + index * ENTRY_BYTES + 4));
+				circuit = CircuitFormat.read(data);
+			} catch (IOException | RuntimeException e)
+			{
+				throw new IllegalStateException("Circuit " + name + " in the pack is corrupt", e);
+			}
+			circuit.name = name;
+			decoded[index] = circuit;
+		}
+		return decoded[index];
+	}
+
+	/**
+	 * Add a circuit loaded on its own, replacing any circuit with the same
+	 * name
+	 *
+	 * @param circuit
+	 *            The circuit, which must have a name
+	 */
+	public synchronized void add(Circuit circuit)
+	{
+		if (circuit.name == null)
+			throw new IllegalArgumentException("Circuit has no name");
+		added.put(circuit.name, circuit);
+	}
+
+	/**
+	 * Binary searches the index for a name
+	 *
+	 * @return The place of the name in the index, or -1 if it isn't there
+	 */
+	private int find(String name)
+	{
+		int low = 0, high = count - 1;
+		while (low <= high)
+		{
+			int middle = (low + high) >>> 1;
+			int order = name(middle).compareTo(name);
+			if (order < 0)
+				low = middle + 1;
+			else if (order > 0)
+				high = middle - 1;
+			else
+				return middle;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return The name at a place in the index
+	 * @throws IllegalStateException
+	 *             If the name is outside of the file
+	 */
+	private String name(int index)
+	{
+		try
+		{
+			int start = buffer.getInt(HEADER_BYTES + index * ENTRY_BYTES);
+			byte[] bytes = new byte[buffer.getShort(start) & 0xFFFF];
+			ByteBuffer data = buffer.duplicate();
+			data.position(start + 2);
+			data.get(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		} catch (RuntimeException e)
+		{
+			throw new IllegalStateException("Circuit pack is corrupt", e);
+		}
+	}
+
+	/**
+	 * Writes circuits as a pack
+	 *
+	 * @param circuits
+	 *            The circuits, each with a different name
+	 * @return The bytes of the pack
+	 */
+	public static byte[] toBytes(List<Circuit> circuits)
+	{
+		TreeMap<String, Circuit> byName = new TreeMap<>();
+		for (Circuit circuit : circuits)
+			if (byName.put(circuit.name, circuit) != null)
+				throw new IllegalArgumentException("Two circuits are named " + circuit.name);
+
+		List<byte[]> names = new ArrayList<>(), data = new ArrayList<>();
+		int size = HEADER_BYTES + byName.size() * ENTRY_BYTES;
+		for (Map.Entry<String, Circuit> entry : byName.entrySet())
+		{
+			names.add(entry.getKey().getBytes(StandardCharsets.UTF_8));
+			data.add(CircuitFormat.toBytes(entry.getValue()));
+			size += 2 + names.get(names.size() - 1).length + data.get(data.size() - 1).length;
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+		buffer.putInt(MAGIC);
+		buffer.putShort(VERSION);
+		buffer.putInt(byName.size());
+		int name = HEADER_BYTES + byName.size() * ENTRY_BYTES;
+		int circuit = name;
+		for (byte[] bytes : names)
+			circuit += 2 + bytes.length;
+		for (int i = 0; i < names.size(); i++)
+		{
+			buffer.putInt(name);
+			buffer.putInt(circuit);
+			name += 2 + names.get(i).length;
+			circuit += data.get(i).length;
+		}
+		for (byte[] bytes : names)
+		{
+			buffer.putShort((short) bytes.length);
+			buffer.put(bytes);
+		}
+		for (byte[] bytes : data)
+			buffer.put(bytes);
+		return buffer.array();
+	}
+
+	/**
+	 * Packs .circuit files into one file </br>
+	 * The first argument is the pack to write, and each one after is a file or
+	 * a folder of circuit files, binary or text. Fails without writing if a circuit whose
+	 * name ends with "_solved" isn't solved
+	 *
+	 * @param args
+	 *            The pack, then the files and folders to put in it
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length < 2)
+		{
+			System.err.println("Usage: CircuitPack <pack> <file or folder>...");
+			System.exit(1);
+		}
+		List<Circuit> circuits = new ArrayList<>();
+		CircuitText text = new CircuitText();
+		for (String arg : Arrays.copyOfRange(args, 1, args.length))
+		{
+			File path = new File(arg);
+			File[] files = path.isDirectory() ? path.listFiles((dir, name) -> CircuitIO.isCircuit(name))
+					: new File[] { path };
+			Arrays.sort(files);
+			for (File file : files)
+			{
+				Circuit circuit;
+				if (file.getName().endsWith(CircuitText.EXTENSION))
+					try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8))
+					{
+						circuit = text.parse(reader);
+					}
+				else
+					circuit = CircuitFormat.read(Files.readAllBytes(file.toPath()));
+				circuit.name = CircuitIO.nameOf(file.getName());
+				circuits.add(circuit);
+			}
+		}
+		for (SolveResult result : CircuitSolver.solveAll(circuits))
+			if (result.circuit.name.endsWith("_solved") && !result.solved)
+			{
+				System.err.println("Circuit is not solved: " + result);
+				System.exit(1);
+			}
+		byte[] pack = toBytes(circuits);
+		Files.write(new File(args[0]).toPath(), pack);
+		System.out.println(args[0] + ": " + circuits.size() + " circuits, " + pack.length + " bytes");
+	}
+}
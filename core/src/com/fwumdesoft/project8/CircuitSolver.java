@@ -1,12 +1,77 @@
 package com.fwumdesoft.project8;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
 
-import com.badlogic.gdx.math.Vector2;
 import com.fwumdesoft.project8.CircuitComponent.Type;
+import com.fwumdesoft.project8.SolveStats.Count;
+import com.fwumdesoft.project8.SolveStats.Phase;
 
 public class CircuitSolver
 {
+	/**
+	 * The ways a circuit can be turned into a system of equations
+	 */
+	public enum SolverMode
+	{
+		/**
+		 * One equation per junction and one per loop, solving for the current
+		 * in each branch
+		 */
+		KIRCHHOFF,
+		/**
+		 * Modified Nodal Analysis, solving for the voltage at each node and the
+		 * current through each battery
+		 */
+		NODAL,
+		/**
+		 * Conjugate gradients on the node voltages, for large meshes of
+		 * resistors and batteries
+		 */
+		ITERATIVE,
+		/**
+		 * Merges parts in series and in parallel first, which leaves most
+		 * puzzles with a handful of unknowns or none, and solves the rest with
+		 * KIRCHHOFF when too many are left
+		 */
+		REDUCED
+	};
+
+	/**
+	 * The mode used when none is given, which other threads read whenever
+	 * they solve
+	 */
+	public static volatile SolverMode mode = SolverMode.REDUCED;
+	/**
+	 * Square systems with at least this many unknowns are solved with sparse
+	 * matrices instead of dense ones
+	 */
+	static int sparseThreshold = 100;
+	/**
+	 * The ITERATIVE mode stops once the residual is this small, relative to
+	 * the right hand side
+	 */
+	public static double iterativeTolerance = 1e-10;
+	/**
+	 * The REDUCED mode solves circuits whose parts in series and parallel
+	 * merge down to at most this many unknowns that way, and the rest with
+	 * KIRCHHOFF; -1 always uses KIRCHHOFF
+	 */
+	static int reductionLimit = 8;
+	/**
+	 * The last reduction made by each thread, reused while circuits with the
+	 * same layout are solved
+	 */
+	private static final ThreadLocal<NetworkReduction> reductions = new ThreadLocal<>();
+	/**
+	 * Told about the phases of every solve when set, or null
+	 */
+	public static volatile SolverListener listener;
+
 	/**
 	 * Takes in a 2D array representing a PROPER circuit, and sets each
 	 * component's current value to its proper amount
@@ -16,265 +81,367 @@ public class CircuitSolver
 	 */
 	public static void solve(CircuitComponent[][] circuit)
 	{
-		SystemOfEquations system = new SystemOfEquations();
-		ArrayList<Vector2> junctions = new ArrayList<Vector2>();
-		ArrayList<Branch> branches = new ArrayList<Branch>();
-		buildJunctions(circuit, junctions);
-		buildBranches(circuit, junctions, branches);
+		solve(circuit, mode);
+	}
 
-		// Make an equation for each junction using Kirchoff's Junction Rule
-		for (Vector2 junction : junctions)
+	/**
+	 * Takes in a 2D array representing a PROPER circuit, and sets each
+	 * component's current value to its proper amount
+	 * 
+	 * @param circuit
+	 *            Represents the 2D of a circuit to be solved
+	 * @param mode
+	 *            The method to solve the circuit with
+	 */
+	public static void solve(CircuitComponent[][] circuit, SolverMode mode)
+	{
+		SolveStats stats = SolveStats.begin(circuit, mode);
+		boolean failed = true;
+		try
 		{
-			Equation equation = new Equation();
-			for (Branch branch : branches)
+			if (mode == SolverMode.REDUCED && reductionLimit >= 0)
 			{
-				if (branch.start.equals(junction))
-					equation.terms.add(new Term(1, branch));
-				if (branch.end.equals(junction))
-					equation.terms.add(new Term(-1, branch));
-			}
-
-			if (!system.equations.contains(equation))
-				system.equations.add(equation);
-		}
-
-		ArrayList<Branch> remainingBranches = new ArrayList<Branch>(branches);
-		// Make equations using Kirchoff's Loop Rule, ensuring each branch is
-		// used at least once
-		while (remainingBranches.size() > 0)
-		{
-			Branch branch = remainingBranches.remove(0);
-
-			ArrayList<Term> terms = buildEquation(circuit, junctions, branches, branch.start, branch.startDirection,
-					branch, branch, new ArrayList<Branch>());
-			int constant = 0;
-			for (int t = 0; t < terms.size(); t++)
-				if (terms.get(t).branch == null)
+				NetworkReduction reduction = reductions.get();
+				if (reduction == null || !reduction.matches(circuit))
 				{
-					constant -= terms.get(t).coefficient;
-					terms.remove(t--);
+					reduction = new NetworkReduction(circuit);
+					reductions.set(reduction);
 				}
-
-			Equation equation = new Equation(terms, constant);
-			for (Term term : terms)
-				remainingBranches.remove(term.branch);
-
-			system.equations.add(equation);
+				if (reduction.unknowns() <= reductionLimit)
+				{
+					reduction.solve(circuit);
+					failed = false;
+					return;
+				}
+			}
+			if (mode == SolverMode.ITERATIVE)
+				new IterativeSolver().solve(circuit);
+			else
+				new IncrementalSolver(factoredMode(mode)).solve(circuit);
+			failed = false;
+		} finally
+		{
+			SolveStats.finish(stats, failed);
 		}
+	}
 
-		// Organize each equation's terms, including 0's for branchs that dont
-		// exist
-		for (Equation equation : system.equations)
-			equation.sort(branches);
-
-		ArrayList<Double> result = system.solve();
-
-		// With the branch results (finally!) put the numbers into each branch's
-		// component(s)
-		for (int i = 0; i < branches.size(); i++)
-			fillBranch(circuit, branches.get(i), result.get(i));
+	/**
+	 * Forgets every shared plan and this thread's last reduction, so the next
+	 * solve of any layout builds them again, like the first solve after
+	 * loading
+	 */
+	public static void clearCaches()
+	{
+		SolvePlan.clearCache();
+		reductions.remove();
 	}
 
 	/**
-	 * Sets the current value in each component in the branch to the given value
+	 * Solves a PROPER circuit and finds how the current through every lamp
+	 * changes with the main value of every part the player can change, with
+	 * one extra solve per lamp against the same factorization </br>
+	 * The conjugate gradient mode has no factorization to reuse, so it is
+	 * done with nodes instead
 	 * 
 	 * @param circuit
-	 *            The 2D array representing circuit
-	 * @param branch
-	 *            The branch currently being filled
-	 * @param loc
-	 *            The start location of branch iteration
-	 * @param prev
-	 *            The junction "previous" to the start location
-	 * @param current
-	 *            The current value flowing through this branch
+	 *            Represents the 2D of a circuit to be solved
+	 * @return The derivatives
+	 * @throws IllegalArgumentException
+	 *             If the circuit is not a proper circuit
+	 * @throws ArithmeticException
+	 *             If the circuit has no unique solution
 	 */
-	private static void fillBranch(CircuitComponent[][] circuit, Branch branch, double current)
+	public static Sensitivity sensitivity(CircuitComponent[][] circuit)
 	{
-		Vector2 loc = new Vector2(branch.startDirection), prev = new Vector2(branch.start);
+		return new IncrementalSolver(factoredMode(mode)).sensitivity(circuit);
+	}
 
-		while (!loc.equals(branch.end))
+	/**
+	 * @return The mode to use when a factored matrix is needed, which is also
+	 *         what REDUCED falls back to
+	 */
+	static SolverMode factoredMode(SolverMode mode)
+	{
+		switch (mode)
 		{
-			if (circuit[(int) loc.x][(int) loc.y].type != Type.WIRE)
-			{
-				circuit[(int) loc.x][(int) loc.y].current = Math.abs(current);
-				if (circuit[(int) loc.x][(int) loc.y].isLamp && Math.abs(Math.abs(current)
-						- circuit[(int) loc.x][(int) loc.y].targetCurrent) <= circuit[(int) loc.x][(int) loc.y].targetMargin)
-					circuit[(int) loc.x][(int) loc.y].isActive = true;
-			}
-
-			if (loc.x + 1 < circuit.length && !new Vector2(loc.x + 1, loc.y).equals(prev)
-					&& circuit[(int) loc.x + 1][(int) loc.y] != null)
-			{
-				prev.set(loc);
-				loc.x++;
-			} else if (loc.y + 1 < circuit[0].length && !new Vector2(loc.x, loc.y + 1).equals(prev)
-					&& circuit[(int) loc.x][(int) loc.y + 1] != null)
-			{
-				prev.set(loc);
-				loc.y++;
-			} else if (loc.x - 1 >= 0 && !new Vector2(loc.x - 1, loc.y).equals(prev)
-					&& circuit[(int) loc.x - 1][(int) loc.y] != null)
-			{
-				prev.set(loc);
-				loc.x--;
-			} else if (loc.y - 1 >= 0 && !new Vector2(loc.x, loc.y - 1).equals(prev)
-					&& circuit[(int) loc.x][(int) loc.y - 1] != null)
-			{
-				prev.set(loc);
-				loc.y--;
-			}
+		case ITERATIVE:
+			return SolverMode.NODAL;
+		case REDUCED:
+			return SolverMode.KIRCHHOFF;
+		default:
+			return mode;
 		}
 	}
 
 	/**
-	 * Using Kirchoff's Loop Rule, will build an equation recursively from the
-	 * startBranch
+	 * Checks many circuits at once, spread across the cores of the machine
+	 * (the common ForkJoin pool) </br>
+	 * Each circuit is checked with isSolved, so its components hold their
+	 * currents afterwards and its result is cached. The same circuit must not
+	 * be in the collection twice, or be edited while this runs
+	 * 
+	 * @param circuits
+	 *            The circuits to check
+	 * @return The result for each circuit, in the order of the collection
+	 */
+	public static List<SolveResult> solveAll(Collection<Circuit> circuits)
+	{
+		return circuits.parallelStream().map(SolveResult::new).collect(Collectors.toList());
+	}
+
+	/**
+	 * Builds the system of equations for a circuit, without solving it
 	 * 
 	 * @param circuit
-	 *            The 2D array representing the circuit
-	 * @param junctions
-	 *            The list of junctions in the circuit
-	 * @param branches
-	 *            The list of branches in the circuit
-	 * @param loc
-	 *            The start location of this call
-	 * @param prev
-	 *            The "previous" location to loc (used to move in the proper
-	 *            direction)
-	 * @param currentBranch
-	 *            The branch this call is iterating on
-	 * @param startBranch
-	 *            The initial branch, used as the base case
-	 * @param checkedBranches
-	 *            The branches already being checked, used to make sure the path
-	 *            doesn't loop where it shouldn't
-	 * @return An ArrayList of Terms for an equation, not necessarily in order
-	 *         according to "branches"
+	 *            Represents the 2D of a circuit to be solved
+	 * @param mode
+	 *            The method to build the equations with
+	 * @return The plan to solve the circuit with
 	 */
-	private static ArrayList<Term> buildEquation(CircuitComponent[][] circuit, ArrayList<Vector2> junctions,
-			ArrayList<Branch> branches, Vector2 prev, Vector2 loc, Branch currentBranch, Branch startBranch,
-			ArrayList<Branch> checkedBranches)
+	static SolvePlan compile(CircuitComponent[][] circuit, SolverMode mode)
 	{
-		ArrayList<Term> workingSet = new ArrayList<Term>();
-		checkedBranches.add(currentBranch);
-		int currentFactor = prev.equals(currentBranch.end) ? -1 : 1;
-		loc = new Vector2(loc);
-		prev = new Vector2(prev);
+		// Loops only know about resistances, so capacitors and inductors are
+		// always solved as nodes
+		if (mode != SolverMode.KIRCHHOFF || hasReactive(circuit))
+			return NodalSolver.compile(circuit);
+
+		long start = SolveStats.start();
+		Grid grid = new Grid(circuit);
+		SolveStats.end(Phase.JUNCTIONS, start);
+		SolveStats.count(Count.JUNCTIONS, grid.junctionList.length);
+
+		start = SolveStats.start();
+		SystemOfEquations system = new SystemOfEquations();
+		ArrayList<Branch> branches = new ArrayList<Branch>();
+		buildBranches(grid, branches);
+		for (Branch branch : branches)
+			traceBranch(grid, branch);
+		SolveStats.end(Phase.BRANCHES, start);
+		SolveStats.count(Count.BRANCHES, branches.size());
+
+		start = SolveStats.start();
+		buildEquations(grid, branches, system);
+		SolvePlan plan = system.compile(circuit, branches.size());
 
-		// Iterate over the current branch until we hit a junction, adding terms
-		// for components in the process
-		while (!junctions.contains(loc))
+		// Each component in a branch carries the branch's current
+		for (Branch branch : branches)
+			for (Term term : branch.terms)
+				plan.setOutput(plan.element(term.cell), branch.index, -1, false);
+		plan.finish();
+		SolveStats.end(Phase.EQUATIONS, start);
+		return plan;
+	}
+
+	/**
+	 * Walks a branch from its start, filling in the terms it adds to a loop
+	 * equation that goes through it in that direction
+	 * 
+	 * @param grid
+	 *            The layout of the circuit
+	 * @param branch
+	 *            The branch to walk
+	 */
+	private static void traceBranch(Grid grid, Branch branch)
+	{
+		int loc = branch.startDirection, prev = branch.start;
+		while (loc != branch.end)
 		{
-			switch (circuit[(int) loc.x][(int) loc.y].type)
+			switch (grid.type(loc))
 			{
 			case RESISTOR:
-				workingSet.add(new Term(currentFactor * circuit[(int) loc.x][(int) loc.y].resistance, currentBranch));
+				branch.terms.add(new Term(1, branch, loc));
 				break;
 			case BATTERY:
-				int directionFactor = 1;
-				if(loc.x != prev.x)
-					directionFactor = (int) (loc.x - prev.x);
-				else if(loc.y != prev.y)
-					directionFactor = (int) (loc.y - prev.y);
-				workingSet.add(new Term(directionFactor * circuit[(int) loc.x][(int) loc.y].voltageDif, null));
+				int directionFactor = grid.x(loc) != grid.x(prev) ? grid.x(loc) - grid.x(prev)
+						: grid.y(loc) - grid.y(prev);
+				branch.terms.add(new Term(directionFactor, null, loc));
 				break;
 			default:
 				break;
 			}
 
-			if (loc.x + 1 < circuit.length && !new Vector2(loc.x + 1, loc.y).equals(prev)
-					&& circuit[(int) loc.x + 1][(int) loc.y] != null)
-			{
-				prev.set(loc);
-				loc.x++;
-			} else if (loc.y + 1 < circuit[0].length && !new Vector2(loc.x, loc.y + 1).equals(prev)
-					&& circuit[(int) loc.x][(int) loc.y + 1] != null)
-			{
-				prev.set(loc);
-				loc.y++;
-			} else if (loc.x - 1 >= 0 && !new Vector2(loc.x - 1, loc.y).equals(prev)
-					&& circuit[(int) loc.x - 1][(int) loc.y] != null)
-			{
-				prev.set(loc);
-				loc.x--;
-			} else if (loc.y - 1 >= 0 && !new Vector2(loc.x, loc.y - 1).equals(prev)
-					&& circuit[(int) loc.x][(int) loc.y - 1] != null)
-			{
-				prev.set(loc);
-				loc.y--;
-			}
+			int next = grid.step(loc, prev);
+			prev = loc;
+			loc = next;
 		}
+	}
 
-		// If the tracing brings us back to the startBranch, then collapse the
-		// recursion
-		if (startBranch.start.equals(loc) || startBranch.start.equals(loc) || startBranch.start.equals(loc)
-				|| startBranch.start.equals(loc))
-			return workingSet;
+	/**
+	 * Builds an independent set of equations from a spanning tree of the
+	 * junctions </br>
+	 * Every junction but the root of its tree gets an equation from
+	 * Kirchoff's Junction Rule. Every branch left out of the tree closes
+	 * exactly one loop with the tree, which gets an equation from Kirchoff's
+	 * Loop Rule. That makes one equation per branch
+	 * 
+	 * @param grid
+	 *            The layout of the circuit
+	 * @param branches
+	 *            The traced branches of the circuit
+	 * @param system
+	 *            The system to add the equations to
+	 */
+	private static void buildEquations(Grid grid, ArrayList<Branch> branches, SystemOfEquations system)
+	{
+		int junctionCount = grid.junctionList.length;
+		int[] junctionOf = new int[grid.neighbors.length];
+		for (int j = 0; j < junctionCount; j++)
+			junctionOf[grid.junctionList[j]] = j;
 
-		// Attempt to recur on each branch in the junction until we find a
-		// success
-		ArrayList<Term> result = null;
+		// The branches touching each junction, in branch order
+		int[] incidentStart = new int[junctionCount + 1];
+		for (Branch branch : branches)
+		{
+			incidentStart[junctionOf[branch.start] + 1]++;
+			incidentStart[junctionOf[branch.end] + 1]++;
+		}
+		for (int j = 0; j < junctionCount; j++)
+			incidentStart[j + 1] += incidentStart[j];
+		int[] incident = new int[incidentStart[junctionCount]];
+		int[] next = Arrays.copyOf(incidentStart, junctionCount);
 		for (Branch branch : branches)
 		{
-			if (!checkedBranches.contains(branch) && (branch.start.equals(loc) || branch.end.equals(loc)))
+			incident[next[junctionOf[branch.start]]++] = branch.index;
+			if (branch.end != branch.start)
+				incident[next[junctionOf[branch.end]]++] = branch.index;
+		}
+
+		// Grow a spanning tree over each connected group of junctions
+		int[] parentBranch = new int[junctionCount], depth = new int[junctionCount];
+		Arrays.fill(depth, -1);
+		boolean[] inTree = new boolean[branches.size()];
+		int[] queue = new int[junctionCount];
+		for (int root = 0; root < junctionCount; root++)
+		{
+			if (depth[root] >= 0)
+				continue;
+			depth[root] = 0;
+			parentBranch[root] = -1;
+			int head = 0, tail = 0;
+			queue[tail++] = root;
+			while (head < tail)
+			{
+				int j = queue[head++];
+				for (int p = incidentStart[j]; p < next[j]; p++)
+				{
+					Branch branch = branches.get(incident[p]);
+					int other = junctionOf[branch.start == grid.junctionList[j] ? branch.end : branch.start];
+					if (depth[other] >= 0)
+						continue;
+					depth[other] = depth[j] + 1;
+					parentBranch[other] = branch.index;
+					inTree[branch.index] = true;
+					queue[tail++] = other;
+				}
+			}
+		}
+
+		// Make an equation for each junction using Kirchoff's Junction Rule,
+		// leaving out the roots since each tree's equations add up to zero
+		for (int j = 0; j < junctionCount; j++)
+		{
+			if (parentBranch[j] < 0)
+				continue;
+			int junction = grid.junctionList[j];
+			Equation equation = new Equation();
+			for (int p = incidentStart[j]; p < next[j]; p++)
 			{
-				checkedBranches.add(branch);
-				result = buildEquation(circuit, junctions, branches, loc,
-						new Vector2(branch.start.equals(loc) ? branch.startDirection : branch.endDirection), branch,
-						startBranch, checkedBranches);
-				if (result != null)
-					break;
+				Branch branch = branches.get(incident[p]);
+				if (branch.start == junction)
+					equation.terms.add(new Term(1, branch, -1));
+				if (branch.end == junction)
+					equation.terms.add(new Term(-1, branch, -1));
 			}
+			system.equations.add(equation);
 		}
 
-		// If the recursion fails (looped into itself) fail this call
-		if (result == null)
+		// Make an equation for each branch outside the tree using Kirchoff's
+		// Loop Rule: along the branch, then back through the tree
+		for (Branch chord : branches)
 		{
-			checkedBranches.remove(currentBranch);
-			return null;
-		} else
-		{// Otherwise, succeed by trace-back
-			workingSet.addAll(result);
-			return workingSet;
+			if (inTree[chord.index])
+				continue;
+			Equation equation = new Equation();
+			addBranchTerms(equation, chord, 1);
+			int from = junctionOf[chord.end], to = junctionOf[chord.start];
+			while (from != to)
+				if (depth[from] >= depth[to])
+				{
+					// Walk up from the end of the chord
+					Branch branch = branches.get(parentBranch[from]);
+					addBranchTerms(equation, branch, branch.start == grid.junctionList[from] ? 1 : -1);
+					from = junctionOf[branch.start == grid.junctionList[from] ? branch.end : branch.start];
+				} else
+				{
+					// Walk up from the start of the chord, which is walked down
+					// by the loop
+					Branch branch = branches.get(parentBranch[to]);
+					addBranchTerms(equation, branch, branch.start == grid.junctionList[to] ? -1 : 1);
+					to = junctionOf[branch.start == grid.junctionList[to] ? branch.end : branch.start];
+				}
+			system.equations.add(equation);
 		}
 	}
 
 	/**
-	 * Fills the junctions list with references to each junction in the circuit
+	 * Adds the terms of a branch to a loop equation
 	 * 
-	 * @param circuit
-	 *            The 2D array representing the circuit
-	 * @param junctions
-	 *            The list of Vector2s to be filled with junctions
+	 * @param equation
+	 *            The loop equation
+	 * @param branch
+	 *            The branch the loop goes through
+	 * @param direction
+	 *            1 if the loop goes through the branch from its start, -1 if
+	 *            from its end
 	 */
-	private static void buildJunctions(CircuitComponent[][] circuit, ArrayList<Vector2> junctions)
+	private static void addBranchTerms(Equation equation, Branch branch, int direction)
 	{
-		Vector2 backup = null;
-		for (int x = 0; x < circuit.length; x++)
-			for (int y = 0; y < circuit[x].length; y++)
-				if (circuit[x][y] != null)
-					if (circuit[x][y].type == Type.WIRE)
-					{
-						if (backup == null)
-							backup = new Vector2(x, y);
-					
-						int count = 0;
-						if (x + 1 < circuit.length && circuit[x + 1][y] != null)
-							count++;
-						if (y + 1 < circuit[x].length && circuit[x][y + 1] != null)
-							count++;
-						if (x - 1 >= 0 && circuit[x - 1][y] != null)
-							count++;
-						if (y - 1 >= 0 && circuit[x][y - 1] != null)
-							count++;
-
-						if (count > 2)
-							junctions.add(new Vector2(x, y));
-					}
+		for (Term term : branch.terms)
+			equation.terms.add(new Term(direction * term.coefficient, term.branch, term.cell));
+	}
+
+	/**
+	 * Creates an empty matrix for a system of equations, sparse if it is big
+	 * enough for that to pay off
+	 * 
+	 * @param rows
+	 *            The number of equations
+	 * @param cols
+	 *            The number of unknowns
+	 * @return The new matrix
+	 */
+	static SolverMatrix createMatrix(int rows, int cols)
+	{
+		if (rows == cols && cols >= sparseThreshold)
+			return new SparseMatrix(rows, cols);
+		return new DenseMatrix(rows, cols);
+	}
 
-		if (junctions.size() == 0)
-			junctions.add(backup);
+	/**
+	 * Sets the current of a single component, lighting it only if it is a lamp
+	 * within its target margin
+	 * 
+	 * @param comp
+	 *            The component to fill
+	 * @param current
+	 *            The current through the component, in either direction
+	 */
+	static void setCurrent(CircuitComponent comp, double current)
+	{
+		comp.current = Math.abs(current);
+		comp.isActive = comp.isLamp && Math.abs(comp.current - comp.targetCurrent) <= comp.targetMargin;
+	}
+
+	/**
+	 * @return If the circuit holds a capacitor or an inductor
+	 */
+	static boolean hasReactive(CircuitComponent[][] circuit)
+	{
+		for (CircuitComponent[] column : circuit)
+			for (CircuitComponent comp : column)
+				if (comp != null && (comp.type == Type.CAPACITOR || comp.type == Type.INDUCTOR))
+					return true;
+		return false;
 	}
 
 	/**
@@ -282,277 +449,296 @@ public class CircuitSolver
 	 * branch.start on the start junction and branch.end just before the end
 	 * junction
 	 * 
-	 * @param circuit
-	 *            The 2D array representing the circuit
-	 * @param junctions
-	 *            The list of junctions in the circuit
+	 * @param grid
+	 *            The layout of the circuit
 	 * @param branches
 	 *            The list to be filled with branches
 	 */
-	private static void buildBranches(CircuitComponent[][] circuit, ArrayList<Vector2> junctions,
-			ArrayList<Branch> branches)
+	private static void buildBranches(Grid grid, ArrayList<Branch> branches)
 	{
-		for (Vector2 junction : junctions)
-		{
-			if (junction.x + 1 < circuit.length && circuit[(int) junction.x + 1][(int) junction.y] != null)
-				buildBranch(circuit, junctions, branches, new Vector2(junction),
-						new Vector2(junction.x + 1, junction.y));
-			if (junction.y + 1 < circuit[0].length && circuit[(int) junction.x][(int) junction.y + 1] != null)
-				buildBranch(circuit, junctions, branches, new Vector2(junction),
-						new Vector2(junction.x, junction.y + 1));
-			if (junction.x - 1 >= 0 && circuit[(int) junction.x - 1][(int) junction.y] != null)
-				buildBranch(circuit, junctions, branches, new Vector2(junction),
-						new Vector2(junction.x - 1, junction.y));
-			if (junction.y - 1 >= 0 && circuit[(int) junction.x][(int) junction.y - 1] != null)
-				buildBranch(circuit, junctions, branches, new Vector2(junction),
-						new Vector2(junction.x, junction.y - 1));
-		}
+		// The first cell of every branch found so far, from either end
+		BitSet found = new BitSet(grid.neighbors.length);
+		for (int junction : grid.junctionList)
+			for (int direction = 0; direction < 4; direction++)
+				if ((grid.neighbors[junction] & 1 << direction) != 0)
+					buildBranch(grid, branches, found, junction, grid.move(junction, direction));
 	}
 
-	private static void buildBranch(CircuitComponent[][] circuit, ArrayList<Vector2> junctions,
-			ArrayList<Branch> branches, Vector2 prev, Vector2 loc)
+	private static void buildBranch(Grid grid, ArrayList<Branch> branches, BitSet found, int prev, int loc)
 	{
 		// If the branch already exists, dont make again
-		for (Branch branch : branches)
-			if (branch.endDirection.equals(loc))
-				return;
+		if (found.get(loc))
+			return;
 
-		Vector2 start = new Vector2(prev);
-		Vector2 startDir = new Vector2(loc);
+		int start = prev;
+		int startDir = loc;
 
 		// Find the end of the branch by iterating until we hit a junction
-		boolean cont = true;
-		while (cont)
-			if (junctions.contains(loc))
-				cont = false;
-			else if (loc.x + 1 < circuit.length && !new Vector2(loc.x + 1, loc.y).equals(prev)
-					&& circuit[(int) loc.x + 1][(int) loc.y] != null)
-			{
-				prev.set(loc);
-				loc.x++;
-			} else if (loc.y + 1 < circuit[(int) loc.x].length && !new Vector2(loc.x, loc.y + 1).equals(prev)
-					&& circuit[(int) loc.x][(int) loc.y + 1] != null)
-			{
-				prev.set(loc);
-				loc.y++;
-			} else if (loc.x - 1 >= 0 && !new Vector2(loc.x - 1, loc.y).equals(prev)
-					&& circuit[(int) loc.x - 1][(int) loc.y] != null)
-			{
-				prev.set(loc);
-				loc.x--;
-			} else if (loc.y - 1 >= 0 && !new Vector2(loc.x, loc.y - 1).equals(prev)
-					&& circuit[(int) loc.x][(int) loc.y - 1] != null)
-			{
-				prev.set(loc);
-				loc.y--;
-			}
+		while (!grid.junctions.get(loc))
+		{
+			int next = grid.step(loc, prev);
+			prev = loc;
+			loc = next;
+		}
 
 		// In the special case of two adjacent junctions, don't make them a
 		// branch!
-		if (!junctions.contains(prev))
-			branches.add(new Branch(start, startDir, loc, prev));
+		if (!grid.junctions.get(prev))
+		{
+			branches.add(new Branch(start, startDir, loc, prev, branches.size()));
+			found.set(prev);
+		}
 	}
 
 	/**
-	 * Represents a system of equations
-	 *
+	 * The layout of a circuit, for walking along its wires without allocating
+	 * </br>
+	 * A position is packed into one int as x * height + y, and each cell has a
+	 * mask of which neighbors exist
 	 */
-	private static class SystemOfEquations
+	private static class Grid
 	{
-		public ArrayList<Equation> equations;
-
-		public SystemOfEquations()
-		{
-			equations = new ArrayList<Equation>();
-		}
+		/**
+		 * The neighbor bits, in the order paths prefer them
+		 */
+		public static final int PLUS_X = 1, PLUS_Y = 2, MINUS_X = 4, MINUS_Y = 8;
 
+		public final CircuitComponent[][] circuit;
+		public final int height;
 		/**
-		 * Solves the system
-		 * 
-		 * @return An ArrayList of Doubles which are the currents through each
-		 *         branch
+		 * The neighbors of each cell
+		 */
+		public final byte[] neighbors;
+		/**
+		 * The wire cells with more than two neighbors
 		 */
-		public ArrayList<Double> solve()
+		public final BitSet junctions;
+		/**
+		 * The junctions in order
+		 */
+		public final int[] junctionList;
+
+		public Grid(CircuitComponent[][] circuit)
 		{
-			int numVars = equations.get(0).terms.size();
-			// By the end of this loop, the first "numVars" equations will be in
-			// Reduced Row Echeleon Form
-			for (int row = 0; row < numVars; row++)
-			{
-				// Row echeleon form needs something other than zero in diagonal
-				if (equations.get(row).terms.get(row).coefficient == 0)
-					for (int e = row + 1; e < equations.size(); e++)
-						if (equations.get(e).terms.get(row).coefficient != 0)
+			this.circuit = circuit;
+			height = circuit[0].length;
+			neighbors = new byte[circuit.length * height];
+			junctions = new BitSet(neighbors.length);
+			int[] list = new int[neighbors.length];
+			int count = 0, backup = -1;
+			for (int x = 0; x < circuit.length; x++)
+				for (int y = 0; y < height; y++)
+				{
+					if (circuit[x][y] == null)
+						continue;
+					int cell = x * height + y, mask = 0;
+					if (x + 1 < circuit.length && circuit[x + 1][y] != null)
+						mask |= PLUS_X;
+					if (y + 1 < height && circuit[x][y + 1] != null)
+						mask |= PLUS_Y;
+					if (x - 1 >= 0 && circuit[x - 1][y] != null)
+						mask |= MINUS_X;
+					if (y - 1 >= 0 && circuit[x][y - 1] != null)
+						mask |= MINUS_Y;
+					neighbors[cell] = (byte) mask;
+
+					if (circuit[x][y].type == Type.WIRE)
+					{
+						if (backup < 0)
+							backup = cell;
+						if (Integer.bitCount(mask) > 2)
 						{
-							equations.set(row, equations.set(e, equations.get(row)));
-							break;
+							junctions.set(cell);
+							list[count++] = cell;
 						}
+					}
+				}
 
-				if (equations.get(row).terms.get(row).coefficient != 1)
-					equations.set(row, equations.get(row).scalar(1.0 / equations.get(row).terms.get(row).coefficient));
-
-				// Zero everything above and below the 1, for reduced row
-				// echeleon
-				for (int e = 0; e < equations.size(); e++)
-					if (e == row)
-						continue;
-					else if (equations.get(e).terms.get(row).coefficient != 0)
-						equations.set(e, equations.get(row).scalar(-equations.get(e).terms.get(row).coefficient)
-								.add(equations.get(e)));
+			// A single loop has no junctions, so any wire will do
+			if (count == 0 && backup >= 0)
+			{
+				junctions.set(backup);
+				list[count++] = backup;
 			}
-
-			ArrayList<Double> result = new ArrayList<Double>();
-			for (int b = 0; b < numVars; b++)
-				result.add(equations.get(b).constant);
-
-			return result;
+			junctionList = Arrays.copyOf(list, count);
 		}
 
-		public String toString()
+		public int x(int cell)
 		{
-			return equations.toString().replace("[", "").replace("]", "").replace(", ", "\n");
+			return cell / height;
 		}
-	}
-
-	/**
-	 * Represents an equation for a system of equations
-	 *
-	 */
-	private static class Equation
-	{
-		public ArrayList<Term> terms;
-		public double constant;
 
-		public Equation()
+		public int y(int cell)
 		{
-			this(new ArrayList<Term>(), 0);
+			return cell % height;
 		}
 
-		public Equation(ArrayList<Term> terms, double constant)
+		public Type type(int cell)
 		{
-			this.terms = terms;
-			this.constant = constant;
+			return circuit[cell / height][cell % height].type;
 		}
 
 		/**
-		 * Rearranges the terms according to branches and adds terms of 0 for
-		 * missing branches
-		 * 
-		 * @param branches
-		 *            The list of branches to be rearranged according to
+		 * @return The cell next to a cell in a direction (0 to 3, in the order
+		 *         of the neighbor bits)
 		 */
-		public void sort(ArrayList<Branch> branches)
+		public int move(int cell, int direction)
 		{
-			for (int i = 0; i < terms.size() - 1; i++)
-				for (int j = i + 1; j < terms.size(); j++)
-					if (terms.get(i).branch == terms.get(j).branch)
-					{
-						terms.set(i, terms.get(i).add(terms.get(j)));
-						terms.remove(j--);
-					}
-
-			for (int b = 0; b < branches.size(); b++)
+			switch (direction)
 			{
-				int i = 0;
-				while (i < terms.size())
-				{
-					if (terms.get(i).branch.equals(branches.get(b)))
-						break;
-					i++;
-				}
-
-				if (i < terms.size())
-					terms.set(b, terms.set(i, terms.get(b)));
-				else
-					terms.add(b, new Term(0, branches.get(b)));
+			case 0:
+				return cell + height;
+			case 1:
+				return cell + 1;
+			case 2:
+				return cell - height;
+			default:
+				return cell - 1;
 			}
 		}
 
 		/**
-		 * Makes a new equation multiplied by a given value
+		 * Takes one step along a path
 		 * 
-		 * @param scale
-		 *            The value to multiply the equation by
-		 * @return The new Equation
+		 * @param cell
+		 *            The current cell
+		 * @param prev
+		 *            The cell the path came from
+		 * @return The first neighbor that isn't prev
 		 */
-		public Equation scalar(double scale)
+		public int step(int cell, int prev)
 		{
-			Equation result = new Equation(new ArrayList<Term>(), constant * scale);
+			int mask = neighbors[cell];
+			if ((mask & PLUS_X) != 0 && cell + height != prev)
+				return cell + height;
+			if ((mask & PLUS_Y) != 0 && cell + 1 != prev)
+				return cell + 1;
+			if ((mask & MINUS_X) != 0 && cell - height != prev)
+				return cell - height;
+			if ((mask & MINUS_Y) != 0 && cell - 1 != prev)
+				return cell - 1;
+			throw new IllegalArgumentException("The path through " + x(cell) + ", " + y(cell) + " is a dead end");
+		}
+	}
 
-			for (Term term : terms)
-				result.terms.add(new Term(term.coefficient * scale, term.branch));
+	/**
+	 * Represents a system of equations
+	 *
+	 */
+	private static class SystemOfEquations
+	{
+		public ArrayList<Equation> equations;
 
-			return result;
+		public SystemOfEquations()
+		{
+			equations = new ArrayList<Equation>();
 		}
 
 		/**
-		 * Adds two equations together and returns the result, combining like
-		 * terms
+		 * Turns the system into a plan, where each resistor's resistance and
+		 * each battery's voltage is looked up when the plan is solved
 		 * 
-		 * @param equation
-		 *            The other equation to be added
-		 * @return The resulting equation
+		 * @param circuit
+		 *            The 2D array representing the circuit
+		 * @param numVars
+		 *            The number of branches (unknowns) in the system
+		 * @return The unfinished plan
 		 */
-		public Equation add(Equation equation)
+		public SolvePlan compile(CircuitComponent[][] circuit, int numVars)
 		{
-			Equation result = new Equation(new ArrayList<Term>(), constant + equation.constant);
-			for (Term term : terms)
-				result.terms.add(term);
-			for (Term term : equation.terms)
-				result.terms.add(term);
+			SolvePlan plan = new SolvePlan(SolverMode.KIRCHHOFF, circuit, equations.size(), numVars, false, 0);
+			for (int row = 0; row < equations.size(); row++)
+				for (Term term : equations.get(row).terms)
+					if (term.branch == null)
+						// Battery voltages move to the other side of the equation
+						plan.addSource(row, -term.coefficient, plan.element(term.cell));
+					else if (term.cell < 0)
+						plan.addFixed(row, term.branch.index, term.coefficient);
+					else
+						plan.addStamp(row, term.branch.index, term.coefficient, plan.element(term.cell));
+			return plan;
+		}
 
-			for (int i = 0; i < result.terms.size() - 1; i++)
-				for (int j = i + 1; j < result.terms.size(); j++)
-					if (result.terms.get(i).branch == result.terms.get(j).branch)
-					{
-						result.terms.set(i, result.terms.get(i).add(result.terms.get(j)));
-						result.terms.remove(j--);
-					}
+		public String toString()
+		{
+			return equations.toString().replace("[", "").replace("]", "").replace(", ", "\n");
+		}
+	}
+
+	/**
+	 * Represents an equation for a system of equations
+	 *
+	 */
+	private static class Equation
+	{
+		public ArrayList<Term> terms;
+
+		public Equation()
+		{
+			this(new ArrayList<Term>());
+		}
+
+		public Equation(ArrayList<Term> terms)
+		{
+			this.terms = terms;
+		}
 
-			return result;
+		@Override
+		public boolean equals(Object other)
+		{
+			return other instanceof Equation && terms.equals(((Equation) other).terms);
 		}
 
-		@SuppressWarnings("unused")
-		public boolean equals(Equation equation)
+		@Override
+		public int hashCode()
 		{
-			return terms.equals(equation.terms) && constant == equation.constant;
+			return terms.hashCode();
 		}
 
 		public String toString()
 		{
-			return terms.toString().replace("[", "").replace("]", "").replace(", ", " + ") + " = " + constant;
+			return terms.toString().replace("[", "").replace("]", "").replace(", ", " + ") + " = 0";
 		}
 	}
 
 	/**
-	 * Represents a term in an equation
+	 * Represents a term in an equation </br>
+	 * A term with a cell is multiplied by that component's value: the
+	 * resistance of a resistor on the branch, or the voltage of a battery if
+	 * there is no branch
 	 *
 	 */
 	private static class Term
 	{
 		public double coefficient;
 		public Branch branch;
+		public int cell;
 
-		public Term(double coefficient, Branch branch)
+		public Term(double coefficient, Branch branch, int cell)
 		{
 			this.coefficient = coefficient;
 			this.branch = branch;
+			this.cell = cell;
 		}
 
-		public Term add(Term term)
+		@Override
+		public boolean equals(Object other)
 		{
-			return new Term(coefficient + term.coefficient, branch);
+			if (!(other instanceof Term))
+				return false;
+			Term term = (Term) other;
+			return coefficient == term.coefficient && branch == term.branch && cell == term.cell;
 		}
 
-		@SuppressWarnings("unused")
-		public boolean equals(Term term)
+		@Override
+		public int hashCode()
 		{
-			return coefficient == term.coefficient && branch == term.branch;
+			return (Double.hashCode(coefficient) * 31 + System.identityHashCode(branch)) * 31 + cell;
 		}
 
 		public String toString()
 		{
-			return coefficient + "*" + branch;
+			return coefficient + (cell >= 0 ? "*[" + cell + "]" : "") + "*" + branch;
 		}
 	}
 
@@ -562,19 +748,44 @@ public class CircuitSolver
 	 */
 	private static class Branch
 	{
-		public Vector2 start, startDirection, end, endDirection;
+		/**
+		 * The junction the branch starts on, the first cell after it, the
+		 * junction the branch ends on and the last cell before it
+		 */
+		public int start, startDirection, end, endDirection;
+		/**
+		 * The column of this branch's current in the system of equations
+		 */
+		public int index;
+		/**
+		 * The terms the branch adds to a loop equation going through it from
+		 * start to end
+		 */
+		public ArrayList<Term> terms;
 
-		public Branch(Vector2 start, Vector2 startDirection, Vector2 end, Vector2 endDirection)
+		public Branch(int start, int startDirection, int end, int endDirection, int index)
 		{
 			this.start = start;
 			this.end = end;
 			this.startDirection = startDirection;
 			this.endDirection = endDirection;
+			this.index = index;
+			terms = new ArrayList<Term>();
+		}
+
+		@Override
+		public boolean equals(Object other)
+		{
+			if (!(other instanceof Branch))
+				return false;
+			Branch branch = (Branch) other;
+			return startDirection == branch.startDirection && endDirection == branch.endDirection;
 		}
 
-		public boolean equals(Branch branch)
+		@Override
+		public int hashCode()
 		{
-			return startDirection.equals(branch.startDirection) && endDirection.equals(branch.endDirection);
+			return startDirection * 31 + endDirection;
 		}
 
 		public String toString()
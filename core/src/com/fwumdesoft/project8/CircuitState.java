@@ -0,0 +1,115 @@
+package com.fwumdesoft.project8;
+
+/**
+ * The solved state of one version of a circuit, which never changes once it
+ * is made </br>
+ * It is indexed like the circuit's grid and copies everything the renderer
+ * needs, so it can be handed from a solving thread to the render thread
+ * without either one touching the other's components
+ */
+public class CircuitState
+{
+	/**
+	 * The circuit that was solved
+	 */
+	public final Circuit circuit;
+	/**
+	 * The version of the circuit that was solved
+	 */
+	public final int version;
+	/**
+	 * If the circuit lights enough lamps
+	 */
+	public final boolean solved;
+	/**
+	 * The number of lit lamps
+	 */
+	public final int activeLamps;
+	/**
+	 * The structural problem with the circuit, or OK
+	 */
+	public final CircuitDiagnostic diagnostic;
+	private final double[][] current, voltage;
+	private final boolean[][] active;
+
+	/**
+	 * Copy the state out of a circuit that was just checked
+	 *
+	 * @param circuit
+	 *            The circuit the state belongs to
+	 * @param version
+	 *            The version of the circuit that was checked
+	 * @param checked
+	 *            The copy of the circuit that was checked
+	 * @param solved
+	 *            If the copy was solved
+	 */
+	CircuitState(Circuit circuit, int version, Circuit checked, boolean solved)
+	{
+		this.circuit = circuit;
+		this.version = version;
+		this.solved = solved;
+		this.diagnostic = checked.getDiagnostic();
+		CircuitComponent[][] grid = checked.grid;
+		current = new double[grid.length][];
+		voltage = new double[grid.length][];
+		active = new boolean[grid.length][];
+		int count = 0;
+		for (int i = 0; i < grid.length; i++)
+		{
+			current[i] = new double[grid[i].length];
+			voltage[i] = new double[grid[i].length];
+			active[i] = new boolean[grid[i].length];
+			for (int j = 0; j < grid[i].length; j++)
+			{
+				CircuitComponent comp = grid[i][j];
+				if (comp == null)
+					continue;
+				current[i][j] = comp.current;
+				voltage[i][j] = comp.voltageDif;
+				active[i][j] = comp.isActive;
+				if (comp.isLamp && comp.isActive)
+					count++;
+			}
+		}
+		activeLamps = count;
+	}
+
+	/**
+	 * @return The current through a cell, NaN if it is on fire
+	 */
+	public double getCurrent(int i, int j)
+	{
+		return current[i][j];
+	}
+
+	/**
+	 * @return The voltage across a cell
+	 */
+	public double getVoltage(int i, int j)
+	{
+		return voltage[i][j];
+	}
+
+	/**
+	 * @return If the component in a cell is active, like a lit lamp
+	 */
+	public boolean isActive(int i, int j)
+	{
+		return active[i][j];
+	}
+
+	/**
+	 * @return If this state is for the latest edit of its circuit
+	 */
+	public boolean isCurrent()
+	{
+		return version == circuit.getVersion();
+	}
+
+	public String toString()
+	{
+		return (circuit.name != null ? circuit.name : "circuit") + " v" + version + ": "
+				+ (solved ? "solved" : "unsolved") + ", " + activeLamps + "/" + circuit.goalLamps + " lamps";
+	}
+}
@@ -0,0 +1,514 @@
+package com.fwumdesoft.project8;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * Reads and writes circuits as text that can be edited by hand </br>
+ * A file is a header line, the grid, then the values of the parts:
+ *
+ * <pre>
+ * circuit 8 3 1
+ * +++B++++
+ * +......+
+ * +++r+L++
+ * values
+ * 5
+ * 2 1
+ * </pre>
+ *
+ * The header gives the number of columns, of rows and of lamps to light. Each
+ * line of the grid is a row as it is drawn, so the first line is the top row,
+ * with a character per cell: '.' for nothing, '+' for a wire, '_' for a blank
+ * and 'B', 'R', 'L', 'C' and 'I' for a battery, resistor, lamp, capacitor and
+ * inductor, in lower case if the player can change it. After "values" comes
+ * the main value of every part in the order they are in the grid, split by
+ * any whitespace, written the way Double.parseDouble reads them, including
+ * Infinity and NaN. A '#' starts a comment that runs to the end of its line,
+ * which can follow a row of the grid but not take a line of its own inside it
+ * </br>
+ * A parser keeps its buffer between uses and reads straight into the grid
+ * without making a string for anything, so reuse one to read many circuits.
+ * One parser can only read one circuit at a time
+ */
+public class CircuitText
+{
+	/**
+	 * The extension of circuit text files
+	 */
+	public static final String EXTENSION = ".circuit.txt";
+
+	/**
+	 * The character of each cell code of CircuitFormat, for parts the player
+	 * can't change
+	 */
+	private static final char[] CELLS = { '.', '+', '_', 'B', 'R', 'L', 'C', 'I' };
+	/**
+	 * Each power of ten that a double holds exactly
+	 */
+	private static final double[] POWERS = new double[23];
+	static
+	{
+		POWERS[0] = 1;
+		for (int i = 1; i < POWERS.length; i++)
+			POWERS[i] = POWERS[i - 1] * 10;
+	}
+	/**
+	 * The most digits a long can hold, and the most a double holds exactly
+	 */
+	private static final int LONG_DIGITS = 18, EXACT_DIGITS = 15;
+
+	/**
+	 * The characters read but not parsed yet are from position to limit
+	 */
+	private final char[] buffer = new char[4096];
+	private int position, limit;
+	/**
+	 * Where the characters come from, only one of which is used at a time
+	 */
+	private Reader reader;
+	private CharBuffer chars;
+	/**
+	 * The line being parsed, counting from 1
+	 */
+	private int line;
+	/**
+	 * The characters of the number being parsed, for the rare number that
+	 * can't be parsed exactly without them, which grows to fit the longest
+	 */
+	private char[] number = new char[64];
+	private int length;
+
+	/**
+	 * Reads a circuit from text
+	 *
+	 * @param reader
+	 *            Where to read the circuit from, which is read to its end but
+	 *            not closed
+	 * @return The circuit, without a name
+	 * @throws IOException
+	 *             If the reader fails or the text isn't a circuit
+	 */
+	public static Circuit read(Reader reader) throws IOException
+	{
+		return new CircuitText().parse(reader);
+	}
+
+	/**
+	 * Reads a circuit from text
+	 *
+	 * @param reader
+	 *            Where to read the circuit from, which is read to its end but
+	 *            not closed
+	 * @return The circuit, without a name
+	 * @throws IOException
+	 *             If the reader fails or the text isn't a circuit
+	 */
+	public Circuit parse(Reader reader) throws IOException
+	{
+		this.reader = reader;
+		try
+		{
+			return parse();
+		} finally
+		{
+			this.reader = null;
+		}
+	}
+
+	/**
+	 * Reads a circuit from text
+	 *
+	 * @param chars
+	 *            The text, which is read from its position to its limit
+	 * @return The circuit, without a name
+	 * @throws IOException
+	 *             If the text isn't a circuit
+	 */
+	public Circuit parse(CharBuffer chars) throws IOException
+	{
+		this.chars = chars;
+		try
+		{
+			return parse();
+		} finally
+		{
+			this.chars = null;
+		}
+	}
+
+	private Circuit parse() throws IOException
+	{
+		position = limit = 0;
+		line = 1;
+		skipSpace();
+		expect("circuit");
+		int columns = readInt(), rows = readInt(), goalLamps = readInt();
+		if (columns <= 0 || rows <= 0 || goalLamps < 0)
+			throw error("Bad size of circuit");
+		if ((long) columns * rows > CircuitFormat.MAX_CELLS)
+			throw error("Circuit has more than " + CircuitFormat.MAX_CELLS + " cells");
+		endLine();
+
+		CircuitComponent[][] grid = new CircuitComponent[rows][columns];
+		for (int row = rows - 1; row >= 0; row--)
+		{
+			for (int column = 0; column < columns; column++)
+			{
+				int c = peek();
+				if (c < 0 || c == '\n' || c == '\r')
+					throw error("Row should have " + columns + " cells but has " + column);
+				grid[row][column] = cell((char) next());
+			}
+			endLine();
+		}
+
+		skipSpace();
+		expect("values");
+		for (int row = rows - 1; row >= 0; row--)
+			for (int column = 0; column < columns; column++)
+			{
+				CircuitComponent comp = grid[row][column];
+				if (CircuitFormat.codeOf(comp) < CircuitFormat.BATTERY)
+					continue;
+				skipSpace();
+				comp.setMainValue(readDouble());
+			}
+		skipSpace();
+		if (peek() >= 0)
+			throw error("More values than parts");
+		return new Circuit(grid, goalLamps);
+	}
+
+	/**
+	 * @return The component for a character of the grid
+	 */
+	private CircuitComponent cell(char c) throws IOException
+	{
+		switch (c)
+		{
+		case '.':
+			return null;
+		case '+':
+			return CircuitComponent.wire();
+		case '_':
+			return CircuitComponent.blank();
+		}
+		boolean changeable = Character.isLowerCase(c);
+		char upper = Character.toUpperCase(c);
+		for (byte code = CircuitFormat.BATTERY; code < CELLS.length; code++)
+			if (CELLS[code] == upper)
+			{
+				CircuitComponent comp = CircuitFormat.create(code);
+				comp.isChangeable = changeable;
+				return comp;
+			}
+		throw error("Unknown cell '" + c + "'");
+	}
+
+	/**
+	 * Writes a circuit as text
+	 *
+	 * @param circuit
+	 *            The circuit to write
+	 * @param out
+	 *            Where to write it
+	 * @throws IOException
+	 *             If out fails
+	 */
+	public static void write(Circuit circuit, Appendable out) throws IOException
+	{
+		CircuitComponent[][] grid = circuit.grid;
+		int rows = grid.length, columns = grid[0].length;
+		out.append("circuit ").append(Integer.toString(columns)).append(' ').append(Integer.toString(rows))
+				.append(' ').append(Integer.toString(circuit.goalLamps)).append('\n');
+		for (int row = rows - 1; row >= 0; row--)
+		{
+			for (int column = 0; column < columns; column++)
+			{
+				CircuitComponent comp = grid[row][column];
+				char c = CELLS[CircuitFormat.codeOf(comp)];
+				out.append(comp != null && comp.type != null && comp.isChangeable ? Character.toLowerCase(c) : c);
+			}
+			out.append('\n');
+		}
+		// The values of each row go on their own line, to make them easier to
+		// find
+		out.append("values\n");
+		for (int row = rows - 1; row >= 0; row--)
+		{
+			boolean first = true;
+			for (int column = 0; column < columns; column++)
+			{
+				CircuitComponent comp = grid[row][column];
+				if (CircuitFormat.codeOf(comp) < CircuitFormat.BATTERY)
+					continue;
+				if (!first)
+					out.append(' ');
+				double value = comp.getMainValue();
+				// Negative zero is written as a double so it keeps its sign
+				boolean whole = value == Math.rint(value) && Math.abs(value) < 1e15
+						&& Double.doubleToRawLongBits(value) != Double.doubleToRawLongBits(-0.0);
+				out.append(whole ? Long.toString((long) value) : Double.toString(value));
+				first = false;
+			}
+			if (!first)
+				out.append('\n');
+		}
+	}
+
+	/**
+	 * Writes a circuit as text
+	 *
+	 * @param circuit
+	 *            The circuit to write
+	 * @return The text
+	 */
+	public static String toString(Circuit circuit)
+	{
+		StringBuilder out = new StringBuilder();
+		try
+		{
+			write(circuit, out);
+		} catch (IOException e)
+		{
+			// A StringBuilder never fails
+			throw new IllegalStateException(e);
+		}
+		return out.toString();
+	}
+
+	/**
+	 * @return The next character without moving past it, or -1 at the end
+	 */
+	private int peek() throws IOException
+	{
+		if (position == limit && !fill())
+			return -1;
+		return buffer[position];
+	}
+
+	/**
+	 * @return The next character, or -1 at the end
+	 */
+	private int next() throws IOException
+	{
+		int c = peek();
+		if (c >= 0)
+		{
+			position++;
+			if (c == '\n')
+				line++;
+		}
+		return c;
+	}
+
+	/**
+	 * Refills the buffer from the reader or the CharBuffer
+	 *
+	 * @return If there is anything more to read
+	 */
+	private boolean fill() throws IOException
+	{
+		position = 0;
+		if (reader != null)
+			limit = Math.max(reader.read(buffer), 0);
+		else
+		{
+			limit = Math.min(chars.remaining(), buffer.length);
+			chars.get(buffer, 0, limit);
+		}
+		return limit > 0;
+	}
+
+	/**
+	 * Skips whitespace, line ends and comments
+	 */
+	private void skipSpace() throws IOException
+	{
+		for (int c = peek(); c >= 0; c = peek())
+		{
+			if (c == '#')
+				while (c >= 0 && c != '\n')
+					c = next();
+			else if (Character.isWhitespace(c))
+				next();
+			else
+				return;
+		}
+	}
+
+	/**
+	 * Skips to the start of the next line, allowing only spaces and a comment
+	 * on the way
+	 */
+	private void endLine() throws IOException
+	{
+		int c = next();
+		while (c == ' ' || c == '\t' || c == '\r')
+			c = next();
+		if (c == '#')
+			while (c >= 0 && c != '\n')
+				c = next();
+		if (c >= 0 && c != '\n')
+			throw error("Unexpected '" + (char) c + "'");
+	}
+
+	/**
+	 * Reads a word, which must be next
+	 */
+	private void expect(String word) throws IOException
+	{
+		for (int i = 0; i < word.length(); i++)
+			if (next() != word.charAt(i))
+				throw error("Expected \"" + word + "\"");
+		if (!isEnd(peek()))
+			throw error("Expected \"" + word + "\"");
+	}
+
+	/**
+	 * @return If a character ends a word or number
+	 */
+	private static boolean isEnd(int c)
+	{
+		return c < 0 || c == '#' || Character.isWhitespace(c);
+	}
+
+	/**
+	 * Reads a whole number after any spaces on the same line
+	 */
+	private int readInt() throws IOException
+	{
+		while (peek() == ' ' || peek() == '\t')
+			next();
+		long value = 0;
+		int digits = 0;
+		for (int c = peek(); c >= '0' && c <= '9' && value <= Integer.MAX_VALUE; c = peek())
+		{
+			value = value * 10 + (next() - '0');
+			digits++;
+		}
+		if (digits == 0 || value > Integer.MAX_VALUE || !isEnd(peek()))
+			throw error("Expected a whole number");
+		return (int) value;
+	}
+
+	/**
+	 * Reads a number, like 5, -0.75 or 1.5e-3 </br>
+	 * A number with few enough digits is worked out exactly from its digits
+	 * and a power of ten. Any other number is handed to Double.parseDouble,
+	 * which is the only time parsing makes a string
+	 */
+	private double readDouble() throws IOException
+	{
+		length = 0;
+		boolean negative = false;
+		int c = peek();
+		if (c == '-' || c == '+')
+		{
+			negative = c == '-';
+			keep(next());
+			c = peek();
+		}
+		if (c == 'I' || c == 'N')
+		{
+			while (!isEnd(peek()))
+				keep(next());
+			return parseKept();
+		}
+
+		long mantissa = 0;
+		// The digits in the mantissa, and the power of ten to scale it by
+		int digits = 0, scale = 0;
+		boolean any = false, dot = false;
+		for (c = peek(); (c >= '0' && c <= '9') || (c == '.' && !dot); c = peek())
+		{
+			keep(next());
+			if (c == '.')
+			{
+				dot = true;
+				continue;
+			}
+			any = true;
+			if (digits < LONG_DIGITS)
+			{
+				if (mantissa != 0 || c != '0')
+				{
+					mantissa = mantissa * 10 + (c - '0');
+					digits++;
+				}
+				if (dot)
+					scale--;
+			}
+			else if (!dot)
+				scale++;
+		}
+		if (!any)
+			throw error("Expected a number");
+
+		if (c == 'e' || c == 'E')
+		{
+			keep(next());
+			int exponent = 0;
+			boolean negativeExponent = false;
+			if (peek() == '-' || peek() == '+')
+			{
+				negativeExponent = peek() == '-';
+				keep(next());
+			}
+			if (peek() < '0' || peek() > '9')
+				throw error("Expected an exponent");
+			for (c = peek(); c >= '0' && c <= '9'; c = peek())
+			{
+				keep(next());
+				exponent = Math.min(exponent * 10 + (c - '0'), 10000);
+			}
+			scale += negativeExponent ? -exponent : exponent;
+		}
+		if (!isEnd(peek()))
+			throw error("Unexpected '" + (char) peek() + "' in number");
+
+		double value;
+		if (digits <= EXACT_DIGITS && Math.abs(scale) < POWERS.length)
+			// Both are exact, so one multiply or divide rounds correctly
+			value = scale < 0 ? mantissa / POWERS[-scale] : mantissa * POWERS[scale];
+		else
+			value = parseKept();
+		return negative ? -Math.abs(value) : value;
+	}
+
+	/**
+	 * Keeps a character of the number being read, growing the space for them
+	 * if it is full
+	 */
+	private void keep(int c)
+	{
+		if (length == number.length)
+			number = Arrays.copyOf(number, length * 2);
+		number[length++] = (char) c;
+	}
+
+	/**
+	 * @return The number kept so far, parsed by Double.parseDouble
+	 */
+	private double parseKept() throws IOException
+	{
+		try
+		{
+			return Double.parseDouble(new String(number, 0, length));
+		} catch (NumberFormatException e)
+		{
+			throw error("Expected a number");
+		}
+	}
+
+	/**
+	 * @return An exception for a problem at the current line
+	 */
+	private IOException error(String message)
+	{
+		return new IOException("Line " + line + ": " + message);
+	}
+}
@@ -0,0 +1,318 @@
+package com.fwumdesoft.project8;
+
+import java.util.Arrays;
+
+/**
+ * A dense, row-major matrix of doubles that can factor itself in place into
+ * L and U (with partial pivoting) and then solve for any number of right hand
+ * sides </br>
+ * The backing arrays are kept between uses, so a matrix can be reset and
+ * refilled without allocating
+ */
+class DenseMatrix implements SolverMatrix
+{
+	/**
+	 * Pivots smaller than this (relative to the largest entry) are treated as
+	 * zero, meaning the system has no unique solution
+	 */
+	private static final double PIVOT_TOLERANCE = 1e-10;
+
+	/**
+	 * The number of rows and columns currently in use
+	 */
+	private int rows, cols;
+	/**
+	 * The entries, stored row after row
+	 */
+	private double[] data;
+	/**
+	 * The original row index of each row after pivoting
+	 */
+	private int[] permutation;
+	/**
+	 * Scratch space for solving
+	 */
+	private double[] work;
+	/**
+	 * If the matrix currently holds its LU factors instead of its entries
+	 */
+	private boolean factored;
+	/**
+	 * The rank found by the last factor, and how many rows it dropped
+	 */
+	private int rank, dropped;
+
+	/**
+	 * Create an empty matrix
+	 *
+	 * @param rows
+	 *            The number of rows
+	 * @param cols
+	 *            The number of columns
+	 */
+	public DenseMatrix(int rows, int cols)
+	{
+		data = new double[0];
+		permutation = new int[0];
+		work = new double[0];
+		reset(rows, cols);
+	}
+
+	/**
+	 * Resize the matrix and zero every entry, reusing the backing arrays when
+	 * they are big enough
+	 *
+	 * @param rows
+	 *            The new number of rows
+	 * @param cols
+	 *            The new number of columns
+	 */
+	public void reset(int rows, int cols)
+	{
+		this.rows = rows;
+		this.cols = cols;
+		if (data.length < rows * cols)
+			data = new double[rows * cols];
+		else
+			Arrays.fill(data, 0, rows * cols, 0);
+		if (permutation.length < rows)
+		{
+			permutation = new int[rows];
+			work = new double[rows];
+		}
+		factored = false;
+	}
+
+	/**
+	 * @return The number of rows in use
+	 */
+	@Override
+	public int rows()
+	{
+		return rows;
+	}
+
+	/**
+	 * @return The number of columns in use
+	 */
+	@Override
+	public int cols()
+	{
+		return cols;
+	}
+
+	/**
+	 * @return The entry at the given row and column
+	 */
+	public double get(int row, int col)
+	{
+		return data[row * cols + col];
+	}
+
+	/**
+	 * Overwrite the entry at the given row and column
+	 */
+	public void set(int row, int col, double value)
+	{
+		data[row * cols + col] = value;
+	}
+
+	/**
+	 * Add a value to an entry, so like terms can be stamped in one at a time
+	 */
+	@Override
+	public void add(int row, int col, double value)
+	{
+		data[row * cols + col] += value;
+	}
+
+	/**
+	 * Factor the matrix in place into a unit lower triangular L and an upper
+	 * triangular U, swapping in the largest remaining entry of each column as
+	 * its pivot </br>
+	 * There may be more rows than columns as long as the system is consistent.
+	 * A row that is eliminated down to nothing depends on the rows already
+	 * pivoted on, so it is moved past the rows still in use and never touched
+	 * again. If a column has no pivot, elimination carries on past it to find
+	 * the rank before failing
+	 *
+	 * @throws ArithmeticException
+	 *             If the columns are not independent
+	 */
+	@Override
+	public void factor()
+	{
+		double largest = 0;
+		for (int i = 0; i < rows * cols; i++)
+			largest = Math.max(largest, Math.abs(data[i]));
+		double tolerance = largest * PIVOT_TOLERANCE;
+
+		for (int r = 0; r < rows; r++)
+			permutation[r] = r;
+
+		// Rows from active on depend on the pivot rows and are left alone
+		int active = rows;
+		int missing = -1;
+		rank = dropped = 0;
+		for (int k = 0; k < cols; k++)
+		{
+			// Find the largest entry at or below the diagonal
+			int p = rank;
+			int pivot = -1;
+			double best = tolerance;
+			for (int r = p; r < active; r++)
+			{
+				double value = Math.abs(data[r * cols + k]);
+				if (value > best)
+				{
+					best = value;
+					pivot = r;
+				}
+			}
+			if (pivot < 0)
+			{
+				if (missing < 0)
+					missing = k;
+				continue;
+			}
+
+			if (pivot != p)
+				swap(p, pivot);
+
+			// Eliminate below the pivot, keeping the multipliers as L, and
+			// drop any row that has nothing left
+			double inverse = 1.0 / data[p * cols + k];
+			for (int r = p + 1; r < active; r++)
+			{
+				double factor = data[r * cols + k];
+				if (factor == 0)
+					continue;
+				factor *= inverse;
+				data[r * cols + k] = factor;
+				double left = 0;
+				for (int c = k + 1; c < cols; c++)
+				{
+					data[r * cols + c] -= factor * data[p * cols + c];
+					left = Math.max(left, Math.abs(data[r * cols + c]));
+				}
+				if (left <= tolerance)
+				{
+					swap(r--, --active);
+					dropped++;
+				}
+			}
+			rank++;
+		}
+		if (missing >= 0)
+			throw new ArithmeticException("Matrix is singular at column " + missing + ", with rank " + rank + " of "
+					+ cols);
+		factored = true;
+	}
+
+	/**
+	 * @return The number of independent rows found by the last factor, which
+	 *         is the number of columns if it succeeded
+	 */
+	@Override
+	public int rank()
+	{
+		return rank;
+	}
+
+	/**
+	 * @return The number of rows the last factor found to depend on other
+	 *         rows and stopped eliminating into
+	 */
+	public int dropped()
+	{
+		return dropped;
+	}
+
+	/**
+	 * Swaps two rows and their places in the permutation
+	 */
+	private void swap(int a, int b)
+	{
+		if (a == b)
+			return;
+		for (int c = 0; c < cols; c++)
+		{
+			double temp = data[a * cols + c];
+			data[a * cols + c] = data[b * cols + c];
+			data[b * cols + c] = temp;
+		}
+		int temp = permutation[a];
+		permutation[a] = permutation[b];
+		permutation[b] = temp;
+	}
+
+	/**
+	 * Solve the factored system for a right hand side
+	 *
+	 * @param b
+	 *            The right hand side, one value per row
+	 * @param x
+	 *            The array to fill with the solution, one value per column
+	 */
+	@Override
+	public void solve(double[] b, double[] x)
+	{
+		if (!factored)
+			throw new IllegalStateException("Matrix must be factored before solving");
+
+		// Forward substitution with L
+		for (int r = 0; r < cols; r++)
+		{
+			double sum = b[permutation[r]];
+			for (int c = 0; c < r; c++)
+				sum -= data[r * cols + c] * work[c];
+			work[r] = sum;
+		}
+
+		// Back substitution with U
+		for (int r = cols - 1; r >= 0; r--)
+		{
+			double sum = work[r];
+			for (int c = r + 1; c < cols; c++)
+				sum -= data[r * cols + c] * x[c];
+			x[r] = sum / data[r * cols + r];
+		}
+	}
+
+	/**
+	 * Solve the transpose of the factored system
+	 *
+	 * @param b
+	 *            The right hand side, one value per column
+	 * @param x
+	 *            The array to fill with the solution, one value per row
+	 */
+	@Override
+	public void solveTransposed(double[] b, double[] x)
+	{
+		if (!factored)
+			throw new IllegalStateException("Matrix must be factored before solving");
+
+		// Forward substitution with U transposed
+		for (int r = 0; r < cols; r++)
+		{
+			double sum = b[r];
+			for (int c = 0; c < r; c++)
+				sum -= data[c * cols + r] * work[c];
+			work[r] = sum / data[r * cols + r];
+		}
+
+		// Back substitution with L transposed
+		for (int r = cols - 1; r >= 0; r--)
+		{
+			double sum = work[r];
+			for (int c = r + 1; c < cols; c++)
+				sum -= data[c * cols + r] * work[c];
+			work[r] = sum;
+		}
+
+		Arrays.fill(x, 0, rows, 0);
+		for (int r = 0; r < cols; r++)
+			x[permutation[r]] = work[r];
+	}
+}
@@ -0,0 +1,419 @@
+package com.fwumdesoft.project8;
+
+import java.util.Arrays;
+
+import com.fwumdesoft.project8.CircuitSolver.SolverMode;
+import com.fwumdesoft.project8.SolveStats.Count;
+import com.fwumdesoft.project8.SolveStats.Phase;
+
+/**
+ * Solves the same circuit over and over as its components are edited </br>
+ * The plan and the factored matrix are kept between solves. If the layout is
+ * the same, only the components whose values changed are looked at: a
+ * battery only changes the right hand side, and a resistor is a rank one
+ * change to the matrix, which is folded into the old factorization with the
+ * Sherman-Morrison formula instead of factoring again
+ */
+class IncrementalSolver
+{
+	/**
+	 * How many rank one updates are stacked on a factorization before it is
+	 * thrown away and the matrix is factored again
+	 */
+	private static final int MAX_UPDATES = 8;
+	/**
+	 * Updates whose denominator is smaller than this are too close to singular
+	 * to trust, so the matrix is factored again instead
+	 */
+	private static final double UPDATE_TOLERANCE = 1e-8;
+
+	/**
+	 * The mode the circuit is solved with
+	 */
+	private final SolverMode mode;
+	/**
+	 * The plan for the current layout, or null before the first solve
+	 */
+	private SolvePlan plan;
+	/**
+	 * The value of each element at the last solve, and scratch space to read
+	 * the new values into
+	 */
+	private double[] values, nextValues;
+	/**
+	 * The factored matrix
+	 */
+	private SolverMatrix matrix;
+	/**
+	 * The right hand side and solution of the last solve
+	 */
+	private double[] constants, result;
+	/**
+	 * For each update: A^-1 * u, v, and 1 + v * A^-1 * u, where A is the matrix
+	 * with the updates before it applied
+	 */
+	private double[][] updateColumn, updateRow;
+	private double[] updateDenominator;
+	private int updates;
+	/**
+	 * If the last solve is still valid for the values it was made with
+	 */
+	private boolean solved;
+
+	/**
+	 * Create a solver for a mode
+	 *
+	 * @param mode
+	 *            The method to solve circuits with
+	 */
+	public IncrementalSolver(SolverMode mode)
+	{
+		this.mode = mode;
+	}
+
+	/**
+	 * @return The mode circuits are solved with
+	 */
+	public SolverMode getMode()
+	{
+		return mode;
+	}
+
+	/**
+	 * Takes in a 2D array representing a PROPER circuit, and sets each
+	 * component's current value to its proper amount, reusing as much of the
+	 * last solve as possible
+	 *
+	 * @param circuit
+	 *            Represents the 2D of a circuit to be solved
+	 */
+	public void solve(CircuitComponent[][] circuit)
+	{
+		try
+		{
+			if (plan == null || !plan.matches(circuit))
+				rebuild(circuit);
+			else
+				update(circuit);
+			SolveStats.count(Count.EQUATIONS, plan.rows);
+			SolveStats.count(Count.UNKNOWNS, plan.cols);
+
+			long start = SolveStats.start();
+			if (!solved)
+			{
+				plan.assembleConstants(values, constants);
+				solveUpdated(constants, result);
+				solved = true;
+			}
+			SolveStats.end(Phase.ELIMINATION, start);
+			start = SolveStats.start();
+			plan.fill(circuit, values, result);
+			SolveStats.end(Phase.FILL, start);
+		} catch (RuntimeException e)
+		{
+			// Start over next time rather than trust a half-updated state
+			plan = null;
+			throw e;
+		}
+	}
+
+	/**
+	 * Finds how the current through every lamp changes with the main value of
+	 * every part the player can change, solving the circuit first </br>
+	 * A lamp's current is read from the solution through a fixed vector g, so
+	 * one solve with the transposed matrix gives its adjoint A^-T g. The
+	 * derivative for each part is then the adjoint dotted with how that part's
+	 * value moves the right hand side and the matrix times the solution,
+	 * which only needs the part's few stamps. That is one extra solve per
+	 * lamp against the factorization already kept, instead of one solve per
+	 * part
+	 *
+	 * @param circuit
+	 *            Represents the 2D of a circuit to be solved
+	 * @return The derivatives
+	 */
+	public Sensitivity sensitivity(CircuitComponent[][] circuit)
+	{
+		solve(circuit);
+		int height = plan.height;
+		int[] elementOf = new int[plan.width * height];
+		Arrays.fill(elementOf, -1);
+		for (int e = 0; e < plan.elements; e++)
+			elementOf[plan.elementCell[e]] = e;
+
+		int lampCount = 0, partCount = 0;
+		for (int cell = 0; cell < elementOf.length; cell++)
+		{
+			CircuitComponent comp = circuit[cell / height][cell % height];
+			if (comp == null)
+				continue;
+			if (comp.isLamp && elementOf[cell] >= 0)
+				lampCount++;
+			if (comp.isChangeable)
+				partCount++;
+		}
+		int[] lampX = new int[lampCount], lampY = new int[lampCount], lamps = new int[lampCount];
+		int[] partX = new int[partCount], partY = new int[partCount], parts = new int[partCount];
+		lampCount = partCount = 0;
+		for (int cell = 0; cell < elementOf.length; cell++)
+		{
+			CircuitComponent comp = circuit[cell / height][cell % height];
+			if (comp == null)
+				continue;
+			if (comp.isLamp && elementOf[cell] >= 0)
+			{
+				lampX[lampCount] = cell / height;
+				lampY[lampCount] = cell % height;
+				lamps[lampCount++] = elementOf[cell];
+			}
+			if (comp.isChangeable)
+			{
+				partX[partCount] = cell / height;
+				partY[partCount] = cell % height;
+				// A lamp's main value is its target, which no current depends on
+				parts[partCount++] = comp.isLamp ? -1 : elementOf[cell];
+			}
+		}
+
+		double[] current = new double[lampCount];
+		double[][] derivative = new double[lampCount][partCount];
+		double[] g = new double[plan.cols], adjoint = new double[plan.rows];
+		for (int l = 0; l < lampCount; l++)
+		{
+			int lamp = lamps[l];
+			double signed = plan.current(lamp, values, result);
+			current[l] = Math.abs(signed);
+			double weight = plan.outputScaled[lamp] ? 1 / values[lamp] : 1;
+			Arrays.fill(g, 0);
+			if (plan.outputPositive[lamp] >= 0)
+				g[plan.outputPositive[lamp]] += weight;
+			if (plan.outputNegative[lamp] >= 0)
+				g[plan.outputNegative[lamp]] -= weight;
+			solveUpdatedTransposed(g, adjoint);
+
+			// Lamps light on the size of their current, not its direction
+			double direction = signed < 0 ? -1 : 1;
+			for (int p = 0; p < partCount; p++)
+			{
+				int e = parts[p];
+				if (e < 0)
+					continue;
+				double change = 0;
+				for (int s = 0; s < plan.sources; s++)
+					if (plan.sourceElement[s] == e)
+						change += adjoint[plan.sourceRow[s]] * plan.sourceSign[s];
+				double slope = plan.scaleDerivative(e, values[e]);
+				for (int i = plan.elementStampStart[e]; i < plan.elementStampStart[e + 1]; i++)
+				{
+					int s = plan.elementStamps[i];
+					change -= adjoint[plan.stampRow[s]] * plan.stampSign[s] * slope * result[plan.stampCol[s]];
+				}
+				if (e == lamp && plan.outputScaled[lamp])
+					change -= signed / values[lamp];
+				derivative[l][p] = direction * change;
+			}
+		}
+		return new Sensitivity(lampX, lampY, partX, partY, current, derivative);
+	}
+
+	/**
+	 * Builds a new plan for a changed layout and factors it
+	 */
+	private void rebuild(CircuitComponent[][] circuit)
+	{
+		plan = null;
+		SolvePlan next = SolvePlan.of(circuit, mode);
+		values = new double[next.elements];
+		nextValues = new double[next.elements];
+		next.readValues(circuit, values);
+		constants = new double[next.rows];
+		result = new double[next.cols];
+		updateColumn = new double[MAX_UPDATES][];
+		updateRow = new double[MAX_UPDATES][];
+		updateDenominator = new double[MAX_UPDATES];
+		plan = next;
+		refactor();
+	}
+
+	/**
+	 * Looks for changed values and folds them into the factorization
+	 */
+	private void update(CircuitComponent[][] circuit)
+	{
+		plan.readValues(circuit, nextValues);
+		boolean refactor = false;
+		for (int e = 0; e < plan.elements; e++)
+		{
+			if (nextValues[e] == values[e])
+				continue;
+			double old = values[e];
+			values[e] = nextValues[e];
+			solved = false;
+			// Batteries only show up on the right hand side
+			if (refactor || plan.elementStampStart[e] == plan.elementStampStart[e + 1])
+				continue;
+			long start = SolveStats.start();
+			if (!addUpdate(e, plan.scale(e, values[e]) - plan.scale(e, old)))
+				refactor = true;
+			else
+				SolveStats.count(Count.UPDATES, 1);
+			SolveStats.end(Phase.ELIMINATION, start);
+		}
+		if (refactor)
+			refactor();
+	}
+
+	/**
+	 * Assemble and factor the matrix for the current values, dropping every
+	 * update
+	 */
+	private void refactor()
+	{
+		solved = false;
+		updates = 0;
+		long start = SolveStats.start();
+		matrix = plan.factor(values);
+		SolveStats.end(Phase.ELIMINATION, start);
+	}
+
+	/**
+	 * Tries to write the change of one element as u * v^T and add it as an
+	 * update
+	 *
+	 * @param element
+	 *            The element that changed
+	 * @param delta
+	 *            The change in the scale of its stamps
+	 * @return If the update was added, otherwise the matrix must be factored
+	 *         again
+	 */
+	private boolean addUpdate(int element, double delta)
+	{
+		// Only square systems have an inverse to update
+		if (updates == MAX_UPDATES || plan.rows != plan.cols)
+			return false;
+
+		// Collect the change as a small dense matrix over the rows and columns
+		// it touches
+		int start = plan.elementStampStart[element], end = plan.elementStampStart[element + 1];
+		int size = end - start;
+		int[] rows = new int[size], cols = new int[size];
+		int rowCount = 0, colCount = 0;
+		for (int i = start; i < end; i++)
+		{
+			int s = plan.elementStamps[i];
+			rowCount = addUnique(rows, rowCount, plan.stampRow[s]);
+			colCount = addUnique(cols, colCount, plan.stampCol[s]);
+		}
+		double[] change = new double[rowCount * colCount];
+		for (int i = start; i < end; i++)
+		{
+			int s = plan.elementStamps[i];
+			int r = indexOf(rows, rowCount, plan.stampRow[s]), c = indexOf(cols, colCount, plan.stampCol[s]);
+			change[r * colCount + c] += plan.stampSign[s] * delta;
+		}
+
+		// It is rank one if every row is a multiple of the largest entry's row
+		int pivot = 0;
+		for (int i = 1; i < change.length; i++)
+			if (Math.abs(change[i]) > Math.abs(change[pivot]))
+				pivot = i;
+		double largest = change[pivot];
+		if (largest == 0)
+			return true;
+		int pivotRow = pivot / colCount, pivotCol = pivot % colCount;
+		for (int r = 0; r < rowCount; r++)
+			for (int c = 0; c < colCount; c++)
+			{
+				double expected = change[r * colCount + pivotCol] * change[pivotRow * colCount + c] / largest;
+				if (Math.abs(change[r * colCount + c] - expected) > Math.abs(largest) * 1e-12)
+					return false;
+			}
+
+		double[] u = new double[plan.rows], v = new double[plan.cols];
+		for (int r = 0; r < rowCount; r++)
+			u[rows[r]] = change[r * colCount + pivotCol];
+		for (int c = 0; c < colCount; c++)
+			v[cols[c]] = change[pivotRow * colCount + c] / largest;
+
+		double[] z = new double[plan.cols];
+		solveUpdated(u, z);
+		double denominator = 1;
+		for (int c = 0; c < colCount; c++)
+			denominator += v[cols[c]] * z[cols[c]];
+		if (Math.abs(denominator) < UPDATE_TOLERANCE)
+			return false;
+
+		updateColumn[updates] = z;
+		updateRow[updates] = v;
+		updateDenominator[updates++] = denominator;
+		return true;
+	}
+
+	/**
+	 * Solves with the factored matrix and every update applied
+	 *
+	 * @param b
+	 *            The right hand side
+	 * @param x
+	 *            Filled with the solution
+	 */
+	private void solveUpdated(double[] b, double[] x)
+	{
+		matrix.solve(b, x);
+		for (int k = 0; k < updates; k++)
+		{
+			double[] z = updateColumn[k], v = updateRow[k];
+			double dot = 0;
+			for (int i = 0; i < x.length; i++)
+				dot += v[i] * x[i];
+			if (dot == 0)
+				continue;
+			double factor = dot / updateDenominator[k];
+			for (int i = 0; i < x.length; i++)
+				x[i] -= factor * z[i];
+		}
+	}
+
+	/**
+	 * Solves the transpose of the factored matrix with every update applied,
+	 * peeling the updates off from the last one back
+	 *
+	 * @param b
+	 *            The right hand side, one value per column
+	 * @param x
+	 *            Filled with the solution, one value per row
+	 */
+	private void solveUpdatedTransposed(double[] b, double[] x)
+	{
+		double[] c = b.clone();
+		for (int k = updates - 1; k >= 0; k--)
+		{
+			double[] z = updateColumn[k], v = updateRow[k];
+			double dot = 0;
+			for (int i = 0; i < c.length; i++)
+				dot += z[i] * c[i];
+			if (dot == 0)
+				continue;
+			double factor = dot / updateDenominator[k];
+			for (int i = 0; i < c.length; i++)
+				c[i] -= factor * v[i];
+		}
+		matrix.solveTransposed(c, x);
+	}
+
+	private static int addUnique(int[] list, int count, int value)
+	{
+		if (indexOf(list, count, value) < 0)
+			list[count++] = value;
+		return count;
+	}
+
+	private static int indexOf(int[] list, int count, int value)
+	{
+		for (int i = 0; i < count; i++)
+			if (list[i] == value)
+				return i;
+		return -1;
+	}
+}
@@ -45,6 +45,8 @@ public class Inventory
 	 */
 	public void addComponent(CircuitComponent comp)
 	{
+		if (comp.type == CircuitComponent.Type.WIRE)
+			throw new IllegalArgumentException("Wire cannot be added to the inventory.");
 		// Reset values so that the component can be used correctly
 		comp.isChangeable = true;
 		comp.isActive = false;
@@ -58,9 +60,6 @@ public class Inventory
 		case BATTERY:
 			batteries.add(comp);
 			break;
-		case WIRE:
-			comp.isChangeable = false;
-			throw new IllegalArgumentException("Wire cannot be added to the inventory.");
 		}
 	}
 
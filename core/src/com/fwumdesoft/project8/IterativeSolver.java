@@ -0,0 +1,464 @@
+package com.fwumdesoft.project8;
+
+import java.util.Arrays;
+
+import com.fwumdesoft.project8.CircuitSolver.SolverMode;
+import com.fwumdesoft.project8.SolveStats.Count;
+import com.fwumdesoft.project8.SolveStats.Phase;
+
+/**
+ * Solves circuits of resistors and batteries with the conjugate gradient
+ * method </br>
+ * A battery (or a short, or an inductor in the steady state) fixes the
+ * voltage between its two nodes, so every group of nodes joined by them is
+ * merged into one supernode, with each node offset from it by the batteries
+ * in between. What is left is the conductance matrix between supernodes with
+ * one ground in every separate piece, which is symmetric positive definite.
+ * It is solved with Jacobi preconditioned conjugate gradients, starting from
+ * the voltages of the last solve, so a small edit only takes a few iterations
+ * and nothing is ever factored </br>
+ * Circuits that can't be split up like this, like batteries wired in a loop,
+ * are solved directly with nodal analysis instead
+ */
+class IterativeSolver
+{
+	/**
+	 * The layout the solver was built for, or null before the first solve
+	 */
+	private byte[] layout;
+	private int width, height;
+	/**
+	 * Solves the layout directly when it can't be solved iteratively
+	 */
+	private IncrementalSolver direct;
+	/**
+	 * The cell and the two nodes of each element
+	 */
+	private int[] elementCell, positive, negative;
+	/**
+	 * The layout code of each element
+	 */
+	private byte[] kind;
+	/**
+	 * The nodes of each supernode, each one after the node it is linked from
+	 */
+	private int[] order;
+	/**
+	 * The element linking each node to the node before it, or -1 for the first
+	 * node of a supernode
+	 */
+	private int[] parentLink;
+	/**
+	 * The unknown of the supernode each node is in, or -1 if it is a ground
+	 */
+	private int[] unknown;
+	/**
+	 * The number of unknowns
+	 */
+	private int size;
+	/**
+	 * The conductance matrix in compressed rows
+	 */
+	private int[] rowStart, colIndex;
+	private double[] entries;
+	/**
+	 * Where the diagonal entry of each row is stored
+	 */
+	private int[] diagonal;
+	/**
+	 * For each element, where its four stamps go in the entries, or -1
+	 */
+	private int[] stampEntry;
+	/**
+	 * The voltage of each node above its supernode, and the conductance of
+	 * each element
+	 */
+	private double[] offset, conductance;
+	/**
+	 * The voltage of each supernode, kept between solves to start the next
+	 * one from
+	 */
+	private double[] x;
+	/**
+	 * Scratch space for the iterations
+	 */
+	private double[] b, r, z, p, q, excess;
+	/**
+	 * How many iterations the last solve took
+	 */
+	private int iterations;
+
+	/**
+	 * Takes in a 2D array representing a PROPER circuit, and sets each
+	 * component's current value to its proper amount
+	 *
+	 * @param circuit
+	 *            Represents the 2D of a circuit to be solved
+	 */
+	public void solve(CircuitComponent[][] circuit)
+	{
+		try
+		{
+			if (layout == null || !matches(circuit))
+				build(circuit);
+			long start = SolveStats.start();
+			boolean converged = direct == null && iterate(circuit);
+			SolveStats.end(Phase.ELIMINATION, start);
+			if (!converged)
+			{
+				if (direct == null)
+					direct = new IncrementalSolver(SolverMode.NODAL);
+				direct.solve(circuit);
+				return;
+			}
+			SolveStats.count(Count.UNKNOWNS, size);
+			SolveStats.count(Count.ITERATIONS, iterations);
+			start = SolveStats.start();
+			fill(circuit);
+			SolveStats.end(Phase.FILL, start);
+		} catch (RuntimeException e)
+		{
+			layout = null;
+			throw e;
+		}
+	}
+
+	/**
+	 * @return How many iterations the last solve took, or 0 if it was solved
+	 *         directly
+	 */
+	public int getIterations()
+	{
+		return iterations;
+	}
+
+	private boolean matches(CircuitComponent[][] circuit)
+	{
+		if (circuit.length != width || circuit[0].length != height)
+			return false;
+		for (int x = 0; x < width; x++)
+			for (int y = 0; y < height; y++)
+				if (SolvePlan.codeOf(circuit[x][y]) != layout[x * height + y])
+					return false;
+		return true;
+	}
+
+	/**
+	 * Splits a new layout into supernodes and lays out its matrix
+	 */
+	private void build(CircuitComponent[][] circuit)
+	{
+		layout = null;
+		direct = null;
+		iterations = 0;
+		width = circuit.length;
+		height = circuit[0].length;
+		byte[] codes = SolvePlan.layoutOf(circuit);
+		long start = SolveStats.start();
+		NodalSolver.Network network = NodalSolver.network(circuit);
+		SolveStats.end(Phase.JUNCTIONS, start);
+		int nodes = network.nodes, elements = network.elementCell.length;
+		elementCell = network.elementCell;
+		positive = network.positive;
+		negative = network.negative;
+		kind = new byte[elements];
+		for (int e = 0; e < elements; e++)
+			kind[e] = codes[elementCell[e]];
+
+		// List the links at every node
+		int[] linkStart = new int[nodes + 1];
+		for (int e = 0; e < elements; e++)
+			if (isLink(kind[e]))
+			{
+				linkStart[positive[e] + 1]++;
+				linkStart[negative[e] + 1]++;
+			}
+		for (int n = 0; n < nodes; n++)
+			linkStart[n + 1] += linkStart[n];
+		int[] links = new int[linkStart[nodes]], next = Arrays.copyOf(linkStart, nodes);
+		for (int e = 0; e < elements; e++)
+			if (isLink(kind[e]))
+			{
+				links[next[positive[e]]++] = e;
+				links[next[negative[e]]++] = e;
+			}
+
+		// Walk the links out from the first node of every supernode; reaching a
+		// node twice means the links form a loop, which only has a solution
+		// for some values and leaves the current around it unknown
+		order = new int[nodes];
+		parentLink = new int[nodes];
+		int[] supernode = new int[nodes];
+		Arrays.fill(supernode, -1);
+		int count = 0;
+		for (int n = 0; n < nodes; n++)
+		{
+			if (supernode[n] >= 0)
+				continue;
+			supernode[n] = n;
+			parentLink[n] = -1;
+			int head = count;
+			order[count++] = n;
+			while (head < count)
+			{
+				int node = order[head++];
+				for (int i = linkStart[node]; i < linkStart[node + 1]; i++)
+				{
+					int e = links[i];
+					if (e == parentLink[node])
+						continue;
+					int other = positive[e] == node ? negative[e] : positive[e];
+					if (supernode[other] >= 0)
+					{
+						direct = new IncrementalSolver(SolverMode.NODAL);
+						layout = codes;
+						return;
+					}
+					supernode[other] = n;
+					parentLink[other] = e;
+					order[count++] = other;
+				}
+			}
+		}
+
+		// One supernode of every separate piece of circuit is the ground
+		int[] parent = UnionFind.create(nodes);
+		for (int e = 0; e < elements; e++)
+			if (kind[e] == SolvePlan.RESISTOR)
+				UnionFind.union(parent, supernode[positive[e]], supernode[negative[e]]);
+		int[] rootUnknown = new int[nodes];
+		size = 0;
+		for (int n = 0; n < nodes; n++)
+			if (supernode[n] == n)
+				rootUnknown[n] = UnionFind.find(parent, n) == n ? -1 : size++;
+		unknown = new int[nodes];
+		for (int n = 0; n < nodes; n++)
+			unknown[n] = rootUnknown[supernode[n]];
+
+		// Lay out the matrix, sorting the entries of every row
+		long[] pairs = new long[elements * 4];
+		int pairCount = 0;
+		for (int e = 0; e < elements; e++)
+			if (kind[e] == SolvePlan.RESISTOR)
+			{
+				int a = unknown[positive[e]], c = unknown[negative[e]];
+				if (a >= 0)
+					pairs[pairCount++] = (long) a * size + a;
+				if (c >= 0)
+					pairs[pairCount++] = (long) c * size + c;
+				if (a >= 0 && c >= 0 && a != c)
+				{
+					pairs[pairCount++] = (long) a * size + c;
+					pairs[pairCount++] = (long) c * size + a;
+				}
+			}
+		Arrays.sort(pairs, 0, pairCount);
+		int unique = 0;
+		for (int i = 0; i < pairCount; i++)
+			if (unique == 0 || pairs[i] != pairs[unique - 1])
+				pairs[unique++] = pairs[i];
+		rowStart = new int[size + 1];
+		colIndex = new int[unique];
+		for (int i = 0; i < unique; i++)
+		{
+			rowStart[(int) (pairs[i] / size) + 1]++;
+			colIndex[i] = (int) (pairs[i] % size);
+		}
+		for (int i = 0; i < size; i++)
+			rowStart[i + 1] += rowStart[i];
+		entries = new double[unique];
+		diagonal = new int[size];
+		for (int i = 0; i < size; i++)
+			diagonal[i] = entry(i, i);
+		stampEntry = new int[elements * 4];
+		Arrays.fill(stampEntry, -1);
+		for (int e = 0; e < elements; e++)
+			if (kind[e] == SolvePlan.RESISTOR)
+			{
+				int a = unknown[positive[e]], c = unknown[negative[e]];
+				if (a >= 0 && c >= 0 && a == c)
+					continue;
+				stampEntry[e * 4] = entry(a, a);
+				stampEntry[e * 4 + 1] = entry(c, c);
+				stampEntry[e * 4 + 2] = entry(a, c);
+				stampEntry[e * 4 + 3] = entry(c, a);
+			}
+
+		offset = new double[nodes];
+		excess = new double[nodes];
+		conductance = new double[elements];
+		x = new double[size];
+		b = new double[size];
+		r = new double[size];
+		z = new double[size];
+		p = new double[size];
+		q = new double[size];
+		layout = codes;
+	}
+
+	/**
+	 * @return If an element fixes the voltage between its nodes
+	 */
+	private static boolean isLink(byte kind)
+	{
+		return kind == SolvePlan.BATTERY || kind == SolvePlan.SHORT || kind == SolvePlan.INDUCTOR;
+	}
+
+	/**
+	 * @return Where an entry of the matrix is stored, or -1 if either index is
+	 *         a ground
+	 */
+	private int entry(int row, int col)
+	{
+		if (row < 0 || col < 0)
+			return -1;
+		return Arrays.binarySearch(colIndex, rowStart[row], rowStart[row + 1], col);
+	}
+
+	/**
+	 * Assembles the system for the circuit's values and runs the conjugate
+	 * gradient iterations on it
+	 *
+	 * @return If the iterations reached the tolerance
+	 */
+	private boolean iterate(CircuitComponent[][] circuit)
+	{
+		// Every node's voltage above its supernode, following the links in the
+		// order they were found
+		for (int i = 0; i < order.length; i++)
+		{
+			int node = order[i], e = parentLink[node];
+			if (e < 0)
+			{
+				offset[node] = 0;
+				continue;
+			}
+			CircuitComponent comp = circuit[elementCell[e] / height][elementCell[e] % height];
+			double voltage = kind[e] == SolvePlan.BATTERY ? comp.voltageDif : 0;
+			// The positive terminal is the voltage higher than the negative one
+			offset[node] = node == positive[e] ? offset[negative[e]] + voltage : offset[positive[e]] - voltage;
+		}
+
+		Arrays.fill(entries, 0);
+		Arrays.fill(b, 0);
+		for (int e = 0; e < kind.length; e++)
+		{
+			if (kind[e] != SolvePlan.RESISTOR)
+				continue;
+			double g = conductance[e] = 1 / circuit[elementCell[e] / height][elementCell[e] % height].resistance;
+			for (int k = 0; k < 4; k++)
+				if (stampEntry[e * 4 + k] >= 0)
+					entries[stampEntry[e * 4 + k]] += k < 2 ? g : -g;
+			// The batteries between the two nodes push a current of their own
+			double pushed = g * (offset[positive[e]] - offset[negative[e]]);
+			int a = unknown[positive[e]], c = unknown[negative[e]];
+			if (a >= 0)
+				b[a] -= pushed;
+			if (c >= 0)
+				b[c] += pushed;
+		}
+
+		double norm = Math.sqrt(dot(b, b));
+		iterations = 0;
+		if (norm == 0)
+		{
+			Arrays.fill(x, 0);
+			return true;
+		}
+		double goal = CircuitSolver.iterativeTolerance * norm;
+
+		multiply(x, r);
+		for (int i = 0; i < size; i++)
+			r[i] = b[i] - r[i];
+		precondition(r, z);
+		System.arraycopy(z, 0, p, 0, size);
+		double rz = dot(r, z);
+		int limit = 4 * size + 20;
+		while (Math.sqrt(dot(r, r)) > goal)
+		{
+			if (iterations++ == limit)
+			{
+				Arrays.fill(x, 0);
+				return false;
+			}
+			multiply(p, q);
+			double alpha = rz / dot(p, q);
+			for (int i = 0; i < size; i++)
+			{
+				x[i] += alpha * p[i];
+				r[i] -= alpha * q[i];
+			}
+			precondition(r, z);
+			double next = dot(r, z);
+			double beta = next / rz;
+			rz = next;
+			for (int i = 0; i < size; i++)
+				p[i] = z[i] + beta * p[i];
+		}
+		return true;
+	}
+
+	/**
+	 * Puts the solved currents into the circuit's components
+	 */
+	private void fill(CircuitComponent[][] circuit)
+	{
+		Arrays.fill(excess, 0);
+		for (int e = 0; e < kind.length; e++)
+		{
+			CircuitComponent comp = circuit[elementCell[e] / height][elementCell[e] % height];
+			if (kind[e] == SolvePlan.RESISTOR)
+			{
+				double current = conductance[e] * (voltage(positive[e]) - voltage(negative[e]));
+				CircuitSolver.setCurrent(comp, current);
+				excess[positive[e]] += current;
+				excess[negative[e]] -= current;
+			} else if (!isLink(kind[e]))
+				CircuitSolver.setCurrent(comp, 0);
+		}
+
+		// Whatever current leaves a node through resistors came in through the
+		// link to the node before it, starting from the ends of the links
+		for (int i = order.length - 1; i >= 0; i--)
+		{
+			int node = order[i], e = parentLink[node];
+			if (e < 0)
+				continue;
+			CircuitSolver.setCurrent(circuit[elementCell[e] / height][elementCell[e] % height], excess[node]);
+			excess[node == positive[e] ? negative[e] : positive[e]] += excess[node];
+		}
+	}
+
+	private double voltage(int node)
+	{
+		return (unknown[node] >= 0 ? x[unknown[node]] : 0) + offset[node];
+	}
+
+	private void multiply(double[] v, double[] result)
+	{
+		for (int i = 0; i < size; i++)
+		{
+			double sum = 0;
+			for (int k = rowStart[i]; k < rowStart[i + 1]; k++)
+				sum += entries[k] * v[colIndex[k]];
+			result[i] = sum;
+		}
+	}
+
+	/**
+	 * Applies the Jacobi preconditioner, dividing by the diagonal
+	 */
+	private void precondition(double[] v, double[] result)
+	{
+		for (int i = 0; i < size; i++)
+			result[i] = v[i] / entries[diagonal[i]];
+	}
+
+	private static double dot(double[] a, double[] c)
+	{
+		double sum = 0;
+		for (int i = 0; i < a.length; i++)
+			sum += a[i] * c[i];
+		return sum;
+	}
+}
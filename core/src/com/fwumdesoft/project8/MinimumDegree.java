@@ -0,0 +1,239 @@
+package com.fwumdesoft.project8;
+
+import java.util.Arrays;
+
+/**
+ * Finds an order to eliminate the unknowns of a sparse matrix in that keeps
+ * the factors sparse </br>
+ * The pattern of A + A^T is treated as a graph and the unknown with the
+ * smallest degree is always eliminated next. Eliminated unknowns are kept as
+ * "elements" standing for the clique they would fill in (a quotient graph), so
+ * the graph never grows, and degrees are bounded from above instead of being
+ * counted exactly (the approximate minimum degree method)
+ */
+class MinimumDegree
+{
+	/**
+	 * Order the rows of a compressed square matrix
+	 *
+	 * @param matrix
+	 *            The compressed matrix
+	 * @param match
+	 *            The column treated as the diagonal of each row
+	 * @return The rows in the order they should be eliminated
+	 */
+	public static int[] order(SparseMatrix matrix, int[] match)
+	{
+		int n = matrix.rows();
+		// The variables each variable touches directly
+		int[][] variables = buildGraph(matrix, match);
+		int[] variableCount = new int[n];
+		// The elements each variable belongs to
+		int[][] elements = new int[n][];
+		int[] elementCount = new int[n];
+		// The variables of each element, once its pivot is eliminated
+		int[][] members = new int[n][];
+		boolean[] eliminated = new boolean[n], absorbed = new boolean[n];
+
+		int[] degree = new int[n];
+		int[] head = new int[n + 1], next = new int[n], prev = new int[n];
+		Arrays.fill(head, -1);
+		for (int i = 0; i < n; i++)
+		{
+			variableCount[i] = degree[i] = variables[i].length;
+			elements[i] = new int[2];
+			link(i, degree[i], head, next, prev);
+		}
+
+		int[] mark = new int[n];
+		int stamp = 0;
+		int[] outside = new int[n];
+		Arrays.fill(outside, -1);
+		int[] touched = new int[n];
+		int[] pivotList = new int[n];
+		int[] order = new int[n];
+		int minimum = 0;
+		for (int k = 0; k < n; k++)
+		{
+			while (head[minimum] < 0)
+				minimum++;
+			int pivot = head[minimum];
+			unlink(pivot, degree[pivot], head, next, prev);
+			eliminated[pivot] = true;
+			order[k] = pivot;
+
+			// The new element holds every variable next to the pivot, directly
+			// or through an element, and absorbs those elements
+			stamp++;
+			mark[pivot] = stamp;
+			int size = 0;
+			for (int j = 0; j < variableCount[pivot]; j++)
+			{
+				int v = variables[pivot][j];
+				if (!eliminated[v] && mark[v] != stamp)
+				{
+					mark[v] = stamp;
+					pivotList[size++] = v;
+				}
+			}
+			for (int j = 0; j < elementCount[pivot]; j++)
+			{
+				int e = elements[pivot][j];
+				if (absorbed[e])
+					continue;
+				for (int v : members[e])
+					if (!eliminated[v] && mark[v] != stamp)
+					{
+						mark[v] = stamp;
+						pivotList[size++] = v;
+					}
+				absorbed[e] = true;
+				members[e] = null;
+			}
+			members[pivot] = Arrays.copyOf(pivotList, size);
+			variables[pivot] = null;
+			elements[pivot] = null;
+
+			// Count how much of each other element lies outside the new one
+			int touchedCount = 0;
+			for (int j = 0; j < size; j++)
+			{
+				int i = pivotList[j];
+				for (int l = 0; l < elementCount[i]; l++)
+				{
+					int e = elements[i][l];
+					if (absorbed[e])
+						continue;
+					if (outside[e] < 0)
+					{
+						outside[e] = members[e].length;
+						touched[touchedCount++] = e;
+					}
+					outside[e]--;
+				}
+			}
+
+			for (int j = 0; j < size; j++)
+			{
+				int i = pivotList[j];
+				unlink(i, degree[i], head, next, prev);
+
+				// Drop absorbed elements, and elements entirely inside the new
+				// one, then join the new element
+				int external = 0, count = 0;
+				int[] list = elements[i];
+				for (int l = 0; l < elementCount[i]; l++)
+				{
+					int e = list[l];
+					if (absorbed[e])
+						continue;
+					if (outside[e] == 0)
+					{
+						absorbed[e] = true;
+						members[e] = null;
+						continue;
+					}
+					external += outside[e];
+					list[count++] = e;
+				}
+				if (count == list.length)
+					list = Arrays.copyOf(list, list.length * 2);
+				list[count++] = pivot;
+				elements[i] = list;
+				elementCount[i] = count;
+
+				// Variables covered by the new element no longer need a direct
+				// link
+				int[] adjacent = variables[i];
+				count = 0;
+				for (int l = 0; l < variableCount[i]; l++)
+				{
+					int v = adjacent[l];
+					if (!eliminated[v] && mark[v] != stamp)
+						adjacent[count++] = v;
+				}
+				variableCount[i] = count;
+
+				int bound = Math.min(n - k - 1, degree[i] + size - 1);
+				degree[i] = Math.min(bound, count + size - 1 + external);
+				link(i, degree[i], head, next, prev);
+				minimum = Math.min(minimum, degree[i]);
+			}
+
+			for (int j = 0; j < touchedCount; j++)
+				outside[touched[j]] = -1;
+		}
+		return order;
+	}
+
+	/**
+	 * Builds the adjacency lists of A + A^T, with the columns renumbered by
+	 * the row they are paired with and leaving out the diagonal
+	 */
+	private static int[][] buildGraph(SparseMatrix matrix, int[] match)
+	{
+		int n = matrix.rows();
+		int[] rowOf = new int[n];
+		for (int r = 0; r < n; r++)
+			rowOf[match[r]] = r;
+
+		int[] count = new int[n];
+		for (int r = 0; r < n; r++)
+			for (int p = matrix.rowStart[r]; p < matrix.rowStart[r + 1]; p++)
+				if (rowOf[matrix.colIndex[p]] != r)
+				{
+					count[r]++;
+					count[rowOf[matrix.colIndex[p]]]++;
+				}
+
+		int[][] neighbors = new int[n][];
+		for (int i = 0; i < n; i++)
+			neighbors[i] = new int[count[i]];
+		Arrays.fill(count, 0);
+		for (int r = 0; r < n; r++)
+			for (int p = matrix.rowStart[r]; p < matrix.rowStart[r + 1]; p++)
+			{
+				int c = rowOf[matrix.colIndex[p]];
+				if (c != r)
+				{
+					neighbors[r][count[r]++] = c;
+					neighbors[c][count[c]++] = r;
+				}
+			}
+
+		// Symmetric entries show up twice, so drop the duplicates
+		int[] mark = new int[n];
+		Arrays.fill(mark, -1);
+		for (int i = 0; i < n; i++)
+		{
+			int unique = 0;
+			for (int j = 0; j < count[i]; j++)
+				if (mark[neighbors[i][j]] != i)
+				{
+					mark[neighbors[i][j]] = i;
+					neighbors[i][unique++] = neighbors[i][j];
+				}
+			neighbors[i] = Arrays.copyOf(neighbors[i], unique);
+		}
+		return neighbors;
+	}
+
+	private static void link(int node, int degree, int[] head, int[] next, int[] prev)
+	{
+		next[node] = head[degree];
+		prev[node] = -1;
+		if (head[degree] >= 0)
+			prev[head[degree]] = node;
+		head[degree] = node;
+	}
+
+	private static void unlink(int node, int degree, int[] head, int[] next, int[] prev)
+	{
+		if (prev[node] >= 0)
+			next[prev[node]] = next[node];
+		else
+			head[degree] = next[node];
+		if (next[node] >= 0)
+			prev[next[node]] = prev[node];
+	}
+}
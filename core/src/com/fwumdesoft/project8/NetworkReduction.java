@@ -0,0 +1,442 @@
+package com.fwumdesoft.project8;
+
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+
+import com.fwumdesoft.project8.CircuitComponent.Type;
+import com.fwumdesoft.project8.SolveStats.Count;
+import com.fwumdesoft.project8.SolveStats.Phase;
+
+/**
+ * Shrinks a circuit by merging parts in series and in parallel before it is
+ * solved </br>
+ * Every part is a branch between two nodes with a resistance and a voltage
+ * pushing current through it (a Thevenin equivalent). Two branches meeting at
+ * a node with nothing else there are in series, and two branches between the
+ * same nodes are in parallel, so either pair can be replaced by one
+ * equivalent branch. A branch hanging off a node by itself carries no
+ * current, so it is dropped. Whatever is left is solved with nodal analysis,
+ * which for most puzzles is a handful of unknowns or none at all, and then
+ * the currents are handed back down through the merges to every component
+ * </br>
+ * Which branches merge only depends on the layout, so the reduction can be
+ * reused for as long as the layout stays the same
+ */
+class NetworkReduction
+{
+	/**
+	 * How a branch is made
+	 */
+	private static final byte LEAF = 0, SERIES = 1, PARALLEL = 2;
+
+	/**
+	 * One part of the circuit, or a merge of branches, between two nodes
+	 */
+	private static class Branch
+	{
+		/**
+		 * The nodes on either side; current is positive going from a to b
+		 */
+		int a, b;
+		byte kind;
+		/**
+		 * The element of a leaf
+		 */
+		int element;
+		/**
+		 * The branches merged into this one
+		 */
+		ArrayList<Branch> parts;
+		/**
+		 * If this branch runs from b to a of the branch it was merged into
+		 */
+		boolean reversed;
+		/**
+		 * If the branch has no resistance, so it holds the voltage between
+		 * its nodes fixed
+		 */
+		boolean ideal;
+		/**
+		 * The unknown for the current of an ideal branch that is left after
+		 * the reduction, or -1
+		 */
+		int unknown = -1;
+		/**
+		 * The resistance, the voltage pushing current from a to b, and the
+		 * current from a to b
+		 */
+		double resistance, voltage, current;
+	}
+
+	/**
+	 * The layout the reduction was built for
+	 */
+	private final byte[] layout;
+	private final int width, height;
+	private final int[] elementCell;
+	/**
+	 * Every branch, each one after the branches merged into it
+	 */
+	private final ArrayList<Branch> branches = new ArrayList<Branch>();
+	/**
+	 * The branches left after reducing, and the ones that were dropped
+	 */
+	private final ArrayList<Branch> remaining = new ArrayList<Branch>(), dropped = new ArrayList<Branch>();
+	/**
+	 * The unknown for each node's voltage, or -1 for grounds
+	 */
+	private final int[] nodeUnknown;
+	/**
+	 * The number of unknowns left to solve for
+	 */
+	private final int size;
+
+	/**
+	 * Reduces a circuit's layout
+	 *
+	 * @param circuit
+	 *            Represents the 2D of a circuit to be solved
+	 * @throws IllegalArgumentException
+	 *             If a component is not connected on two sides
+	 */
+	NetworkReduction(CircuitComponent[][] circuit)
+	{
+		long start = SolveStats.start();
+		width = circuit.length;
+		height = circuit[0].length;
+		layout = SolvePlan.layoutOf(circuit);
+		NodalSolver.Network network = NodalSolver.network(circuit);
+		elementCell = network.elementCell;
+
+		ArrayList<LinkedHashSet<Branch>> at = new ArrayList<LinkedHashSet<Branch>>(network.nodes);
+		for (int n = 0; n < network.nodes; n++)
+			at.add(new LinkedHashSet<Branch>());
+		for (int e = 0; e < elementCell.length; e++)
+		{
+			byte code = layout[elementCell[e]];
+			// Capacitors are open in the steady state, so they are left out
+			if (code == SolvePlan.CAPACITOR)
+				continue;
+			Branch leaf = new Branch();
+			leaf.kind = LEAF;
+			leaf.element = e;
+			leaf.a = network.positive[e];
+			leaf.b = network.negative[e];
+			leaf.ideal = code != SolvePlan.RESISTOR;
+			add(at, leaf);
+		}
+
+		ArrayDeque<Integer> work = new ArrayDeque<Integer>();
+		for (int n = 0; n < network.nodes; n++)
+			work.add(n);
+		while (!work.isEmpty())
+			reduce(at, work, work.poll());
+
+		// Solve what is left with nodal analysis, with one ground in every
+		// separate piece
+		LinkedHashSet<Branch> left = new LinkedHashSet<Branch>();
+		for (LinkedHashSet<Branch> node : at)
+			left.addAll(node);
+		remaining.addAll(left);
+		int[] parent = UnionFind.create(network.nodes);
+		for (Branch branch : remaining)
+			UnionFind.union(parent, branch.a, branch.b);
+		nodeUnknown = new int[network.nodes];
+		int unknowns = 0;
+		for (int n = 0; n < parent.length; n++)
+			nodeUnknown[n] = UnionFind.find(parent, n) == n || at.get(n).isEmpty() ? -1 : unknowns++;
+		for (Branch branch : remaining)
+			if (branch.ideal && branch.a != branch.b)
+				branch.unknown = unknowns++;
+		size = unknowns;
+		SolveStats.end(Phase.REDUCTION, start);
+	}
+
+	/**
+	 * Merges whatever can be merged at a node
+	 */
+	private void reduce(ArrayList<LinkedHashSet<Branch>> at, ArrayDeque<Integer> work, int node)
+	{
+		// Branches to the same node are in parallel
+		HashMap<Integer, Branch> byOther = new HashMap<Integer, Branch>();
+		for (Branch branch : new ArrayList<Branch>(at.get(node)))
+		{
+			int other = branch.a == node ? branch.b : branch.a;
+			if (other == node)
+				continue;
+			Branch existing = byOther.get(other);
+			if (existing == null)
+			{
+				byOther.put(other, branch);
+				continue;
+			}
+			Branch merged = merge(at, PARALLEL, node, other, existing, branch);
+			byOther.put(other, merged);
+			work.add(other);
+		}
+
+		LinkedHashSet<Branch> here = at.get(node);
+		if (here.size() == 1)
+		{
+			// A branch hanging off a node by itself carries no current
+			Branch branch = here.iterator().next();
+			if (branch.a != branch.b)
+			{
+				remove(at, branch);
+				dropped.add(branch);
+				work.add(branch.a == node ? branch.b : branch.a);
+			}
+		} else if (here.size() == 2)
+		{
+			// Two branches meeting at a node with nothing else are in series
+			Branch[] pair = here.toArray(new Branch[2]);
+			if (pair[0].a == pair[0].b || pair[1].a == pair[1].b)
+				return;
+			int start = pair[0].a == node ? pair[0].b : pair[0].a;
+			int end = pair[1].a == node ? pair[1].b : pair[1].a;
+			merge(at, SERIES, start, end, pair[0], pair[1]);
+			work.add(start);
+			work.add(end);
+		}
+	}
+
+	/**
+	 * Replaces two branches with a merge of them
+	 *
+	 * @return The merged branch
+	 */
+	private Branch merge(ArrayList<LinkedHashSet<Branch>> at, byte kind, int a, int b, Branch first,
+			Branch second)
+	{
+		remove(at, first);
+		remove(at, second);
+		Branch merged = new Branch();
+		merged.kind = kind;
+		merged.a = a;
+		merged.b = b;
+		merged.parts = new ArrayList<Branch>();
+		// In series the first part runs from a to the middle node; in parallel
+		// every part runs from a to b
+		addPart(merged, first, first.a != a);
+		addPart(merged, second, kind == SERIES ? second.b != b : second.a != a);
+		merged.ideal = kind == SERIES ? first.ideal && second.ideal : first.ideal || second.ideal;
+		add(at, merged);
+		return merged;
+	}
+
+	private static void addPart(Branch merged, Branch part, boolean reversed)
+	{
+		part.reversed = reversed;
+		merged.parts.add(part);
+	}
+
+	private void add(ArrayList<LinkedHashSet<Branch>> at, Branch branch)
+	{
+		branches.add(branch);
+		at.get(branch.a).add(branch);
+		at.get(branch.b).add(branch);
+	}
+
+	private static void remove(ArrayList<LinkedHashSet<Branch>> at, Branch branch)
+	{
+		at.get(branch.a).remove(branch);
+		at.get(branch.b).remove(branch);
+	}
+
+	/**
+	 * @return If the reduction was built for the same layout as a circuit
+	 */
+	boolean matches(CircuitComponent[][] circuit)
+	{
+		if (circuit.length != width || circuit[0].length != height)
+			return false;
+		for (int x = 0; x < width; x++)
+			for (int y = 0; y < height; y++)
+				if (SolvePlan.codeOf(circuit[x][y]) != layout[x * height + y])
+					return false;
+		return true;
+	}
+
+	/**
+	 * @return The number of unknowns left to solve for after reducing
+	 */
+	int unknowns()
+	{
+		return size;
+	}
+
+	/**
+	 * Takes in a 2D array representing a PROPER circuit with this reduction's
+	 * layout, and sets each component's current value to its proper amount
+	 *
+	 * @param circuit
+	 *            Represents the 2D of a circuit to be solved
+	 * @throws ArithmeticException
+	 *             If the circuit has no unique solution
+	 */
+	void solve(CircuitComponent[][] circuit)
+	{
+		// Find every branch's equivalent, parts first
+		long start = SolveStats.start();
+		for (Branch branch : branches)
+		{
+			if (branch.kind == LEAF)
+			{
+				CircuitComponent comp = component(circuit, branch.element);
+				// A battery holds its positive side a above b
+				branch.resistance = branch.ideal ? 0 : comp.resistance;
+				branch.voltage = comp.type == Type.BATTERY ? -comp.voltageDif : 0;
+			} else if (branch.kind == SERIES)
+			{
+				branch.resistance = branch.voltage = 0;
+				for (Branch part : branch.parts)
+				{
+					branch.resistance += part.resistance;
+					branch.voltage += part.reversed ? -part.voltage : part.voltage;
+				}
+			} else
+			{
+				double conductance = 0, pushed = 0;
+				Branch fixed = null;
+				for (Branch part : branch.parts)
+					if (part.ideal)
+					{
+						if (fixed != null)
+							throw new ArithmeticException("Parts without resistance are in parallel");
+						fixed = part;
+					} else
+					{
+						conductance += 1 / part.resistance;
+						pushed += (part.reversed ? -part.voltage : part.voltage) / part.resistance;
+					}
+				if (fixed != null)
+				{
+					branch.resistance = 0;
+					branch.voltage = fixed.reversed ? -fixed.voltage : fixed.voltage;
+				} else
+				{
+					branch.resistance = 1 / conductance;
+					branch.voltage = pushed / conductance;
+				}
+			}
+		}
+
+		SolveStats.end(Phase.REDUCTION, start);
+
+		start = SolveStats.start();
+		SolveStats.count(Count.UNKNOWNS, size);
+		double[] result = new double[size];
+		if (size > 0)
+		{
+			SolverMatrix matrix = CircuitSolver.createMatrix(size, size);
+			double[] constants = new double[size];
+			for (Branch branch : remaining)
+			{
+				int a = nodeUnknown[branch.a], b = nodeUnknown[branch.b];
+				if (branch.a == branch.b)
+					continue;
+				if (branch.ideal)
+				{
+					// v(a) - v(b) = -voltage, with its own current leaving a
+					int s = branch.unknown;
+					if (a >= 0)
+					{
+						matrix.add(a, s, 1);
+						matrix.add(s, a, 1);
+					}
+					if (b >= 0)
+					{
+						matrix.add(b, s, -1);
+						matrix.add(s, b, -1);
+					}
+					constants[s] = -branch.voltage;
+				} else
+				{
+					double g = 1 / branch.resistance;
+					if (a >= 0)
+					{
+						matrix.add(a, a, g);
+						constants[a] -= g * branch.voltage;
+					}
+					if (b >= 0)
+					{
+						matrix.add(b, b, g);
+						constants[b] += g * branch.voltage;
+					}
+					if (a >= 0 && b >= 0)
+					{
+						matrix.add(a, b, -g);
+						matrix.add(b, a, -g);
+					}
+				}
+			}
+			matrix.factor();
+			matrix.solve(constants, result);
+		}
+
+		for (Branch branch : remaining)
+		{
+			if (branch.a == branch.b)
+			{
+				// A loop closed on itself
+				if (branch.ideal && branch.voltage != 0)
+					throw new ArithmeticException("A battery is shorted");
+				branch.current = branch.ideal ? 0 : branch.voltage / branch.resistance;
+			} else if (branch.ideal)
+				branch.current = result[branch.unknown];
+			else
+				branch.current = (voltage(result, branch.a) - voltage(result, branch.b) + branch.voltage)
+						/ branch.resistance;
+		}
+		for (Branch branch : dropped)
+			branch.current = 0;
+
+		SolveStats.end(Phase.ELIMINATION, start);
+
+		// Hand the currents back down, merges first
+		start = SolveStats.start();
+		for (int i = branches.size() - 1; i >= 0; i--)
+		{
+			Branch branch = branches.get(i);
+			if (branch.kind == LEAF)
+				CircuitSolver.setCurrent(component(circuit, branch.element), branch.current);
+			else if (branch.kind == SERIES)
+			{
+				for (Branch part : branch.parts)
+					part.current = part.reversed ? -branch.current : branch.current;
+			} else
+			{
+				double across = branch.resistance * branch.current - branch.voltage;
+				double rest = branch.current;
+				Branch fixed = null;
+				for (Branch part : branch.parts)
+					if (part.ideal)
+						fixed = part;
+					else
+					{
+						double current = ((part.reversed ? -across : across) + part.voltage) / part.resistance;
+						part.current = current;
+						rest -= part.reversed ? -current : current;
+					}
+				if (fixed != null)
+					fixed.current = fixed.reversed ? -rest : rest;
+			}
+		}
+		for (int e = 0; e < elementCell.length; e++)
+			if (layout[elementCell[e]] == SolvePlan.CAPACITOR)
+				CircuitSolver.setCurrent(component(circuit, e), 0);
+		SolveStats.end(Phase.FILL, start);
+	}
+
+	private CircuitComponent component(CircuitComponent[][] circuit, int element)
+	{
+		return circuit[elementCell[element] / height][elementCell[element] % height];
+	}
+
+	private double voltage(double[] result, int node)
+	{
+		return nodeUnknown[node] >= 0 ? result[nodeUnknown[node]] : 0;
+	}
+}
@@ -0,0 +1,320 @@
+package com.fwumdesoft.project8;
+
+import java.util.Arrays;
+
+import com.fwumdesoft.project8.CircuitComponent.Type;
+import com.fwumdesoft.project8.CircuitSolver.SolverMode;
+import com.fwumdesoft.project8.SolveStats.Count;
+import com.fwumdesoft.project8.SolveStats.Phase;
+
+/**
+ * Builds the system of equations for a circuit with Modified Nodal Analysis
+ * </br>
+ * Every connected region of wire becomes a node, resistors are stamped into a
+ * conductance matrix and each battery adds one unknown for its own current, so
+ * the whole circuit can be solved at once without having to find any loops
+ * </br>
+ * Capacitors and inductors are open and short circuits in the steady state.
+ * Given a time step, they are replaced with their backward Euler companions
+ * instead: a capacitor is a conductance of C / h plus a current from its last
+ * voltage, and an inductor is a resistance of L / h on its own current plus a
+ * voltage from its last current
+ */
+class NodalSolver
+{
+	/**
+	 * The step to each side of a cell: -x, -y, +x then +y
+	 */
+	private static final int[] SIDE_X = { -1, 0, 1, 0 }, SIDE_Y = { 0, -1, 0, 1 };
+
+	/**
+	 * Builds the nodal system of equations for a circuit
+	 *
+	 * @param circuit
+	 *            Represents the 2D of a circuit to be solved
+	 * @return The plan to solve the circuit with
+	 */
+	public static SolvePlan compile(CircuitComponent[][] circuit)
+	{
+		return compile(circuit, 0);
+	}
+
+	/**
+	 * Builds the nodal system of equations for one time step of a circuit
+	 *
+	 * @param circuit
+	 *            Represents the 2D of a circuit to be solved
+	 * @param timeStep
+	 *            The length of a time step, or 0 for the steady state
+	 * @return The plan to solve the circuit with
+	 */
+	public static SolvePlan compile(CircuitComponent[][] circuit, double timeStep)
+	{
+		boolean stepped = timeStep > 0;
+		int height = circuit[0].length;
+		long start = SolveStats.start();
+		Network network = network(circuit);
+		SolveStats.end(Phase.JUNCTIONS, start);
+		start = SolveStats.start();
+		int nodes = network.nodes, elements = network.elementCell.length;
+		int[] elementCell = network.elementCell, positive = network.positive, negative = network.negative;
+		boolean[] open = new boolean[elements];
+		int e;
+		for (e = 0; e < elements; e++)
+			open[e] = !stepped && circuit[elementCell[e] / height][elementCell[e] % height].type == Type.CAPACITOR;
+
+		// One node of every separate piece of circuit is the ground, with a
+		// voltage of 0
+		int[] unknown = groundNodes(nodes, positive, negative, open);
+		int voltages = 0;
+		for (int n = 0; n < nodes; n++)
+			if (unknown[n] >= 0)
+				unknown[n] = voltages++;
+
+		// Batteries, inductors (and resistors without resistance) need their
+		// own current as an unknown
+		int[] sourceIndex = new int[elements];
+		int size = voltages;
+		for (e = 0; e < elements; e++)
+		{
+			CircuitComponent comp = circuit[elementCell[e] / height][elementCell[e] % height];
+			sourceIndex[e] = (comp.type == Type.BATTERY || comp.type == Type.INDUCTOR
+					|| comp.type != Type.CAPACITOR && comp.resistance == 0) ? size++ : -1;
+		}
+
+		SolvePlan plan = new SolvePlan(SolverMode.NODAL, circuit, size, size, true, timeStep);
+		for (e = 0; e < elements; e++)
+		{
+			CircuitComponent comp = circuit[elementCell[e] / height][elementCell[e] % height];
+			int element = plan.element(elementCell[e]);
+			int a = unknown[positive[e]], b = unknown[negative[e]];
+			if (open[e])
+				continue;
+			if (sourceIndex[e] < 0)
+			{
+				if (a >= 0)
+					plan.addStamp(a, a, 1, element);
+				if (b >= 0)
+					plan.addStamp(b, b, 1, element);
+				if (a >= 0 && b >= 0)
+				{
+					plan.addStamp(a, b, -1, element);
+					plan.addStamp(b, a, -1, element);
+				}
+				if (comp.type == Type.CAPACITOR)
+				{
+					// The output is the voltage across the capacitor, which the
+					// next step's history is made from
+					if (a >= 0)
+						plan.addHistory(a, 1, element);
+					if (b >= 0)
+						plan.addHistory(b, -1, element);
+					plan.setOutput(element, a, b, false);
+				} else
+					plan.setOutput(element, a, b, true);
+			} else
+			{
+				// The source current leaves the positive terminal and enters
+				// the negative one, holding their voltage difference fixed
+				int s = sourceIndex[e];
+				if (a >= 0)
+				{
+					plan.addFixed(a, s, -1);
+					plan.addFixed(s, a, 1);
+				}
+				if (b >= 0)
+				{
+					plan.addFixed(b, s, 1);
+					plan.addFixed(s, b, -1);
+				}
+				if (comp.type == Type.BATTERY)
+					plan.addSource(s, 1, element);
+				else if (comp.type == Type.INDUCTOR && stepped)
+				{
+					plan.addStamp(s, s, 1, element);
+					plan.addHistory(s, 1, element);
+				}
+				plan.setOutput(element, s, -1, false);
+			}
+		}
+		plan.finish();
+		SolveStats.end(Phase.EQUATIONS, start);
+		SolveStats.count(Count.JUNCTIONS, nodes);
+		SolveStats.count(Count.BRANCHES, elements);
+		return plan;
+	}
+
+	/**
+	 * The nodes of a circuit and the two nodes on either side of every
+	 * component that is not a wire
+	 */
+	static class Network
+	{
+		/**
+		 * The number of nodes
+		 */
+		final int nodes;
+		/**
+		 * The cell of each element, indexed by x * height + y
+		 */
+		final int[] elementCell;
+		/**
+		 * The node on the positive and negative side of each element
+		 */
+		final int[] positive, negative;
+
+		Network(int nodes, int[] elementCell, int[] positive, int[] negative)
+		{
+			this.nodes = nodes;
+			this.elementCell = elementCell;
+			this.positive = positive;
+			this.negative = negative;
+		}
+	}
+
+	/**
+	 * Finds the nodes of a circuit, where every connected region of wire is a
+	 * node and two components touching share a node of their own
+	 *
+	 * @param circuit
+	 *            Represents the 2D of a circuit to be solved
+	 * @return The nodes and the elements between them
+	 * @throws IllegalArgumentException
+	 *             If a component is not connected on exactly two sides
+	 */
+	static Network network(CircuitComponent[][] circuit)
+	{
+		int width = circuit.length, height = circuit[0].length;
+		int[] node = new int[width * height];
+		int nodes = buildNodes(circuit, node);
+
+		// Find the two nodes on either side of every component. The node two
+		// touching components share is kept by the edge between them, two
+		// edges per cell for its +x and +y sides
+		int[] sharedEdges = new int[width * height * 2];
+		Arrays.fill(sharedEdges, -1);
+		int elements = 0;
+		for (int x = 0; x < width; x++)
+			for (int y = 0; y < height; y++)
+				if (circuit[x][y] != null && circuit[x][y].type != Type.WIRE)
+					elements++;
+		int[] elementCell = new int[elements];
+		int[] positive = new int[elements], negative = new int[elements];
+		int e = 0;
+		for (int x = 0; x < width; x++)
+			for (int y = 0; y < height; y++)
+				if (circuit[x][y] != null && circuit[x][y].type != Type.WIRE)
+				{
+					int found = 0;
+					// Checking the negative sides first makes the terminal on the
+					// -x or -y side of a battery its positive terminal
+					for (int side = 0; side < 4; side++)
+					{
+						int sx = x + SIDE_X[side], sy = y + SIDE_Y[side];
+						if (sx < 0 || sy < 0 || sx >= width || sy >= height || circuit[sx][sy] == null)
+							continue;
+						if (found == 2)
+							throw new IllegalArgumentException("Component at " + x + ", " + y
+									+ " is connected on more than two sides");
+						int neighbor = sx * height + sy, terminal;
+						if (circuit[sx][sy].type == Type.WIRE)
+							terminal = node[neighbor];
+						else
+						{
+							// Two components touching share a node of their own
+							int cell = x * height + y;
+							int edge = Math.min(cell, neighbor) * 2 + (sx == x ? 1 : 0);
+							if (sharedEdges[edge] < 0)
+								sharedEdges[edge] = nodes++;
+							terminal = sharedEdges[edge];
+						}
+						if (found++ == 0)
+							positive[e] = terminal;
+						else
+							negative[e] = terminal;
+					}
+					if (found < 2)
+						throw new IllegalArgumentException("Component at " + x + ", " + y
+								+ " is not connected on two sides");
+					elementCell[e] = x * height + y;
+					e++;
+				}
+		return new Network(nodes, elementCell, positive, negative);
+	}
+
+	/**
+	 * Numbers each connected region of wire as a node
+	 *
+	 * @param circuit
+	 *            The 2D array representing the circuit
+	 * @param node
+	 *            Filled with the node of each wire cell, indexed by x * height
+	 *            + y
+	 * @return The number of nodes
+	 */
+	private static int buildNodes(CircuitComponent[][] circuit, int[] node)
+	{
+		int width = circuit.length, height = circuit[0].length;
+		int[] stack = new int[width * height];
+		int nodes = 0;
+		for (int i = 0; i < node.length; i++)
+			node[i] = -1;
+
+		for (int x = 0; x < width; x++)
+			for (int y = 0; y < height; y++)
+				if (circuit[x][y] != null && circuit[x][y].type == Type.WIRE && node[x * height + y] < 0)
+				{
+					// Flood fill the wire region
+					int top = 0;
+					stack[top++] = x * height + y;
+					node[x * height + y] = nodes;
+					while (top > 0)
+					{
+						int cell = stack[--top];
+						int cx = cell / height, cy = cell % height;
+						for (int side = 0; side < 4; side++)
+						{
+							int sx = cx + SIDE_X[side], sy = cy + SIDE_Y[side];
+							if (sx < 0 || sy < 0 || sx >= width || sy >= height)
+								continue;
+							int next = sx * height + sy;
+							CircuitComponent comp = circuit[sx][sy];
+							if (comp != null && comp.type == Type.WIRE && node[next] < 0)
+							{
+								node[next] = nodes;
+								stack[top++] = next;
+							}
+						}
+					}
+					nodes++;
+				}
+		return nodes;
+	}
+
+	/**
+	 * Picks one ground node in every separate piece of the circuit
+	 *
+	 * @param nodes
+	 *            The number of nodes
+	 * @param positive
+	 *            The first node of each element
+	 * @param negative
+	 *            The second node of each element
+	 * @param open
+	 *            If each element is an open circuit, which does not connect its
+	 *            nodes
+	 * @return An array with -1 for ground nodes and 0 for all others
+	 */
+	private static int[] groundNodes(int nodes, int[] positive, int[] negative, boolean[] open)
+	{
+		int[] parent = UnionFind.create(nodes);
+		for (int e = 0; e < positive.length; e++)
+			if (!open[e])
+				UnionFind.union(parent, positive[e], negative[e]);
+
+		int[] unknown = new int[nodes];
+		for (int n = 0; n < nodes; n++)
+			unknown[n] = UnionFind.find(parent, n) == n ? -1 : 0;
+		return unknown;
+	}
+}
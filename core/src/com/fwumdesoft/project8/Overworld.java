@@ -1,14 +1,12 @@
 package com.fwumdesoft.project8;
 
 import java.awt.Point;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
-import java.util.function.Function;
-import java.util.stream.Collectors;
 
 import com.badlogic.gdx.Gdx;
-import com.badlogic.gdx.utils.Array;
 
 public class Overworld
 {
@@ -32,7 +30,7 @@ public class Overworld
 	Tile[][] map;
 	Modifier[][] modifiers;
 	Point playerPos, playerFace, previousPlayerPos;
-	Array<Circuit> circuits;
+	CircuitPack circuits;
 	HashMap<Point, Circuit> worldCircuits;
 	Circuit currentCircuit;
 	Inventory inventory;
@@ -47,7 +45,7 @@ public class Overworld
 	final double FIRE_SPREAD_CHANCE = 0.30;
 	final int CELL_SIZE = 32;
 
-	public Overworld(App app, int size, Array<Circuit> circuits, Inventory inventory)
+	public Overworld(App app, int size, CircuitPack circuits, Inventory inventory)
 	{
 		this.inventory = inventory;
 		// contains permanent tiles
@@ -294,14 +292,15 @@ public class Overworld
 	
 	private void distributeCircuits()
 	{
-		List<Circuit> circuits = Arrays.asList(this.circuits.toArray());
-		Function<String, List<Circuit>> getCircuits = suffix -> circuits.stream().filter(circuit ->
-					circuit.name.endsWith(suffix)).collect(Collectors.toList());
-		List<Circuit> doorCircuits = getCircuits.apply("door");
-		List<Circuit> fireSuppression = getCircuits.apply("fire");
-		List<Circuit> terminalCircuits = getCircuits.apply("terminal");
-		List<Circuit> solvedDoorCircuits = getCircuits.apply("door_solved");
-		List<Circuit> solvedFireSuppression = getCircuits.apply("fire_solved");
+		//Only the names are looked at here, circuits are read from the pack
+		//once they are placed
+		List<String> doorCircuits = circuits.names("door");
+		List<String> fireSuppression = circuits.names("fire");
+		List<String> terminalCircuits = circuits.names("terminal");
+		List<String> solvedDoorCircuits = circuits.names("door_solved");
+		List<String> solvedFireSuppression = circuits.names("fire_solved");
+		List<Circuit> placedSolved = new ArrayList<Circuit>();
+		List<Point> generatedDoors = new ArrayList<Point>();
 
 		for(int y = 0; y < modifiers.length; y++)
 			for(int x = 0; x < modifiers[y].length; x++)
@@ -311,17 +310,19 @@ public class Overworld
 				{
 				case broken:
 					if(map[y][x] == Tile.door)
-						c = new Circuit(getRandom(doorCircuits));
+						generatedDoors.add(new Point(x, y));
 					else if(map[y][x] == Tile.fireSuppression)
-						c = new Circuit(getRandom(fireSuppression));
+						c = new Circuit(circuits.get(getRandom(fireSuppression)));
 					else if(map[y][x] == Tile.terminal)
-						c = new Circuit(terminalCircuits.remove(0));
+						c = new Circuit(circuits.get(terminalCircuits.remove(0)));
 					break;
 				case none:
 					if(map[y][x] == Tile.door)
-						c = new Circuit(getRandom(solvedDoorCircuits));
+						c = new Circuit(circuits.get(getRandom(solvedDoorCircuits)));
 					else if(map[y][x] == Tile.fireSuppression)
-						c = new Circuit(getRandom(solvedFireSuppression));
+						c = new Circuit(circuits.get(getRandom(solvedFireSuppression)));
+					if(c != null)
+						placedSolved.add(c);
 					break;
 				default:
 					break;
@@ -329,6 +330,20 @@ public class Overworld
 				if(c != null)
 					worldCircuits.put(new Point(x, y), c);
 			}
+
+		//Every broken door gets its own puzzle, or a hand made one if none
+		//could be generated
+		List<Circuit> generated = new CircuitGenerator().generate(generatedDoors.size(), (long)(Math.random() * Long.MAX_VALUE));
+		for(int i = 0; i < generatedDoors.size(); i++)
+		{
+			Circuit c = generated.get(i);
+			worldCircuits.put(generatedDoors.get(i), c != null ? c : new Circuit(circuits.get(getRandom(doorCircuits))));
+		}
+
+		//Solve every placed circuit up front, so opening one doesn't have to
+		for(SolveResult result : CircuitSolver.solveAll(worldCircuits.values()))
+			if(!result.solved && placedSolved.contains(result.circuit))
+				Gdx.app.error("Overworld", "Working machine has an unsolved circuit: " + result);
 	}
 	
 	private void unblockDoors()
@@ -85,6 +85,10 @@ public class Renderer
 	 * A formatter to print numbers to the player correctly
 	 */
 	private DecimalFormat sigFigs;
+	/**
+	 * Solves the circuit being drawn, so drawing never waits on a solve
+	 */
+	private SolverWorker solver;
 	/**
 	 * Create a Renderer
 	 * 
@@ -103,9 +107,12 @@ public class Renderer
 	 *            The width of the screen
 	 * @param screenHeight
 	 *            The height of the screen
+	 * @param solver
+	 *            The worker to solve the circuit being drawn with, which is
+	 *            shut down by its owner and not by the Renderer
 	 */
 	public Renderer(SpriteBatch batch, BitmapFont font, AssetManager assets, int cellSize, int componentSize,
-			int screenWidth, int screenHeight, Vector2 camera)
+			int screenWidth, int screenHeight, Vector2 camera, SolverWorker solver)
 	{
 		// Initialize member variables
 		this.batch = batch;
@@ -115,6 +122,7 @@ public class Renderer
 		this.componentSize = componentSize;
 		this.screenWidth = screenWidth;
 		this.screenHeight = screenHeight;
+		this.solver = solver;
 		// Retrieve image assets
 		this.wall = assets.get("station_wall.png", Texture.class);
 		this.floor = assets.get("station_floor.png", Texture.class);
@@ -320,6 +328,14 @@ public class Renderer
 	{
 		this.fireFrame = (fireFrame + 1) % 60;
 		int fireFrame = this.fireFrame / 15;
+		// A solve for an older edit says nothing about the circuit on screen, so
+		// until the newest edit is solved it is drawn as unsolved with no
+		// readouts
+		solver.submit(circuit);
+		CircuitState state = solver.getLatest(circuit);
+		if (state != null && !state.isCurrent())
+			state = null;
+		boolean solved = state != null && state.solved;
 		shapes.begin(ShapeType.Filled);
 		shapes.setColor(Color.GRAY);
 		shapes.rect(0, 0, Gdx.graphics.getWidth(), Gdx.graphics.getHeight());
@@ -371,17 +387,21 @@ public class Renderer
 					} else if (comp.type == Type.BATTERY)
 					{
 						tex = battery;
+					} else if (comp.type == Type.CAPACITOR || comp.type == Type.INDUCTOR)
+					{
+						// There is no art for these yet
+						tex = resistor;
 					} else
 					{
 						continue;
 					}
-					if(comp.isActive)
+					if(state != null && state.isActive(y, x))
 						batch.setColor(Color.GREEN);
 					else
 						batch.setColor(Color.RED);
 					draw(batch, tex, drawX, drawY, componentSize / 2, componentSize / 2, rotation);
 					batch.setColor(Color.WHITE);
-					if(Double.isNaN(comp.current))
+					if(state != null && Double.isNaN(state.getCurrent(y, x)))
 					{
 						batch.draw(fire[fireFrame], drawX, drawY, componentSize, componentSize);
 						App.playSound(App.sounds.fire, 1);
@@ -400,20 +420,32 @@ public class Renderer
 				{
 				case RESISTOR:
 					outValue += "R: " + sigFigs.format(comp.resistance) + "\n";
-					outValue += "A: " + sigFigs.format(comp.current)+ "\n";
-					outValue += "V: " + sigFigs.format(comp.current * comp.resistance) + "\n";
 					break;
-				case BATTERY:
-					outValue += "A: " + sigFigs.format(comp.current)+ "\n";
-					outValue += "V: " + sigFigs.format(comp.voltageDif) + "\n";
+				case CAPACITOR:
+					outValue += "C: " + sigFigs.format(comp.capacitance) + "\n";
 					break;
-				case WIRE:
+				case INDUCTOR:
+					outValue += "L: " + sigFigs.format(comp.inductance) + "\n";
+					break;
+				default:
 					break;
 				}
+				// Currents and voltages only come from a solve of the circuit as
+				// it is now
+				if (state != null && comp.type != Type.WIRE)
+				{
+					double current = state.getCurrent(cursorY, cursorX);
+					outValue += "A: " + sigFigs.format(current) + "\n";
+					if (comp.type == Type.RESISTOR)
+						outValue += "V: " + sigFigs.format(current * comp.resistance) + "\n";
+					else if (comp.type != Type.INDUCTOR)
+						outValue += "V: " + sigFigs.format(state.getVoltage(cursorY, cursorX)) + "\n";
+				}
 				if (comp.isLamp)
 				{
 					outValue += "Target A: " + sigFigs.format(comp.targetCurrent) + "+/-" + sigFigs.format(comp.targetMargin) + "\n";
-					outValue += Math.abs(comp.targetCurrent - comp.current) < comp.targetMargin ? "On" : "Off";
+					if (state != null)
+						outValue += Math.abs(comp.targetCurrent - state.getCurrent(cursorY, cursorX)) < comp.targetMargin ? "On" : "Off";
 				}
 				font.draw(batch, outValue, 465, 90);
 			}
@@ -427,7 +459,7 @@ public class Renderer
 		shapes.rect(0, Gdx.graphics.getHeight() - 32, 640, 32);
 		shapes.end();
 		batch.begin();
-		if(circuit.isSolved()) 
+		if(solved) 
 		{
 			font.setColor(Color.GREEN);
 			font.draw(batch, "Solved", Gdx.graphics.getWidth() - 64, Gdx.graphics.getHeight() - 12);
@@ -438,7 +470,7 @@ public class Renderer
 			font.draw(batch, "In Progress", Gdx.graphics.getWidth() - 96, Gdx.graphics.getHeight() - 12);
 		}
 		font.draw(batch, "Lamps needed: " + circuit.goalLamps, 0, Gdx.graphics.getHeight() - 12);
-		if(circuit.isSolved())
+		if(solved)
 			font.draw(batch, "Press Escape to back out.", 130, Gdx.graphics.getHeight() - 12);
 		batch.end();
 	}
@@ -479,6 +511,14 @@ public class Renderer
 	{
 		circuitOffset.set(0, 0);
 	}
+
+	/**
+	 * Frees the shape renderer
+	 */
+	public void dispose()
+	{
+		shapes.dispose();
+	}
 	
 	private int[] circuitAccumulator = new int[9];
 
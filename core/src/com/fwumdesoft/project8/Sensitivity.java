@@ -0,0 +1,111 @@
+package com.fwumdesoft.project8;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * How much the current through each lamp of a circuit changes when the main
+ * value of each part the player placed is changed </br>
+ * Each entry is the derivative of a lamp's current with respect to a part's
+ * main value, at the values the circuit has now. A lamp's main value is its
+ * target current, which doesn't change any current, so lamps only show up as
+ * parts with a derivative of 0. A lamp with no current at all has no single
+ * derivative, so its current is treated as flowing forwards
+ */
+public class Sensitivity
+{
+	/**
+	 * The cell of each lamp, indexed like the circuit's grid
+	 */
+	public final int[] lampX, lampY;
+	/**
+	 * The cell of each part the player can change, indexed like the
+	 * circuit's grid
+	 */
+	public final int[] partX, partY;
+	/**
+	 * The current through each lamp
+	 */
+	private final double[] current;
+	/**
+	 * The derivative of each lamp's current, by lamp then part
+	 */
+	private final double[][] derivative;
+
+	Sensitivity(int[] lampX, int[] lampY, int[] partX, int[] partY, double[] current, double[][] derivative)
+	{
+		this.lampX = lampX;
+		this.lampY = lampY;
+		this.partX = partX;
+		this.partY = partY;
+		this.current = current;
+		this.derivative = derivative;
+	}
+
+	/**
+	 * @return The number of lamps
+	 */
+	public int lamps()
+	{
+		return lampX.length;
+	}
+
+	/**
+	 * @return The number of parts the player can change
+	 */
+	public int parts()
+	{
+		return partX.length;
+	}
+
+	/**
+	 * @return The current through a lamp
+	 */
+	public double getCurrent(int lamp)
+	{
+		return current[lamp];
+	}
+
+	/**
+	 * @return The derivative of a lamp's current with respect to a part's main
+	 *         value
+	 */
+	public double get(int lamp, int part)
+	{
+		return derivative[lamp][part];
+	}
+
+	/**
+	 * Orders the parts by how much changing them moves the lamps, which is
+	 * the order a hint should suggest them in
+	 *
+	 * @return The index of every part, the one with the largest total effect
+	 *         on every lamp's current first
+	 */
+	public Integer[] rankParts()
+	{
+		double[] effect = new double[parts()];
+		for (int lamp = 0; lamp < lamps(); lamp++)
+			for (int part = 0; part < parts(); part++)
+				effect[part] += Math.abs(derivative[lamp][part]);
+		Integer[] order = new Integer[parts()];
+		for (int part = 0; part < order.length; part++)
+			order[part] = part;
+		Arrays.sort(order, Comparator.comparingDouble(part -> -effect[part]));
+		return order;
+	}
+
+	public String toString()
+	{
+		StringBuilder out = new StringBuilder();
+		for (int lamp = 0; lamp < lamps(); lamp++)
+		{
+			out.append("lamp ").append(lampX[lamp]).append(", ").append(lampY[lamp]).append(':');
+			for (int part = 0; part < parts(); part++)
+				out.append(' ').append(partX[part]).append(", ").append(partY[part]).append('=')
+						.append(derivative[lamp][part]);
+			out.append('\n');
+		}
+		return out.toString();
+	}
+}
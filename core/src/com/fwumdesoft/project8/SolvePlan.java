@@ -0,0 +1,606 @@
+package com.fwumdesoft.project8;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fwumdesoft.project8.CircuitComponent.Type;
+import com.fwumdesoft.project8.CircuitSolver.SolverMode;
+import com.fwumdesoft.project8.SolveStats.Count;
+
+/**
+ * The system of equations for one circuit layout, with every coefficient
+ * written as a sign times the value of a component (or as a constant) </br>
+ * Building a plan is the expensive, topology-only part of solving. Once built,
+ * the matrix and right hand side for any component values can be assembled
+ * directly, and the effect of changing a single component is known exactly.
+ * Finished plans are never changed, so every circuit with the same layout
+ * shares one
+ */
+class SolvePlan
+{
+	/**
+	 * The codes used to describe the layout of a cell
+	 */
+	static final byte EMPTY = 0, WIRE = 1, BATTERY = 2, RESISTOR = 3, SHORT = 4, CAPACITOR = 5, INDUCTOR = 6;
+	/**
+	 * How many plans are kept before the cache is emptied
+	 */
+	private static final int MAX_PLANS = 256;
+	/**
+	 * Every plan built so far, by mode and layout
+	 */
+	private static final ConcurrentHashMap<Key, SolvePlan> plans = new ConcurrentHashMap<Key, SolvePlan>();
+
+	/**
+	 * The mode the plan was built with
+	 */
+	final SolverMode mode;
+	/**
+	 * The size of the circuit grid
+	 */
+	final int width, height;
+	/**
+	 * The layout the plan was built for, one code per cell
+	 */
+	final byte[] layout;
+	/**
+	 * The size of the system of equations
+	 */
+	final int rows, cols;
+	/**
+	 * If resistors are stamped as conductances (1 / resistance) instead of as
+	 * resistances
+	 */
+	final boolean conductance;
+	/**
+	 * The time step of a transient plan, or 0 for a plan of the steady state
+	 */
+	final double timeStep;
+
+	/**
+	 * The cell (x * height + y) of each element, meaning each battery or
+	 * resistor the plan uses
+	 */
+	int[] elementCell;
+	int elements;
+	/**
+	 * Matrix entries that are always the same
+	 */
+	int[] fixedRow, fixedCol;
+	double[] fixedValue;
+	int fixed;
+	/**
+	 * Matrix entries that are a sign times an element's resistance (or
+	 * conductance)
+	 */
+	int[] stampRow, stampCol, stampElement;
+	double[] stampSign;
+	int stamps;
+	/**
+	 * Right hand side entries that are a sign times an element's voltage
+	 */
+	int[] sourceRow, sourceElement;
+	double[] sourceSign;
+	int sources;
+	/**
+	 * Right hand side entries that are a sign times an element's stamp scale
+	 * times its state at the last time step (the voltage across a capacitor,
+	 * or the current through an inductor)
+	 */
+	int[] historyRow, historyElement;
+	double[] historySign;
+	int histories;
+	/**
+	 * Each element's current is the difference of these two unknowns (-1 for
+	 * none), divided by its resistance if outputScaled is set
+	 */
+	int[] outputPositive, outputNegative;
+	boolean[] outputScaled;
+	/**
+	 * The stamps of each element, as ranges of elementStamps
+	 */
+	int[] elementStampStart, elementStamps;
+
+	/**
+	 * Finds the element of each cell while the plan is being built
+	 */
+	private HashMap<Integer, Integer> elementOfCell;
+	/**
+	 * The pairing and order a sparse matrix of this plan is factored with,
+	 * found the first time one is factored
+	 */
+	private volatile int[][] analysis;
+
+	/**
+	 * Start building an empty plan
+	 *
+	 * @param mode
+	 *            The mode the plan is built with
+	 * @param circuit
+	 *            The circuit the plan is for
+	 * @param rows
+	 *            The number of equations
+	 * @param cols
+	 *            The number of unknowns
+	 * @param conductance
+	 *            If resistors are stamped as conductances
+	 * @param timeStep
+	 *            The time step of a transient plan, or 0
+	 */
+	SolvePlan(SolverMode mode, CircuitComponent[][] circuit, int rows, int cols, boolean conductance,
+			double timeStep)
+	{
+		this.mode = mode;
+		this.width = circuit.length;
+		this.height = circuit[0].length;
+		this.layout = layoutOf(circuit);
+		this.rows = rows;
+		this.cols = cols;
+		this.conductance = conductance;
+		this.timeStep = timeStep;
+		elementCell = new int[16];
+		outputPositive = new int[16];
+		outputNegative = new int[16];
+		outputScaled = new boolean[16];
+		fixedRow = new int[16];
+		fixedCol = new int[16];
+		fixedValue = new double[16];
+		stampRow = new int[16];
+		stampCol = new int[16];
+		stampElement = new int[16];
+		stampSign = new double[16];
+		sourceRow = new int[16];
+		sourceElement = new int[16];
+		sourceSign = new double[16];
+		historyRow = new int[16];
+		historyElement = new int[16];
+		historySign = new double[16];
+		elementOfCell = new HashMap<Integer, Integer>();
+	}
+
+	/**
+	 * Finds the plan for a circuit's layout, building it only if no circuit
+	 * with the same layout has been solved before
+	 *
+	 * @param circuit
+	 *            The circuit
+	 * @param mode
+	 *            The mode to solve it with
+	 * @return The shared plan
+	 */
+	static SolvePlan of(CircuitComponent[][] circuit, SolverMode mode)
+	{
+		Key key = new Key(mode, circuit.length, circuit[0].length, layoutOf(circuit));
+		SolvePlan plan = plans.get(key);
+		if (plan != null)
+			return plan;
+
+		plan = CircuitSolver.compile(circuit, mode);
+		if (plans.size() >= MAX_PLANS)
+			plans.clear();
+		SolvePlan existing = plans.putIfAbsent(key, plan);
+		return existing != null ? existing : plan;
+	}
+
+	/**
+	 * Forgets every shared plan
+	 */
+	static void clearCache()
+	{
+		plans.clear();
+	}
+
+	/**
+	 * Describes the layout of a circuit, ignoring component values
+	 *
+	 * @param circuit
+	 *            The circuit
+	 * @return One code per cell, indexed by x * height + y
+	 */
+	static byte[] layoutOf(CircuitComponent[][] circuit)
+	{
+		int height = circuit[0].length;
+		byte[] layout = new byte[circuit.length * height];
+		for (int x = 0; x < circuit.length; x++)
+			for (int y = 0; y < height; y++)
+				layout[x * height + y] = codeOf(circuit[x][y]);
+		return layout;
+	}
+
+	/**
+	 * @return The layout code of a single component
+	 */
+	static byte codeOf(CircuitComponent comp)
+	{
+		if (comp == null)
+			return EMPTY;
+		if (comp.type == null)
+			throw new IllegalArgumentException("Empty component slots can't be solved");
+		switch (comp.type)
+		{
+		case WIRE:
+			return WIRE;
+		case BATTERY:
+			return BATTERY;
+		case CAPACITOR:
+			return CAPACITOR;
+		case INDUCTOR:
+			return INDUCTOR;
+		default:
+			return comp.resistance == 0 ? SHORT : RESISTOR;
+		}
+	}
+
+	/**
+	 * Checks if a circuit has the layout this plan was built for
+	 *
+	 * @param circuit
+	 *            The circuit
+	 * @return If the plan can be used to solve the circuit
+	 */
+	boolean matches(CircuitComponent[][] circuit)
+	{
+		if (circuit.length != width || circuit[0].length != height)
+			return false;
+		for (int x = 0; x < width; x++)
+			for (int y = 0; y < height; y++)
+				if (codeOf(circuit[x][y]) != layout[x * height + y])
+					return false;
+		return true;
+	}
+
+	/**
+	 * Finds (or adds) the element for a cell
+	 *
+	 * @param cell
+	 *            The cell, as x * height + y
+	 * @return The element index
+	 */
+	int element(int cell)
+	{
+		Integer existing = elementOfCell.get(cell);
+		if (existing != null)
+			return existing;
+		if (elements == elementCell.length)
+		{
+			elementCell = Arrays.copyOf(elementCell, elements * 2);
+			outputPositive = Arrays.copyOf(outputPositive, elements * 2);
+			outputNegative = Arrays.copyOf(outputNegative, elements * 2);
+			outputScaled = Arrays.copyOf(outputScaled, elements * 2);
+		}
+		elementCell[elements] = cell;
+		outputPositive[elements] = outputNegative[elements] = -1;
+		elementOfCell.put(cell, elements);
+		return elements++;
+	}
+
+	/**
+	 * Finds the element of a cell in a finished plan
+	 *
+	 * @param cell
+	 *            The cell, as x * height + y
+	 * @return The element index, or -1 if the cell has none
+	 */
+	int elementAt(int cell)
+	{
+		for (int e = 0; e < elements; e++)
+			if (elementCell[e] == cell)
+				return e;
+		return -1;
+	}
+
+	/**
+	 * Add a constant matrix entry
+	 */
+	void addFixed(int row, int col, double value)
+	{
+		if (fixed == fixedRow.length)
+		{
+			fixedRow = Arrays.copyOf(fixedRow, fixed * 2);
+			fixedCol = Arrays.copyOf(fixedCol, fixed * 2);
+			fixedValue = Arrays.copyOf(fixedValue, fixed * 2);
+		}
+		fixedRow[fixed] = row;
+		fixedCol[fixed] = col;
+		fixedValue[fixed++] = value;
+	}
+
+	/**
+	 * Add a matrix entry of a sign times an element's resistance (or
+	 * conductance)
+	 */
+	void addStamp(int row, int col, double sign, int element)
+	{
+		if (stamps == stampRow.length)
+		{
+			stampRow = Arrays.copyOf(stampRow, stamps * 2);
+			stampCol = Arrays.copyOf(stampCol, stamps * 2);
+			stampElement = Arrays.copyOf(stampElement, stamps * 2);
+			stampSign = Arrays.copyOf(stampSign, stamps * 2);
+		}
+		stampRow[stamps] = row;
+		stampCol[stamps] = col;
+		stampElement[stamps] = element;
+		stampSign[stamps++] = sign;
+	}
+
+	/**
+	 * Add a right hand side entry of a sign times an element's voltage
+	 */
+	void addSource(int row, double sign, int element)
+	{
+		if (sources == sourceRow.length)
+		{
+			sourceRow = Arrays.copyOf(sourceRow, sources * 2);
+			sourceElement = Arrays.copyOf(sourceElement, sources * 2);
+			sourceSign = Arrays.copyOf(sourceSign, sources * 2);
+		}
+		sourceRow[sources] = row;
+		sourceElement[sources] = element;
+		sourceSign[sources++] = sign;
+	}
+
+	/**
+	 * Add a right hand side entry of a sign times an element's stamp scale
+	 * times its last state
+	 */
+	void addHistory(int row, double sign, int element)
+	{
+		if (histories == historyRow.length)
+		{
+			historyRow = Arrays.copyOf(historyRow, histories * 2);
+			historyElement = Arrays.copyOf(historyElement, histories * 2);
+			historySign = Arrays.copyOf(historySign, histories * 2);
+		}
+		historyRow[histories] = row;
+		historyElement[histories] = element;
+		historySign[histories++] = sign;
+	}
+
+	/**
+	 * Set where an element reads its current from
+	 *
+	 * @param element
+	 *            The element
+	 * @param positive
+	 *            The unknown to add, or -1
+	 * @param negative
+	 *            The unknown to subtract, or -1
+	 * @param scaled
+	 *            If the difference is divided by the element's resistance
+	 */
+	void setOutput(int element, int positive, int negative, boolean scaled)
+	{
+		outputPositive[element] = positive;
+		outputNegative[element] = negative;
+		outputScaled[element] = scaled;
+	}
+
+	/**
+	 * Finish building the plan, indexing the stamps of each element
+	 *
+	 * @return This plan
+	 */
+	SolvePlan finish()
+	{
+		elementStampStart = new int[elements + 1];
+		for (int s = 0; s < stamps; s++)
+			elementStampStart[stampElement[s] + 1]++;
+		for (int e = 0; e < elements; e++)
+			elementStampStart[e + 1] += elementStampStart[e];
+		int[] next = Arrays.copyOf(elementStampStart, elements);
+		elementStamps = new int[stamps];
+		for (int s = 0; s < stamps; s++)
+			elementStamps[next[stampElement[s]]++] = s;
+		elementOfCell = null;
+		return this;
+	}
+
+	/**
+	 * Reads the value of every element from a circuit with this plan's layout
+	 *
+	 * @param circuit
+	 *            The circuit
+	 * @param values
+	 *            Filled with each element's resistance, voltage, capacitance
+	 *            or inductance
+	 */
+	void readValues(CircuitComponent[][] circuit, double[] values)
+	{
+		for (int e = 0; e < elements; e++)
+		{
+			CircuitComponent comp = circuit[elementCell[e] / height][elementCell[e] % height];
+			values[e] = comp.type == Type.BATTERY ? comp.voltageDif
+					: comp.type == Type.CAPACITOR ? comp.capacitance
+							: comp.type == Type.INDUCTOR ? comp.inductance : comp.resistance;
+		}
+	}
+
+	/**
+	 * @return The coefficient an element's stamps scale by for its value
+	 */
+	double scale(int element, double value)
+	{
+		switch (layout[elementCell[element]])
+		{
+		case CAPACITOR:
+		case INDUCTOR:
+			// The backward Euler companion of C dv/dt or L di/dt
+			return value / timeStep;
+		default:
+			return conductance ? 1 / value : value;
+		}
+	}
+
+	/**
+	 * @return How fast an element's stamp scale changes with its value
+	 */
+	double scaleDerivative(int element, double value)
+	{
+		switch (layout[elementCell[element]])
+		{
+		case CAPACITOR:
+		case INDUCTOR:
+			return 1 / timeStep;
+		default:
+			return conductance ? -1 / (value * value) : 1;
+		}
+	}
+
+	/**
+	 * Stamp the matrix for a set of element values
+	 *
+	 * @param matrix
+	 *            The empty matrix to fill
+	 * @param values
+	 *            The value of each element
+	 */
+	void assemble(SolverMatrix matrix, double[] values)
+	{
+		for (int f = 0; f < fixed; f++)
+			matrix.add(fixedRow[f], fixedCol[f], fixedValue[f]);
+		for (int s = 0; s < stamps; s++)
+			matrix.add(stampRow[s], stampCol[s], stampSign[s] * scale(stampElement[s], values[stampElement[s]]));
+	}
+
+	/**
+	 * Assemble and factor the matrix for a set of element values, reusing the
+	 * ordering found by earlier factorizations of this plan
+	 *
+	 * @param values
+	 *            The value of each element
+	 * @return The factored matrix
+	 * @throws ArithmeticException
+	 *             If the system has no unique solution
+	 */
+	SolverMatrix factor(double[] values)
+	{
+		SolverMatrix matrix = CircuitSolver.createMatrix(rows, cols);
+		assemble(matrix, values);
+		try
+		{
+			if (matrix instanceof SparseMatrix)
+			{
+				SparseMatrix sparse = (SparseMatrix) matrix;
+				int[][] known = analysis;
+				if (known == null)
+					analysis = known = sparse.analyze();
+				sparse.factor(known);
+			} else
+				matrix.factor();
+		} finally
+		{
+			if (matrix.rank() >= 0)
+				SolveStats.count(Count.RANK, matrix.rank());
+		}
+		return matrix;
+	}
+
+	/**
+	 * Build the right hand side for a set of element values
+	 *
+	 * @param values
+	 *            The value of each element
+	 * @param constants
+	 *            Filled with the right hand side
+	 */
+	void assembleConstants(double[] values, double[] constants)
+	{
+		Arrays.fill(constants, 0, rows, 0);
+		for (int s = 0; s < sources; s++)
+			constants[sourceRow[s]] += sourceSign[s] * values[sourceElement[s]];
+	}
+
+	/**
+	 * Add the history terms of a transient plan to the right hand side
+	 *
+	 * @param values
+	 *            The value of each element
+	 * @param state
+	 *            The state of each element at the last time step
+	 * @param constants
+	 *            The right hand side to add to
+	 */
+	void assembleHistory(double[] values, double[] state, double[] constants)
+	{
+		for (int h = 0; h < histories; h++)
+		{
+			int e = historyElement[h];
+			constants[historyRow[h]] += historySign[h] * scale(e, values[e]) * state[e];
+		}
+	}
+
+	/**
+	 * Put the solved currents into the circuit's components
+	 *
+	 * @param circuit
+	 *            The circuit
+	 * @param values
+	 *            The value of each element
+	 * @param result
+	 *            The solution of the system
+	 */
+	void fill(CircuitComponent[][] circuit, double[] values, double[] result)
+	{
+		for (int e = 0; e < elements; e++)
+			CircuitSolver.setCurrent(circuit[elementCell[e] / height][elementCell[e] % height],
+					current(e, values, result));
+	}
+
+	/**
+	 * Reads the current through one element from a solution
+	 *
+	 * @param element
+	 *            The element
+	 * @param values
+	 *            The value of each element
+	 * @param result
+	 *            The solution of the system
+	 * @return The current, with a sign for its direction (0 for an element
+	 *         with no output, like a capacitor in the steady state)
+	 */
+	double current(int element, double[] values, double[] result)
+	{
+		double current = (outputPositive[element] >= 0 ? result[outputPositive[element]] : 0)
+				- (outputNegative[element] >= 0 ? result[outputNegative[element]] : 0);
+		if (outputScaled[element])
+			current /= values[element];
+		return current;
+	}
+
+	/**
+	 * Identifies a layout in the plan cache
+	 */
+	private static class Key
+	{
+		private final SolverMode mode;
+		private final int width, height;
+		private final byte[] layout;
+		private final int hash;
+
+		public Key(SolverMode mode, int width, int height, byte[] layout)
+		{
+			this.mode = mode;
+			this.width = width;
+			this.height = height;
+			this.layout = layout;
+			hash = (mode.hashCode() * 31 + width) * 31 + Arrays.hashCode(layout);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object other)
+		{
+			if (!(other instanceof Key))
+				return false;
+			Key key = (Key) other;
+			return mode == key.mode && width == key.width && height == key.height && Arrays.equals(layout, key.layout);
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package com.fwumdesoft.project8;
+
+/**
+ * The outcome of solving one circuit in a batch
+ */
+public class SolveResult
+{
+	/**
+	 * The circuit that was solved
+	 */
+	public final Circuit circuit;
+	/**
+	 * If the circuit lights enough lamps
+	 */
+	public final boolean solved;
+	/**
+	 * Which cells hold a lit lamp, indexed like the circuit's grid
+	 */
+	public final boolean[][] litLamps;
+	/**
+	 * The number of lit lamps
+	 */
+	public final int activeLamps;
+	/**
+	 * How long checking the circuit took, in nanoseconds
+	 */
+	public final long nanos;
+
+	/**
+	 * Check a circuit and record the outcome
+	 *
+	 * @param circuit
+	 *            The circuit to check
+	 */
+	public SolveResult(Circuit circuit)
+	{
+		this.circuit = circuit;
+		long start = System.nanoTime();
+		solved = circuit.isSolved();
+		nanos = System.nanoTime() - start;
+
+		litLamps = new boolean[circuit.grid.length][];
+		int count = 0;
+		for (int i = 0; i < litLamps.length; i++)
+		{
+			litLamps[i] = new boolean[circuit.grid[i].length];
+			for (int j = 0; j < litLamps[i].length; j++)
+			{
+				CircuitComponent comp = circuit.grid[i][j];
+				if (comp != null && comp.isLamp && comp.isActive)
+				{
+					litLamps[i][j] = true;
+					count++;
+				}
+			}
+		}
+		activeLamps = count;
+	}
+
+	public String toString()
+	{
+		return (circuit.name != null ? circuit.name : "circuit") + ": " + (solved ? "solved" : "unsolved") + ", "
+				+ activeLamps + "/" + circuit.goalLamps + " lamps, " + nanos / 1000 + " us";
+	}
+}
@@ -0,0 +1,218 @@
+package com.fwumdesoft.project8;
+
+/**
+ * The time spent in each phase of one solve and the sizes it worked with
+ * </br>
+ * Phases that were skipped, like building equations for a layout that was
+ * already planned, take no time. Stats are only collected while
+ * CircuitSolver.listener is set
+ */
+public class SolveStats
+{
+	/**
+	 * The phases of a solve
+	 */
+	public enum Phase
+	{
+		/**
+		 * Finding the junctions (or nodes) of the circuit
+		 */
+		JUNCTIONS,
+		/**
+		 * Walking the branches between junctions
+		 */
+		BRANCHES,
+		/**
+		 * Building the equations from the loops or nodes
+		 */
+		EQUATIONS,
+		/**
+		 * Merging parts in series and parallel
+		 */
+		REDUCTION,
+		/**
+		 * Factoring, updating and solving the system
+		 */
+		ELIMINATION,
+		/**
+		 * Putting the currents into the components
+		 */
+		FILL
+	};
+
+	/**
+	 * The sizes a solve can count
+	 */
+	public enum Count
+	{
+		/**
+		 * Junctions, or nodes in the nodal modes
+		 */
+		JUNCTIONS,
+		/**
+		 * Branches between junctions, or parts in the nodal modes
+		 */
+		BRANCHES,
+		/**
+		 * Rows of the system that was built
+		 */
+		EQUATIONS,
+		/**
+		 * Unknowns that were solved for
+		 */
+		UNKNOWNS,
+		/**
+		 * Independent equations found while factoring, the same as the
+		 * unknowns unless the circuit has no unique solution
+		 */
+		RANK,
+		/**
+		 * Rank one updates folded into an old factorization
+		 */
+		UPDATES,
+		/**
+		 * Conjugate gradient iterations
+		 */
+		ITERATIONS
+	};
+
+	private static final ThreadLocal<SolveStats> current = new ThreadLocal<SolveStats>();
+
+	private final long[] nanos = new long[Phase.values().length];
+	private final int[] counts = new int[Count.values().length];
+	/**
+	 * The mode the circuit was solved with
+	 */
+	public final CircuitSolver.SolverMode mode;
+	/**
+	 * The number of cells in the circuit's grid
+	 */
+	public final int cells;
+	private long totalNanos;
+	private boolean failed;
+
+	private SolveStats(CircuitSolver.SolverMode mode, int cells)
+	{
+		this.mode = mode;
+		this.cells = cells;
+	}
+
+	/**
+	 * @return The time spent in a phase, in nanoseconds
+	 */
+	public long getNanos(Phase phase)
+	{
+		return nanos[phase.ordinal()];
+	}
+
+	/**
+	 * @return The value of a count, or 0 if it was never counted
+	 */
+	public int getCount(Count count)
+	{
+		return counts[count.ordinal()];
+	}
+
+	/**
+	 * @return The time the whole solve took, in nanoseconds
+	 */
+	public long getTotalNanos()
+	{
+		return totalNanos;
+	}
+
+	/**
+	 * @return If the solve threw instead of finishing
+	 */
+	public boolean isFailed()
+	{
+		return failed;
+	}
+
+	/**
+	 * Starts collecting stats for a solve on this thread, unless there is no
+	 * listener or a solve is already being collected
+	 *
+	 * @return The stats to pass to finish, or null
+	 */
+	static SolveStats begin(CircuitComponent[][] circuit, CircuitSolver.SolverMode mode)
+	{
+		if (CircuitSolver.listener == null || current.get() != null)
+			return null;
+		SolveStats stats = new SolveStats(mode, circuit.length * circuit[0].length);
+		stats.totalNanos = System.nanoTime();
+		current.set(stats);
+		return stats;
+	}
+
+	/**
+	 * Stops collecting stats and tells the listener about them
+	 *
+	 * @param stats
+	 *            The stats from begin, which may be null
+	 * @param failed
+	 *            If the solve threw
+	 */
+	static void finish(SolveStats stats, boolean failed)
+	{
+		if (stats == null)
+			return;
+		current.remove();
+		stats.totalNanos = System.nanoTime() - stats.totalNanos;
+		stats.failed = failed;
+		SolverListener listener = CircuitSolver.listener;
+		if (listener != null)
+			listener.solved(stats);
+	}
+
+	/**
+	 * @return A start time for a phase, or 0 if no stats are being collected
+	 */
+	static long start()
+	{
+		return CircuitSolver.listener == null || current.get() == null ? 0 : System.nanoTime();
+	}
+
+	/**
+	 * Adds the time since a start to a phase
+	 *
+	 * @param phase
+	 *            The phase
+	 * @param start
+	 *            The time from start
+	 */
+	static void end(Phase phase, long start)
+	{
+		if (start == 0)
+			return;
+		SolveStats stats = current.get();
+		if (stats != null)
+			stats.nanos[phase.ordinal()] += System.nanoTime() - start;
+	}
+
+	/**
+	 * Adds to a count, if stats are being collected
+	 */
+	static void count(Count count, int amount)
+	{
+		if (CircuitSolver.listener == null)
+			return;
+		SolveStats stats = current.get();
+		if (stats != null)
+			stats.counts[count.ordinal()] += amount;
+	}
+
+	public String toString()
+	{
+		StringBuilder out = new StringBuilder(mode + " " + cells + " cells " + totalNanos / 1000 + " us");
+		if (failed)
+			out.append(" failed");
+		for (Phase phase : Phase.values())
+			if (nanos[phase.ordinal()] > 0)
+				out.append(", ").append(phase).append(' ').append(nanos[phase.ordinal()] / 1000).append(" us");
+		for (Count count : Count.values())
+			if (counts[count.ordinal()] > 0)
+				out.append(", ").append(count).append(' ').append(counts[count.ordinal()]);
+		return out.toString();
+	}
+}
@@ -0,0 +1,123 @@
+package com.fwumdesoft.project8;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.fwumdesoft.project8.SolveStats.Count;
+import com.fwumdesoft.project8.SolveStats.Phase;
+
+/**
+ * Collects the stats of every solve into histograms with power of two
+ * buckets, so the spread of times and sizes can be seen at a glance </br>
+ * Bucket i of a phase holds the solves that spent from 2^(i-1) up to 2^i
+ * microseconds in it (bucket 0 is under a microsecond), and bucket i of a
+ * count holds the solves with a count from 2^(i-1) up to 2^i (bucket 0 is 0)
+ */
+public class SolverHistograms implements SolverListener
+{
+	/**
+	 * The number of buckets in every histogram
+	 */
+	public static final int BUCKETS = 32;
+
+	private final AtomicLongArray phases = new AtomicLongArray(Phase.values().length * BUCKETS);
+	private final AtomicLongArray counts = new AtomicLongArray(Count.values().length * BUCKETS);
+	private final AtomicLongArray totals = new AtomicLongArray(BUCKETS);
+	private final AtomicLongArray solves = new AtomicLongArray(2);
+
+	public void solved(SolveStats stats)
+	{
+		solves.incrementAndGet(stats.isFailed() ? 1 : 0);
+		totals.incrementAndGet(bucket(stats.getTotalNanos() / 1000));
+		for (Phase phase : Phase.values())
+			phases.incrementAndGet(phase.ordinal() * BUCKETS + bucket(stats.getNanos(phase) / 1000));
+		for (Count count : Count.values())
+			counts.incrementAndGet(count.ordinal() * BUCKETS + bucket(stats.getCount(count)));
+	}
+
+	/**
+	 * @return The bucket a value goes in
+	 */
+	static int bucket(long value)
+	{
+		return value <= 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+	}
+
+	/**
+	 * @return The number of solves that finished and that failed
+	 */
+	public long getSolves(boolean failed)
+	{
+		return solves.get(failed ? 1 : 0);
+	}
+
+	/**
+	 * @return How many solves took each bucket of microseconds in total
+	 */
+	public long[] getTotal()
+	{
+		return copy(totals, 0);
+	}
+
+	/**
+	 * @return How many solves spent each bucket of microseconds in a phase
+	 */
+	public long[] getPhase(Phase phase)
+	{
+		return copy(phases, phase.ordinal() * BUCKETS);
+	}
+
+	/**
+	 * @return How many solves had each bucket of a count
+	 */
+	public long[] getCount(Count count)
+	{
+		return copy(counts, count.ordinal() * BUCKETS);
+	}
+
+	/**
+	 * Empties every histogram
+	 */
+	public void reset()
+	{
+		for (int i = 0; i < phases.length(); i++)
+			phases.set(i, 0);
+		for (int i = 0; i < counts.length(); i++)
+			counts.set(i, 0);
+		for (int i = 0; i < BUCKETS; i++)
+			totals.set(i, 0);
+		solves.set(0, 0);
+		solves.set(1, 0);
+	}
+
+	private static long[] copy(AtomicLongArray array, int start)
+	{
+		long[] histogram = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++)
+			histogram[i] = array.get(start + i);
+		return histogram;
+	}
+
+	public String toString()
+	{
+		StringBuilder out = new StringBuilder();
+		out.append(getSolves(false)).append(" solves, ").append(getSolves(true)).append(" failed\n");
+		append(out, "total us", getTotal());
+		for (Phase phase : Phase.values())
+			append(out, phase + " us", getPhase(phase));
+		for (Count count : Count.values())
+			append(out, count.toString(), getCount(count));
+		return out.toString();
+	}
+
+	/**
+	 * Writes the non-empty buckets of a histogram as "<limit:count"
+	 */
+	private static void append(StringBuilder out, String name, long[] histogram)
+	{
+		out.append(name).append(':');
+		for (int i = 0; i < BUCKETS; i++)
+			if (histogram[i] > 0)
+				out.append(" <").append(1L << i).append(':').append(histogram[i]);
+		out.append('\n');
+	}
+}
@@ -0,0 +1,19 @@
+package com.fwumdesoft.project8;
+
+/**
+ * Is told about every circuit that is solved while it is set as
+ * CircuitSolver.listener </br>
+ * It is called on whichever thread did the solve, so it must be safe to call
+ * from many threads at once
+ */
+public interface SolverListener
+{
+	/**
+	 * Called after a circuit is solved, or fails to solve
+	 *
+	 * @param stats
+	 *            The time spent in each phase of the solve and the sizes it
+	 *            worked with
+	 */
+	void solved(SolveStats stats);
+}
@@ -0,0 +1,61 @@
+package com.fwumdesoft.project8;
+
+/**
+ * A matrix that equations are stamped into one entry at a time, then factored
+ * once and solved for as many right hand sides as needed
+ */
+interface SolverMatrix
+{
+	/**
+	 * @return The number of rows (equations)
+	 */
+	int rows();
+
+	/**
+	 * @return The number of columns (unknowns)
+	 */
+	int cols();
+
+	/**
+	 * Add a value to an entry, so like terms can be stamped in one at a time
+	 */
+	void add(int row, int col, double value);
+
+	/**
+	 * Factor the matrix so it can be solved
+	 *
+	 * @throws ArithmeticException
+	 *             If the system has no unique solution
+	 */
+	void factor();
+
+	/**
+	 * @return The number of independent equations found by the last factor,
+	 *         which is the number of columns if it succeeded, or -1 if the
+	 *         matrix stops at the first dependent equation without finding its
+	 *         rank
+	 */
+	int rank();
+
+	/**
+	 * Solve the factored system for a right hand side
+	 *
+	 * @param b
+	 *            The right hand side, one value per row
+	 * @param x
+	 *            The array to fill with the solution, one value per column
+	 */
+	void solve(double[] b, double[] x);
+
+	/**
+	 * Solve the transpose of the factored system, which only uses the
+	 * independent rows found while factoring
+	 *
+	 * @param b
+	 *            The right hand side, one value per column
+	 * @param x
+	 *            The array to fill with the solution, one value per row, with
+	 *            0 for the rows that were dropped
+	 */
+	void solveTransposed(double[] b, double[] x);
+}
@@ -0,0 +1,166 @@
+package com.fwumdesoft.project8;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Solves circuits on a thread of its own, so the render thread never waits on
+ * a solve </br>
+ * The render thread submits a copy of a circuit every time it is edited. Only
+ * the newest copy is kept, so edits made while a solve is running replace each
+ * other, and a result is thrown away if a newer copy arrived while it was being
+ * solved. Results are published as CircuitStates through a volatile field, so
+ * reading the latest one never blocks </br>
+ * One worker is meant to last as long as the game, so make it once and shut it
+ * down when the game is disposed
+ */
+public class SolverWorker implements Runnable
+{
+	/**
+	 * A copy of a circuit waiting to be solved, and the mode to solve it with,
+	 * which is read when it is submitted so the worker never reads the
+	 * render thread's settings
+	 */
+	private static class Job
+	{
+		final Circuit circuit, copy;
+		final int version;
+		final CircuitSolver.SolverMode mode;
+
+		Job(Circuit circuit, CircuitSolver.SolverMode mode)
+		{
+			this.circuit = circuit;
+			this.version = circuit.getVersion();
+			this.copy = new Circuit(circuit);
+			this.mode = mode;
+		}
+	}
+
+	/**
+	 * The newest copy that hasn't been picked up yet
+	 */
+	private final AtomicReference<Job> pending = new AtomicReference<Job>();
+	/**
+	 * The newest result
+	 */
+	private volatile CircuitState latest;
+	private volatile boolean running = true;
+	private final Thread thread;
+	/**
+	 * The circuit, version and mode last submitted; only used by the
+	 * submitting thread
+	 */
+	private Circuit submitted;
+	private int submittedVersion;
+	private CircuitSolver.SolverMode submittedMode;
+	/**
+	 * The circuit and copy last solved, kept so the copy's solver can be
+	 * reused when the same circuit is edited again
+	 */
+	private Circuit solving, working;
+
+	/**
+	 * Create a worker and start its thread
+	 */
+	public SolverWorker()
+	{
+		thread = new Thread(this, "Circuit solver");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Queues a circuit to be solved with the default mode, if it changed since
+	 * it was last submitted
+	 *
+	 * @param circuit
+	 *            The circuit to solve
+	 * @return If the circuit was queued
+	 */
+	public boolean submit(Circuit circuit)
+	{
+		return submit(circuit, CircuitSolver.mode);
+	}
+
+	/**
+	 * Queues a circuit to be solved, if it or the mode changed since it was
+	 * last submitted </br>
+	 * The circuit is copied, so it can be edited again right away
+	 *
+	 * @param circuit
+	 *            The circuit to solve
+	 * @param mode
+	 *            The mode to solve it with
+	 * @return If the circuit was queued
+	 */
+	public boolean submit(Circuit circuit, CircuitSolver.SolverMode mode)
+	{
+		if (circuit == submitted && circuit.getVersion() == submittedVersion && mode == submittedMode)
+			return false;
+		submitted = circuit;
+		submittedVersion = circuit.getVersion();
+		submittedMode = mode;
+		pending.set(new Job(circuit, mode));
+		LockSupport.unpark(thread);
+		return true;
+	}
+
+	/**
+	 * @return The newest result, or null if nothing was solved yet
+	 */
+	public CircuitState getLatest()
+	{
+		return latest;
+	}
+
+	/**
+	 * Gets the newest result for a circuit, which may be for an older edit of
+	 * it
+	 *
+	 * @param circuit
+	 *            The circuit to get the result of
+	 * @return The newest result, or null if there is none for the circuit
+	 */
+	public CircuitState getLatest(Circuit circuit)
+	{
+		CircuitState state = latest;
+		return state != null && state.circuit == circuit ? state : null;
+	}
+
+	/**
+	 * Stops the thread once the solve it is running is done
+	 */
+	public void shutdown()
+	{
+		running = false;
+		LockSupport.unpark(thread);
+	}
+
+	public void run()
+	{
+		while (running)
+		{
+			Job job = pending.getAndSet(null);
+			if (job == null)
+			{
+				LockSupport.park(this);
+				continue;
+			}
+
+			if (solving != job.circuit || working == null)
+				working = job.copy;
+			else
+			{
+				// Reusing the copy keeps the solver it built last time
+				working.grid = job.copy.grid;
+				working.goalLamps = job.copy.goalLamps;
+				working.modified();
+			}
+			solving = job.circuit;
+			boolean solved = working.isSolved(job.mode);
+
+			if (pending.get() == null)
+				latest = new CircuitState(job.circuit, job.version, working, solved);
+		}
+	}
+}
@@ -0,0 +1,311 @@
+package com.fwumdesoft.project8;
+
+import java.util.Arrays;
+
+/**
+ * A sparse LU factorization with partial pivoting </br>
+ * The rows of the CSR matrix are read as the columns of its transpose, which is
+ * factored one column at a time by solving a sparse triangular system against
+ * the columns already finished (the left-looking Gilbert-Peierls method). Only
+ * entries that can actually become nonzero are ever touched
+ */
+class SparseLU
+{
+	/**
+	 * Pivots smaller than this (relative to the largest entry) are treated as
+	 * zero, meaning the system has no unique solution
+	 */
+	private static final double PIVOT_TOLERANCE = 1e-10;
+	/**
+	 * How much smaller than the largest candidate the diagonal entry may be and
+	 * still be picked as the pivot, which keeps the fill-reducing order intact
+	 */
+	private static final double DIAGONAL_PREFERENCE = 0.1;
+
+	/**
+	 * The size of the matrix
+	 */
+	private final int n;
+	/**
+	 * The order the rows of the matrix were factored in
+	 */
+	private final int[] order;
+	/**
+	 * The column treated as the diagonal of each row
+	 */
+	private final int[] match;
+	/**
+	 * The step at which each column of the matrix was used as a pivot
+	 */
+	private final int[] pivotStep;
+	/**
+	 * The unit lower triangular factor, stored by columns
+	 */
+	private int[] lowerStart, lowerIndex;
+	private double[] lowerValue;
+	/**
+	 * The upper triangular factor, stored by columns with the diagonal last
+	 */
+	private int[] upperStart, upperIndex;
+	private double[] upperValue;
+	/**
+	 * Scratch space for solving
+	 */
+	private final double[] work;
+
+	/**
+	 * Factor a matrix
+	 *
+	 * @param matrix
+	 *            The compressed matrix to factor
+	 * @param order
+	 *            The order to factor the rows in, usually fill-reducing
+	 * @param match
+	 *            The column treated as the diagonal of each row, preferred as
+	 *            its pivot
+	 * @throws ArithmeticException
+	 *             If the matrix is singular
+	 */
+	public SparseLU(SparseMatrix matrix, int[] order, int[] match)
+	{
+		n = matrix.rows();
+		this.order = order;
+		this.match = match;
+		pivotStep = new int[n];
+		work = new double[n];
+		factor(matrix);
+	}
+
+	/**
+	 * Solve the factored system for a right hand side
+	 *
+	 * @param b
+	 *            The right hand side, one value per row
+	 * @param x
+	 *            The array to fill with the solution, one value per column
+	 */
+	public void solve(double[] b, double[] x)
+	{
+		for (int k = 0; k < n; k++)
+			work[k] = b[order[k]];
+
+		// The matrix is the transpose of L * U, so solve with U transposed
+		for (int j = 0; j < n; j++)
+		{
+			int diagonal = upperStart[j + 1] - 1;
+			for (int p = upperStart[j]; p < diagonal; p++)
+				work[j] -= upperValue[p] * work[upperIndex[p]];
+			work[j] /= upperValue[diagonal];
+		}
+
+		// Then with L transposed
+		for (int j = n - 1; j >= 0; j--)
+			for (int p = lowerStart[j] + 1; p < lowerStart[j + 1]; p++)
+				work[j] -= lowerValue[p] * work[lowerIndex[p]];
+
+		for (int i = 0; i < n; i++)
+			x[i] = work[pivotStep[i]];
+	}
+
+	/**
+	 * Solve the transpose of the factored system, running the steps of solve
+	 * backwards
+	 *
+	 * @param b
+	 *            The right hand side, one value per column
+	 * @param x
+	 *            The array to fill with the solution, one value per row
+	 */
+	public void solveTransposed(double[] b, double[] x)
+	{
+		for (int i = 0; i < n; i++)
+			work[pivotStep[i]] = b[i];
+
+		// Solve with L
+		for (int j = 0; j < n; j++)
+			for (int p = lowerStart[j] + 1; p < lowerStart[j + 1]; p++)
+				work[lowerIndex[p]] -= lowerValue[p] * work[j];
+
+		// Then with U
+		for (int j = n - 1; j >= 0; j--)
+		{
+			int diagonal = upperStart[j + 1] - 1;
+			work[j] /= upperValue[diagonal];
+			for (int p = upperStart[j]; p < diagonal; p++)
+				work[upperIndex[p]] -= upperValue[p] * work[j];
+		}
+
+		for (int k = 0; k < n; k++)
+			x[order[k]] = work[k];
+	}
+
+	/**
+	 * Runs the factorization
+	 */
+	private void factor(SparseMatrix matrix)
+	{
+		int[] start = matrix.rowStart, index = matrix.colIndex;
+		double[] values = matrix.values;
+
+		double largest = 0;
+		for (int p = 0; p < start[n]; p++)
+			largest = Math.max(largest, Math.abs(values[p]));
+		double tolerance = largest * PIVOT_TOLERANCE;
+
+		int capacity = Math.max(16, start[n] * 2);
+		lowerStart = new int[n + 1];
+		lowerIndex = new int[capacity];
+		lowerValue = new double[capacity];
+		upperStart = new int[n + 1];
+		upperIndex = new int[capacity];
+		upperValue = new double[capacity];
+
+		double[] x = new double[n];
+		int[] reach = new int[2 * n];
+		int[] mark = new int[n];
+		Arrays.fill(pivotStep, -1);
+
+		int lowerCount = 0, upperCount = 0;
+		for (int k = 0; k < n; k++)
+		{
+			lowerStart[k] = lowerCount;
+			upperStart[k] = upperCount;
+			if (lowerCount + n > lowerIndex.length)
+			{
+				lowerIndex = Arrays.copyOf(lowerIndex, 2 * lowerIndex.length + n);
+				lowerValue = Arrays.copyOf(lowerValue, lowerIndex.length);
+			}
+			if (upperCount + n > upperIndex.length)
+			{
+				upperIndex = Arrays.copyOf(upperIndex, 2 * upperIndex.length + n);
+				upperValue = Arrays.copyOf(upperValue, upperIndex.length);
+			}
+
+			// x = L \ (row of the matrix), visiting only the reachable entries
+			int row = order[k];
+			int top = reach(row, start, index, reach, mark, k + 1);
+			for (int p = top; p < n; p++)
+				x[reach[p]] = 0;
+			for (int p = start[row]; p < start[row + 1]; p++)
+				x[index[p]] = values[p];
+			for (int p = top; p < n; p++)
+			{
+				int j = reach[p], column = pivotStep[j];
+				if (column < 0)
+					continue;
+				for (int q = lowerStart[column] + 1; q < lowerStart[column + 1]; q++)
+					x[lowerIndex[q]] -= lowerValue[q] * x[j];
+			}
+
+			// Entries already pivoted belong to U, the largest other one is
+			// the pivot
+			int pivot = -1;
+			double best = -1;
+			for (int p = top; p < n; p++)
+			{
+				int i = reach[p];
+				if (pivotStep[i] < 0)
+				{
+					if (Math.abs(x[i]) > best)
+					{
+						best = Math.abs(x[i]);
+						pivot = i;
+					}
+				} else
+				{
+					upperIndex[upperCount] = pivotStep[i];
+					upperValue[upperCount++] = x[i];
+				}
+			}
+			if (pivot < 0 || best <= tolerance)
+				throw new ArithmeticException("Matrix is singular at row " + row);
+			int diagonal = match[row];
+			if (pivotStep[diagonal] < 0 && Math.abs(x[diagonal]) >= best * DIAGONAL_PREFERENCE)
+				pivot = diagonal;
+
+			double pivotValue = x[pivot];
+			upperIndex[upperCount] = k;
+			upperValue[upperCount++] = pivotValue;
+			pivotStep[pivot] = k;
+			lowerIndex[lowerCount] = pivot;
+			lowerValue[lowerCount++] = 1;
+			for (int p = top; p < n; p++)
+			{
+				int i = reach[p];
+				if (pivotStep[i] < 0)
+				{
+					lowerIndex[lowerCount] = i;
+					lowerValue[lowerCount++] = x[i] / pivotValue;
+				}
+				x[i] = 0;
+			}
+		}
+		lowerStart[n] = lowerCount;
+		upperStart[n] = upperCount;
+
+		// Renumber L by pivot step now that every pivot is known
+		for (int p = 0; p < lowerCount; p++)
+			lowerIndex[p] = pivotStep[lowerIndex[p]];
+	}
+
+	/**
+	 * Finds every entry that can become nonzero when solving L against a row
+	 * of the matrix, in an order where each entry comes after everything it
+	 * depends on
+	 *
+	 * @param row
+	 *            The row of the matrix
+	 * @param start
+	 *            The row starts of the matrix
+	 * @param index
+	 *            The column indices of the matrix
+	 * @param reach
+	 *            Filled from the returned index to n with the reachable
+	 *            entries; the second half is used as a stack
+	 * @param mark
+	 *            Marks visited entries with the stamp
+	 * @param stamp
+	 *            A value unique to this call
+	 * @return The index in reach of the first reachable entry
+	 */
+	private int reach(int row, int[] start, int[] index, int[] reach, int[] mark, int stamp)
+	{
+		int top = n;
+		for (int p = start[row]; p < start[row + 1]; p++)
+		{
+			if (mark[index[p]] == stamp)
+				continue;
+
+			// Depth first search through the columns of L
+			int head = 0;
+			reach[0] = index[p];
+			while (head >= 0)
+			{
+				int j = reach[head], column = pivotStep[j];
+				if (mark[j] != stamp)
+				{
+					mark[j] = stamp;
+					reach[n + head] = column < 0 ? 0 : lowerStart[column];
+				}
+				boolean done = true;
+				int end = column < 0 ? 0 : lowerStart[column + 1];
+				for (int q = reach[n + head]; q < end; q++)
+				{
+					int i = lowerIndex[q];
+					if (mark[i] == stamp)
+						continue;
+					reach[n + head] = q;
+					reach[++head] = i;
+					done = false;
+					break;
+				}
+				if (done)
+				{
+					head--;
+					reach[--top] = j;
+				}
+			}
+		}
+		return top;
+	}
+}
@@ -0,0 +1,273 @@
+package com.fwumdesoft.project8;
+
+import java.util.Arrays;
+
+/**
+ * A square matrix that only stores its nonzero entries </br>
+ * Entries are collected as (row, column, value) triplets, then compressed into
+ * compressed sparse row (CSR) form and factored with a SparseLU
+ */
+class SparseMatrix implements SolverMatrix
+{
+	/**
+	 * The number of rows and columns
+	 */
+	private int rows, cols;
+	/**
+	 * The stamped entries, before compression
+	 */
+	private int[] tripletRow, tripletCol;
+	private double[] tripletValue;
+	private int triplets;
+	/**
+	 * Where each row starts in colIndex and values, with one extra entry for
+	 * the end of the last row
+	 */
+	int[] rowStart;
+	/**
+	 * The column of each stored entry
+	 */
+	int[] colIndex;
+	/**
+	 * The value of each stored entry
+	 */
+	double[] values;
+	/**
+	 * The factorization, once factored
+	 */
+	private SparseLU lu;
+
+	/**
+	 * Create an empty matrix
+	 *
+	 * @param rows
+	 *            The number of rows
+	 * @param cols
+	 *            The number of columns
+	 */
+	public SparseMatrix(int rows, int cols)
+	{
+		this.rows = rows;
+		this.cols = cols;
+		tripletRow = new int[Math.max(16, rows * 4)];
+		tripletCol = new int[tripletRow.length];
+		tripletValue = new double[tripletRow.length];
+	}
+
+	@Override
+	public int rows()
+	{
+		return rows;
+	}
+
+	@Override
+	public int cols()
+	{
+		return cols;
+	}
+
+	@Override
+	public void add(int row, int col, double value)
+	{
+		if (triplets == tripletRow.length)
+		{
+			tripletRow = Arrays.copyOf(tripletRow, triplets * 2);
+			tripletCol = Arrays.copyOf(tripletCol, triplets * 2);
+			tripletValue = Arrays.copyOf(tripletValue, triplets * 2);
+		}
+		tripletRow[triplets] = row;
+		tripletCol[triplets] = col;
+		tripletValue[triplets] = value;
+		triplets++;
+		rowStart = null;
+		lu = null;
+	}
+
+	/**
+	 * Compress the stamped triplets into CSR form, summing duplicate entries
+	 */
+	void compress()
+	{
+		rowStart = new int[rows + 1];
+		for (int t = 0; t < triplets; t++)
+			rowStart[tripletRow[t] + 1]++;
+		for (int r = 0; r < rows; r++)
+			rowStart[r + 1] += rowStart[r];
+
+		int[] next = Arrays.copyOf(rowStart, rows);
+		int[] unsortedCol = new int[triplets];
+		double[] unsortedValue = new double[triplets];
+		for (int t = 0; t < triplets; t++)
+		{
+			int slot = next[tripletRow[t]]++;
+			unsortedCol[slot] = tripletCol[t];
+			unsortedValue[slot] = tripletValue[t];
+		}
+
+		// Merge duplicates within each row, remembering where each column was
+		// last put
+		int[] position = new int[cols];
+		Arrays.fill(position, -1);
+		colIndex = new int[triplets];
+		values = new double[triplets];
+		int count = 0;
+		for (int r = 0; r < rows; r++)
+		{
+			int start = count;
+			for (int p = rowStart[r]; p < rowStart[r + 1]; p++)
+			{
+				int c = unsortedCol[p];
+				if (position[c] >= start)
+					values[position[c]] += unsortedValue[p];
+				else
+				{
+					position[c] = count;
+					colIndex[count] = c;
+					values[count++] = unsortedValue[p];
+				}
+			}
+			rowStart[r] = start;
+		}
+		rowStart[rows] = count;
+	}
+
+	/**
+	 * Pairs every row with a different column it has an entry in (a maximum
+	 * transversal), so rows with nothing on their diagonal, like the row of a
+	 * battery, still have an entry that can be treated as their diagonal
+	 *
+	 * @return The column paired with each row
+	 * @throws ArithmeticException
+	 *             If there is no such pairing, so the matrix is singular
+	 */
+	int[] matchColumns()
+	{
+		int[] match = new int[rows], owner = new int[cols];
+		Arrays.fill(match, -1);
+		Arrays.fill(owner, -1);
+		// Where each row's search for an unpaired column left off
+		int[] lookahead = Arrays.copyOf(rowStart, rows);
+		int[] visited = new int[cols];
+		int[] stackRow = new int[rows], stackCol = new int[rows], position = new int[rows];
+
+		for (int r = 0; r < rows; r++)
+		{
+			// Search for a path of alternately unpaired and paired entries that
+			// ends in an unpaired column, then flip the pairs along it
+			int head = 0;
+			stackRow[0] = r;
+			position[0] = rowStart[r];
+			boolean found = false;
+			while (head >= 0 && !found)
+			{
+				int row = stackRow[head];
+				for (; lookahead[row] < rowStart[row + 1]; lookahead[row]++)
+				{
+					int c = colIndex[lookahead[row]];
+					if (owner[c] < 0)
+					{
+						stackCol[head] = c;
+						found = true;
+						break;
+					}
+				}
+				if (found)
+					break;
+
+				int p = position[head];
+				for (; p < rowStart[row + 1]; p++)
+				{
+					int c = colIndex[p];
+					if (visited[c] != r + 1)
+					{
+						visited[c] = r + 1;
+						stackCol[head] = c;
+						break;
+					}
+				}
+				position[head] = p + 1;
+				if (p < rowStart[row + 1])
+				{
+					stackRow[++head] = owner[stackCol[head - 1]];
+					position[head] = rowStart[stackRow[head]];
+				} else
+					head--;
+			}
+			if (!found)
+				throw new ArithmeticException("Matrix is structurally singular at row " + r);
+			for (; head >= 0; head--)
+			{
+				match[stackRow[head]] = stackCol[head];
+				owner[stackCol[head]] = stackRow[head];
+			}
+		}
+		return match;
+	}
+
+	/**
+	 * Finds the pairing of rows with columns and the order to factor the rows
+	 * in. Both only depend on where the entries are, not on their values, so
+	 * they can be reused for any matrix with the same entries
+	 *
+	 * @return The column paired with each row, then the order to factor the
+	 *         rows in
+	 * @throws ArithmeticException
+	 *             If the matrix is structurally singular
+	 */
+	int[][] analyze()
+	{
+		if (rows != cols)
+			throw new IllegalStateException("Only square sparse matrices can be factored");
+		if (rowStart == null)
+			compress();
+		int[] match = matchColumns();
+		return new int[][] { match, MinimumDegree.order(this, match) };
+	}
+
+	@Override
+	public void factor()
+	{
+		factor(analyze());
+	}
+
+	/**
+	 * Factor the matrix with an analysis from a matrix with the same entries
+	 *
+	 * @param analysis
+	 *            The result of analyze
+	 */
+	void factor(int[][] analysis)
+	{
+		if (rows != cols)
+			throw new IllegalStateException("Only square sparse matrices can be factored");
+		if (rowStart == null)
+			compress();
+		lu = new SparseLU(this, analysis[1], analysis[0]);
+	}
+
+	/**
+	 * @return The number of columns once factored; a singular matrix is found
+	 *         at its first dependent row, so its rank is unknown (-1)
+	 */
+	@Override
+	public int rank()
+	{
+		return lu != null ? cols : -1;
+	}
+
+	@Override
+	public void solve(double[] b, double[] x)
+	{
+		if (lu == null)
+			throw new IllegalStateException("Matrix must be factored before solving");
+		lu.solve(b, x);
+	}
+
+	@Override
+	public void solveTransposed(double[] b, double[] x)
+	{
+		if (lu == null)
+			throw new IllegalStateException("Matrix must be factored before solving");
+		lu.solveTransposed(b, x);
+	}
+}
@@ -0,0 +1,192 @@
+package com.fwumdesoft.project8;
+
+import com.fwumdesoft.project8.CircuitComponent.Type;
+
+/**
+ * Steps a circuit with capacitors and inductors through time </br>
+ * Every step uses backward Euler, so the matrix only depends on the layout,
+ * the component values and the time step. It is factored once, and each step
+ * is just a new right hand side built from the last step's capacitor voltages
+ * and inductor currents, followed by one solve. Capacitors start empty and
+ * inductors start with no current
+ */
+public class TransientSolver
+{
+	/**
+	 * The circuit being stepped
+	 */
+	private final Circuit circuit;
+	/**
+	 * The length of one step
+	 */
+	private final double timeStep;
+	/**
+	 * The version of the circuit the plan was built for
+	 */
+	private int version;
+	/**
+	 * The plan for one time step of the circuit
+	 */
+	private SolvePlan plan;
+	/**
+	 * The factored matrix
+	 */
+	private SolverMatrix matrix;
+	/**
+	 * The value of each element
+	 */
+	private double[] values;
+	/**
+	 * The voltage of each capacitor and the current of each inductor at the
+	 * last step
+	 */
+	private double[] state;
+	/**
+	 * The right hand side without any history, the right hand side of a step,
+	 * and the solution of a step
+	 */
+	private double[] sources, constants, result;
+	/**
+	 * The number of steps taken, and how many steps in a row every lamp has
+	 * been lit for
+	 */
+	private int steps, litSteps;
+
+	/**
+	 * Create a solver for a circuit
+	 *
+	 * @param circuit
+	 *            The circuit to step
+	 * @param timeStep
+	 *            The length of one step
+	 */
+	public TransientSolver(Circuit circuit, double timeStep)
+	{
+		if (timeStep <= 0)
+			throw new IllegalArgumentException("The time step must be positive, not " + timeStep);
+		this.circuit = circuit;
+		this.timeStep = timeStep;
+	}
+
+	/**
+	 * Builds and factors the plan, starting again from an empty circuit
+	 *
+	 * @throws IllegalArgumentException
+	 *             If the circuit is not a proper circuit
+	 * @throws ArithmeticException
+	 *             If the circuit has no unique solution
+	 */
+	public void reset()
+	{
+		plan = null;
+		SolvePlan next = NodalSolver.compile(circuit.grid, timeStep);
+		values = new double[next.elements];
+		next.readValues(circuit.grid, values);
+		state = new double[next.elements];
+		sources = new double[next.rows];
+		next.assembleConstants(values, sources);
+		constants = new double[next.rows];
+		result = new double[next.cols];
+		matrix = next.factor(values);
+		version = circuit.getVersion();
+		steps = litSteps = 0;
+		plan = next;
+	}
+
+	/**
+	 * Advances the circuit by one time step, setting the current of every
+	 * component and the voltage of every capacitor </br>
+	 * If the circuit was edited since the last step, it starts again from an
+	 * empty circuit
+	 *
+	 * @throws IllegalArgumentException
+	 *             If the circuit is not a proper circuit
+	 * @throws ArithmeticException
+	 *             If the circuit has no unique solution
+	 */
+	public void step()
+	{
+		if (plan == null || version != circuit.getVersion())
+			reset();
+
+		System.arraycopy(sources, 0, constants, 0, plan.rows);
+		plan.assembleHistory(values, state, constants);
+		matrix.solve(constants, result);
+
+		boolean lit = true;
+		int active = 0;
+		for (int e = 0; e < plan.elements; e++)
+		{
+			int cell = plan.elementCell[e];
+			CircuitComponent comp = circuit.grid[cell / plan.height][cell % plan.height];
+			double output = plan.current(e, values, result);
+			if (comp.type == Type.CAPACITOR)
+			{
+				// The output of a capacitor is its voltage
+				CircuitSolver.setCurrent(comp, plan.scale(e, values[e]) * (output - state[e]));
+				comp.voltageDif = output;
+				state[e] = output;
+			} else
+			{
+				CircuitSolver.setCurrent(comp, output);
+				if (comp.type == Type.INDUCTOR)
+					state[e] = output;
+			}
+			if (comp.isActive)
+				active++;
+			else if (comp.isLamp || Double.isNaN(comp.current))
+				lit = false;
+		}
+
+		steps++;
+		litSteps = lit && active == circuit.goalLamps ? litSteps + 1 : 0;
+	}
+
+	/**
+	 * @return The time since the circuit was empty
+	 */
+	public double getTime()
+	{
+		return steps * timeStep;
+	}
+
+	/**
+	 * @return How many steps in a row the circuit has been solved for
+	 */
+	public int getLitSteps()
+	{
+		return litSteps;
+	}
+
+	/**
+	 * Checks if the circuit has stayed solved long enough
+	 *
+	 * @param steps
+	 *            How many steps in a row every lamp must have been lit for
+	 * @return If the lamps have been lit for that many steps
+	 */
+	public boolean isSolved(int steps)
+	{
+		return litSteps >= steps;
+	}
+
+	/**
+	 * @return The voltage of each capacitor and current of each inductor,
+	 *         indexed like the circuit's grid, with 0 everywhere else
+	 */
+	public double[][] getState()
+	{
+		double[][] grid = new double[circuit.grid.length][];
+		for (int i = 0; i < grid.length; i++)
+			grid[i] = new double[circuit.grid[i].length];
+		if (plan != null)
+			for (int e = 0; e < plan.elements; e++)
+			{
+				int cell = plan.elementCell[e];
+				CircuitComponent comp = circuit.grid[cell / plan.height][cell % plan.height];
+				if (comp.type == Type.CAPACITOR || comp.type == Type.INDUCTOR)
+					grid[cell / plan.height][cell % plan.height] = state[e];
+			}
+		return grid;
+	}
+}
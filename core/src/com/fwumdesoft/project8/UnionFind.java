@@ -0,0 +1,58 @@
+package com.fwumdesoft.project8;
+
+/**
+ * Union-find over nodes numbered from 0, kept in a plain array of parents so
+ * the solvers can use it without allocating anything else </br>
+ * Two sets are joined under the lower of their roots, so the root of every
+ * set is its lowest node
+ */
+class UnionFind
+{
+	/**
+	 * Create a forest where every node is in a set of its own
+	 *
+	 * @param nodes
+	 *            The number of nodes
+	 * @return The parent of each node
+	 */
+	static int[] create(int nodes)
+	{
+		int[] parent = new int[nodes];
+		for (int n = 0; n < nodes; n++)
+			parent[n] = n;
+		return parent;
+	}
+
+	/**
+	 * Finds the representative of a node, halving the path to it on the way
+	 *
+	 * @param parent
+	 *            The parent of each node
+	 * @param n
+	 *            The node
+	 * @return The root of the node's set
+	 */
+	static int find(int[] parent, int n)
+	{
+		while (parent[n] != n)
+			n = parent[n] = parent[parent[n]];
+		return n;
+	}
+
+	/**
+	 * Joins the sets of two nodes
+	 *
+	 * @param parent
+	 *            The parent of each node
+	 * @return If they were in different sets
+	 */
+	static boolean union(int[] parent, int a, int b)
+	{
+		a = find(parent, a);
+		b = find(parent, b);
+		if (a == b)
+			return false;
+		parent[Math.max(a, b)] = Math.min(a, b);
+		return true;
+	}
+}
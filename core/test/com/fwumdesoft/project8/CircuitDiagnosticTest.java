@@ -0,0 +1,145 @@
+package com.fwumdesoft.project8;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.Test;
+
+import com.fwumdesoft.project8.CircuitDiagnostic.Kind;
+import com.fwumdesoft.project8.CircuitSolver.SolverMode;
+
+/**
+ * Checks that every structural problem is found before solving, and that the
+ * check kept by a circuit follows its edits
+ */
+public class CircuitDiagnosticTest
+{
+	@Test
+	public void seriesLoopIsOk() throws IOException
+	{
+		assertEquals(Kind.OK, CircuitDiagnostic.check(circuit("+B+\n+.+\n+R+\n", "5 2").grid).kind);
+	}
+
+	@Test
+	public void unfilledSlot() throws IOException
+	{
+		CircuitDiagnostic diagnostic = CircuitDiagnostic.check(circuit("+B+\n+.+\n+_+\n", "5").grid);
+		assertEquals(Kind.UNFILLED_SLOT, diagnostic.kind);
+		assertEquals(0, diagnostic.x);
+		assertEquals(1, diagnostic.y);
+	}
+
+	@Test
+	public void badConnection() throws IOException
+	{
+		assertEquals(Kind.BAD_CONNECTION, CircuitDiagnostic.check(circuit("+B+\n+R+\n+++\n", "5 2").grid).kind);
+	}
+
+	@Test
+	public void shortedBattery() throws IOException
+	{
+		Circuit circuit = circuit("+B+\n+.+\n+++\n", "5");
+		assertEquals(Kind.SHORTED_BATTERY, CircuitDiagnostic.check(circuit.grid).kind);
+		assertEveryModeThrows(circuit);
+	}
+
+	@Test
+	public void batteryLoop() throws IOException
+	{
+		for (String values : new String[] { "5 5", "5 3" })
+		{
+			Circuit circuit = circuit("+B+\n+.+\n+B+\n", values);
+			assertEquals(Kind.BATTERY_LOOP, CircuitDiagnostic.check(circuit.grid).kind);
+			assertEveryModeThrows(circuit);
+		}
+	}
+
+	@Test
+	public void unpoweredIsland() throws IOException
+	{
+		String loops = "+B+.+L+\n+.+.+.+\n+R+.+R+\n";
+		CircuitDiagnostic diagnostic = CircuitDiagnostic.check(circuit(loops, "5 1 2 2").grid);
+		assertEquals(Kind.UNPOWERED_ISLAND, diagnostic.kind);
+		assertEquals(2, diagnostic.x);
+		assertEquals(5, diagnostic.y);
+		// A resistor alone in a loop is fine, it just carries no current
+		assertEquals(Kind.OK, CircuitDiagnostic.check(circuit(loops.replace('L', 'R'), "5 1 2 2").grid).kind);
+	}
+
+	@Test
+	public void keptCheckFollowsEdits() throws IOException
+	{
+		Circuit circuit = circuit("+B+.+R+\n+.+.+.+\n+r+.+R+\n", "5 1 2 2");
+		CircuitComponent resistor = circuit.grid[0][1], island = circuit.grid[2][5];
+		assertEdited(circuit, Kind.OK);
+
+		circuit.grid[0][1] = CircuitComponent.blank();
+		assertEdited(circuit, Kind.UNFILLED_SLOT);
+		circuit.grid[0][1] = CircuitComponent.wire();
+		assertEdited(circuit, Kind.SHORTED_BATTERY);
+		circuit.grid[0][1] = resistor;
+		assertEdited(circuit, Kind.OK);
+
+		// Only being a lamp changes, which the solver's layout doesn't see
+		CircuitComponent lamp = CircuitComponent.lamp();
+		lamp.resistance = island.resistance;
+		circuit.grid[2][5] = lamp;
+		assertEdited(circuit, Kind.UNPOWERED_ISLAND);
+		circuit.grid[2][5] = island;
+		assertEdited(circuit, Kind.OK);
+
+		// Changing a value keeps the layout, until a resistance reaches 0
+		resistor.setMainValue(7);
+		assertEdited(circuit, Kind.OK);
+		resistor.setMainValue(0);
+		assertEdited(circuit, Kind.SHORTED_BATTERY);
+		resistor.setMainValue(2);
+		assertEdited(circuit, Kind.OK);
+	}
+
+	/**
+	 * Marks a circuit as edited and solves it, expecting the diagnostic it
+	 * keeps to be the same as checking it from scratch
+	 */
+	private static void assertEdited(Circuit circuit, Kind kind)
+	{
+		circuit.modified();
+		circuit.isSolved();
+		assertEquals(kind, circuit.getDiagnostic().kind);
+		assertEquals(CircuitDiagnostic.check(circuit.grid).toString(), circuit.getDiagnostic().toString());
+	}
+
+	/**
+	 * Solves a circuit the diagnostic rejects in every mode, expecting each
+	 * to find that it has no unique solution
+	 */
+	private static void assertEveryModeThrows(Circuit circuit)
+	{
+		for (SolverMode mode : SolverMode.values())
+		{
+			try
+			{
+				CircuitSolver.solve(circuit.grid, mode);
+				fail(mode + " solved a circuit with no unique solution");
+			} catch (ArithmeticException e)
+			{
+			}
+			assertFalse(circuit.isSolved(mode));
+		}
+	}
+
+	/**
+	 * Reads a circuit from its rows, top row first, and the values of its
+	 * parts
+	 */
+	private static Circuit circuit(String rows, String values) throws IOException
+	{
+		int columns = rows.indexOf('\n'), count = rows.length() / (columns + 1);
+		return CircuitText.read(
+				new StringReader("circuit " + columns + " " + count + " 0\n" + rows + "values\n" + values + "\n"));
+	}
+}
@@ -0,0 +1,237 @@
+package com.fwumdesoft.project8;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks that circuits survive being written as text and read back, and
+ * that numbers are read exactly as Double.parseDouble reads them
+ */
+public class CircuitTextTest
+{
+	@Test
+	public void shippedCircuitsRoundTrip() throws IOException
+	{
+		// The sources in core/circuits, binary and text
+		File folder = new File(System.getProperty("circuits.dir", "circuits"));
+		File[] files = folder.listFiles((dir, name) -> CircuitIO.isCircuit(name));
+		assertTrue("No circuits in " + folder.getAbsolutePath(), files != null && files.length > 0);
+		for (File file : files)
+		{
+			Circuit circuit;
+			if (file.getName().endsWith(CircuitText.EXTENSION))
+				try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8))
+				{
+					circuit = CircuitText.read(reader);
+				}
+			else
+				circuit = CircuitFormat.read(Files.readAllBytes(file.toPath()));
+			circuit.name = file.getName();
+			assertRoundTrip(circuit);
+		}
+	}
+
+	@Test
+	public void largeCircuitsRoundTrip() throws IOException
+	{
+		// Bigger than the parser's buffer, with values that need every digit
+		// and some that are easy to lose
+		double[] special = { -0.0, 1e15, -1e15 + 1, Double.MIN_VALUE, Double.POSITIVE_INFINITY, Double.NaN };
+		Random random = new Random(5);
+		for (Circuit circuit : new Circuit[] { mesh(61, 61, random), mesh(45, 31, random) })
+		{
+			for (CircuitComponent[] row : circuit.grid)
+				for (CircuitComponent comp : row)
+					if (comp != null && comp.hasMainValue())
+					{
+						double value = Double.longBitsToDouble(random.nextLong());
+						// Text has one NaN, so random bits that happen to be
+						// another are left out
+						if (random.nextInt(10) == 0 || Double.isNaN(value))
+							value = special[random.nextInt(special.length)];
+						comp.setMainValue(value);
+					}
+			assertRoundTrip(circuit);
+		}
+	}
+
+	@Test
+	public void numbersMatchParseDouble() throws IOException
+	{
+		String[] numbers = { "0", "-0", "+0", "-0.0", "007", "000.000", "00012.5000", "+3", "-42", "1.", ".5", "-.25",
+				"0.1", "0.3", "123456789012345", "999999999999999", "1234567890123456", "9007199254740993",
+				"12345678901234567890123", "0.1234567890123456789", "3.141592653589793238462643383279",
+				"000000000000000000000000000001", "0.000000000000000000000000000001", "1e22", "1e23", "9e22",
+				"123456789012345e7", "1.5e-22", "1e-23", "1E5", "2e+3", "5e-0", "4.9e-324", "2e-324", "1e-400",
+				"2.2250738585072014E-308", "1.7976931348623157e308", "1.8e308", "1e400", "0e400", "-1e400",
+				"Infinity", "-Infinity", "NaN" };
+		for (String number : numbers)
+			assertParses(number);
+
+		StringBuilder longest = new StringBuilder("1");
+		for (int i = 0; i < 300; i++)
+			longest.append((char) ('0' + i % 10));
+		assertParses(longest.toString());
+		assertParses("0." + longest);
+		assertParses(longest + "e-310");
+	}
+
+	@Test
+	public void randomNumbersMatchParseDouble() throws IOException
+	{
+		Random random = new Random(7);
+		for (int i = 0; i < 20000; i++)
+		{
+			assertParses(Double.toString(Double.longBitsToDouble(random.nextLong())));
+
+			StringBuilder number = new StringBuilder(random.nextBoolean() ? "-" : "");
+			int digits = 1 + random.nextInt(20), dot = random.nextInt(digits + 1);
+			for (int d = 0; d < digits; d++)
+			{
+				if (d == dot)
+					number.append('.');
+				number.append((char) ('0' + random.nextInt(10)));
+			}
+			if (random.nextBoolean())
+				number.append('e').append(random.nextInt(61) - 30);
+			assertParses(number.toString());
+		}
+	}
+
+	@Test
+	public void lineEndsAndComments() throws IOException
+	{
+		String text = "# A door\ncircuit 3 2 1 # the size\n+b+ # a battery\nl_R\n\nvalues # top to bottom\n"
+				+ "5 # volts\n2 1.5\n# the end";
+		Circuit circuit = parse(text);
+		Circuit crlf = parse(text.replace("\n", "\r\n"));
+		assertArrayEquals(CircuitFormat.toBytes(circuit), CircuitFormat.toBytes(crlf));
+		assertEquals(2, circuit.grid.length);
+		assertEquals(3, circuit.grid[0].length);
+		assertEquals(1, circuit.goalLamps);
+		assertEquals(5, circuit.grid[1][1].getMainValue(), 0);
+		assertEquals(2, circuit.grid[0][0].getMainValue(), 0);
+		assertEquals(1.5, circuit.grid[0][2].getMainValue(), 0);
+		assertEquals(true, circuit.grid[1][1].isChangeable);
+		assertEquals(false, circuit.grid[0][2].isChangeable);
+		assertEquals(null, circuit.grid[0][1].type);
+	}
+
+	@Test
+	public void badCircuitsAreRejected()
+	{
+		String header = "circuit 3 2 0\n";
+		assertRejected(header + "+B+\n+R+\nvalues\n5\n");
+		assertRejected(header + "+B+\n+R+\nvalues\n5 2 1\n");
+		assertRejected(header + "+B+\nvalues\n5 2\n");
+		assertRejected(header + "+B+\n+R+\n+++\nvalues\n5 2\n");
+		assertRejected(header + "+B+\n+R\nvalues\n5 2\n");
+		assertRejected(header + "+B+\n+R++\nvalues\n5 2\n");
+		assertRejected(header + "+B+\n+X+\nvalues\n5 2\n");
+		assertRejected(header + "+B+\n+R+\nvalues\n5 2x\n");
+		assertRejected(header + "+B+\n+R+\nvalues\n5 .\n");
+		assertRejected(header + "+B+\n+R+\nvalues\n5 1e\n");
+		assertRejected(header + "+B+\n+R+\nvalues\n5 Inf\n");
+		assertRejected("circuit 0 2 0\n");
+		assertRejected("circuit 3 -2 0\n");
+		assertRejected("circuit 3 2\n");
+		assertRejected("circuit 99999999999 2 0\n");
+		assertRejected("circuit 65536 65536 0\n");
+		assertRejected("circuit 257 256 0\n");
+		assertRejected("circuits 3 2 0\n");
+	}
+
+	/**
+	 * Builds a mesh with a wire at every even cell and a random kind of part,
+	 * or a blank slot, between every pair of neighboring wires
+	 */
+	private static Circuit mesh(int width, int height, Random random)
+	{
+		CircuitComponent[][] grid = new CircuitComponent[width][height];
+		for (int x = 0; x < width; x++)
+			for (int y = 0; y < height; y++)
+				if (x % 2 == 0 && y % 2 == 0)
+					grid[x][y] = CircuitComponent.wire();
+				else if (x % 2 == 0 || y % 2 == 0)
+				{
+					switch (random.nextInt(6))
+					{
+					case 0:
+						grid[x][y] = CircuitComponent.battery();
+						break;
+					case 1:
+						grid[x][y] = CircuitComponent.resistor();
+						break;
+					case 2:
+						grid[x][y] = CircuitComponent.lamp();
+						break;
+					case 3:
+						grid[x][y] = CircuitComponent.capacitor();
+						break;
+					case 4:
+						grid[x][y] = CircuitComponent.inductor();
+						break;
+					default:
+						grid[x][y] = CircuitComponent.blank();
+						continue;
+					}
+					grid[x][y].isChangeable = random.nextBoolean();
+				}
+		Circuit circuit = new Circuit(grid, random.nextInt(10));
+		circuit.name = "mesh " + width + "x" + height;
+		return circuit;
+	}
+
+	/**
+	 * Writes a circuit as text and reads it back, through a reader and a
+	 * CharBuffer, expecting the same binary form
+	 */
+	private static void assertRoundTrip(Circuit circuit) throws IOException
+	{
+		byte[] expected = CircuitFormat.toBytes(circuit);
+		String text = CircuitText.toString(circuit);
+		assertArrayEquals(circuit.name, expected, CircuitFormat.toBytes(parse(text)));
+		assertArrayEquals(circuit.name, expected,
+				CircuitFormat.toBytes(new CircuitText().parse(CharBuffer.wrap(text))));
+		assertEquals(circuit.name, text, CircuitText.toString(parse(text)));
+	}
+
+	/**
+	 * Reads a number as the value of a resistor, expecting exactly the double
+	 * Double.parseDouble gives
+	 */
+	private static void assertParses(String number) throws IOException
+	{
+		double value = parse("circuit 1 1 0\nR\nvalues\n" + number + "\n").grid[0][0].getMainValue();
+		assertEquals(number, Double.doubleToLongBits(Double.parseDouble(number)), Double.doubleToLongBits(value));
+	}
+
+	private static void assertRejected(String text)
+	{
+		try
+		{
+			parse(text);
+			fail("Read a bad circuit:\n" + text);
+		} catch (IOException e)
+		{
+		}
+	}
+
+	private static Circuit parse(String text) throws IOException
+	{
+		return CircuitText.read(new StringReader(text));
+	}
+}
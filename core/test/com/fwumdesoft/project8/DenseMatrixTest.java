@@ -0,0 +1,82 @@
+package com.fwumdesoft.project8;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks that dense elimination drops dependent rows that are consistent and
+ * reports the rank of systems without a unique solution
+ */
+public class DenseMatrixTest
+{
+	@Test
+	public void dependentRowsAreDropped()
+	{
+		Random random = new Random(3);
+		int cols = 6, extra = 5;
+		for (int trial = 0; trial < 50; trial++)
+		{
+			// Every extra row is a mix of two independent ones, so the system
+			// is still consistent
+			double[][] rows = new double[cols + extra][cols];
+			double[] x = new double[cols];
+			for (int r = 0; r < cols; r++)
+			{
+				x[r] = random.nextGaussian();
+				for (int c = 0; c < cols; c++)
+					rows[r][c] = random.nextGaussian();
+			}
+			for (int r = cols; r < rows.length; r++)
+			{
+				double[] a = rows[random.nextInt(cols)], b = rows[random.nextInt(cols)];
+				double scale = random.nextGaussian();
+				for (int c = 0; c < cols; c++)
+					rows[r][c] = a[c] * scale + b[c];
+			}
+			List<double[]> shuffled = new ArrayList<>(Arrays.asList(rows));
+			Collections.shuffle(shuffled, random);
+
+			DenseMatrix matrix = new DenseMatrix(rows.length, cols);
+			double[] b = new double[rows.length];
+			for (int r = 0; r < rows.length; r++)
+				for (int c = 0; c < cols; c++)
+				{
+					matrix.add(r, c, shuffled.get(r)[c]);
+					b[r] += shuffled.get(r)[c] * x[c];
+				}
+			matrix.factor();
+			assertEquals(cols, matrix.rank());
+			assertEquals(extra, matrix.dropped());
+			double[] solution = new double[cols];
+			matrix.solve(b, solution);
+			for (int c = 0; c < cols; c++)
+				assertEquals(x[c], solution[c], 1e-9);
+		}
+	}
+
+	@Test
+	public void denseRankIsFound()
+	{
+		double[][] entries = { { 1, 2, 3, 4 }, { 2, 4, 6, 8 }, { 0, 1, 1, 0 }, { 1, 0, 0, 1 } };
+		DenseMatrix matrix = new DenseMatrix(4, 4);
+		for (int r = 0; r < 4; r++)
+			for (int c = 0; c < 4; c++)
+				matrix.add(r, c, entries[r][c]);
+		try
+		{
+			matrix.factor();
+			fail("Factored a singular matrix");
+		} catch (ArithmeticException e)
+		{
+			assertEquals(3, matrix.rank());
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package com.fwumdesoft.project8;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.fwumdesoft.project8.CircuitSolver.SolverMode;
+
+/**
+ * Edits circuits at random and checks that solving them again with the same
+ * IncrementalSolver gives what a new solver does
+ */
+public class IncrementalSolverTest
+{
+	/**
+	 * How far an updated current may be from a fresh one, relative to the
+	 * larger of it and 1
+	 */
+	private static final double TOLERANCE = 1e-8;
+
+	private final int sparseThreshold = CircuitSolver.sparseThreshold;
+
+	@After
+	public void restore()
+	{
+		CircuitSolver.sparseThreshold = sparseThreshold;
+	}
+
+	@Test
+	public void kirchhoffDense()
+	{
+		assertTrue(randomEdits(SolverMode.KIRCHHOFF, false) > 0);
+	}
+
+	@Test
+	public void kirchhoffSparse()
+	{
+		assertTrue(randomEdits(SolverMode.KIRCHHOFF, true) > 0);
+	}
+
+	@Test
+	public void nodalDense()
+	{
+		assertTrue(randomEdits(SolverMode.NODAL, false) > 0);
+	}
+
+	@Test
+	public void nodalSparse()
+	{
+		assertTrue(randomEdits(SolverMode.NODAL, true) > 0);
+	}
+
+	/**
+	 * Changes the values of a few parts of each circuit at a time, sometimes
+	 * one and sometimes more than a factorization takes updates for, and
+	 * solves after each change
+	 *
+	 * @return The number of circuits that were edited
+	 */
+	private int randomEdits(SolverMode mode, boolean sparse)
+	{
+		CircuitSolver.sparseThreshold = sparse ? 0 : Integer.MAX_VALUE;
+		Random random = new Random(mode.ordinal() * 2 + (sparse ? 1 : 0));
+		int edited = 0;
+		for (int size = 3; size <= 15; size += 6)
+		{
+			Circuit circuit = mesh(size, random);
+			List<CircuitComponent> parts = new ArrayList<>();
+			for (CircuitComponent[] row : circuit.grid)
+				for (CircuitComponent comp : row)
+					if (comp != null && comp.hasMainValue() && !comp.isLamp)
+						parts.add(comp);
+			IncrementalSolver solver = new IncrementalSolver(mode);
+			try
+			{
+				solver.solve(circuit.grid);
+			} catch (ArithmeticException e)
+			{
+				continue;
+			}
+			edited++;
+			for (int edit = 0; edit < 40; edit++)
+			{
+				int changes = random.nextInt(4) == 0 ? 12 : 1;
+				for (int i = 0; i < changes; i++)
+				{
+					CircuitComponent part = parts.get(random.nextInt(parts.size()));
+					part.setMainValue(0.5 + random.nextDouble() * 9);
+				}
+				solver.solve(circuit.grid);
+				double[] updated = currents(circuit.grid);
+				new IncrementalSolver(mode).solve(circuit.grid);
+				double[] fresh = currents(circuit.grid);
+				for (int i = 0; i < fresh.length; i++)
+					if (!(Math.abs(fresh[i] - updated[i]) <= TOLERANCE * Math.max(1, Math.abs(fresh[i]))))
+						fail("Mesh " + size + " edit " + edit + ": part " + i + " expected " + fresh[i] + " but was "
+								+ updated[i]);
+			}
+		}
+		return edited;
+	}
+
+	/**
+	 * Builds a square mesh with a wire at every even cell and a resistor
+	 * between every pair of neighboring wires, except every seventh part is a
+	 * battery
+	 */
+	private static Circuit mesh(int size, Random random)
+	{
+		CircuitComponent[][] grid = new CircuitComponent[size][size];
+		int parts = 0;
+		for (int x = 0; x < size; x++)
+			for (int y = 0; y < size; y++)
+				if (x % 2 == 0 && y % 2 == 0)
+					grid[x][y] = CircuitComponent.wire();
+				else if (x % 2 == 0 || y % 2 == 0)
+				{
+					grid[x][y] = parts++ % 7 == 0 ? CircuitComponent.battery() : CircuitComponent.resistor();
+					grid[x][y].setMainValue(random.nextInt(9) + 1);
+				}
+		return new Circuit(grid, 0);
+	}
+
+	/**
+	 * @return The current through every part of a solved grid, in the order
+	 *         of the grid
+	 */
+	private static double[] currents(CircuitComponent[][] grid)
+	{
+		List<Double> currents = new ArrayList<>();
+		for (CircuitComponent[] row : grid)
+			for (CircuitComponent comp : row)
+				if (comp != null && comp.hasMainValue())
+					currents.add(comp.current);
+		double[] array = new double[currents.size()];
+		for (int i = 0; i < array.length; i++)
+			array[i] = currents.get(i);
+		return array;
+	}
+}
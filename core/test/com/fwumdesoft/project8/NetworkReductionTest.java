@@ -0,0 +1,72 @@
+package com.fwumdesoft.project8;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.Test;
+
+import com.fwumdesoft.project8.CircuitDiagnostic.Kind;
+import com.fwumdesoft.project8.CircuitSolver.SolverMode;
+
+/**
+ * Checks that parts without resistance are merged by the reduction like the
+ * other modes solve them, and that loops of them are reported before solving
+ */
+public class NetworkReductionTest
+{
+	/**
+	 * A battery and resistor in series with two parts in parallel, top row
+	 * first
+	 */
+	private static final String PARALLEL = "+R+++\nB.R.R\n+++++\n";
+
+	@Test
+	public void shortAcrossResistorTakesAllCurrent() throws IOException
+	{
+		for (SolverMode mode : SolverMode.values())
+		{
+			Circuit circuit = circuit(PARALLEL, "2 5 0 3");
+			CircuitSolver.solve(circuit.grid, mode);
+			assertEquals(mode.toString(), 2.5, Math.abs(circuit.grid[2][1].current), 1e-9);
+			assertEquals(mode.toString(), 2.5, Math.abs(circuit.grid[1][2].current), 1e-9);
+			assertEquals(mode.toString(), 0, circuit.grid[1][4].current, 1e-9);
+		}
+	}
+
+	@Test
+	public void shortsInParallelAreReported() throws IOException
+	{
+		Circuit circuit = circuit(PARALLEL, "2 5 0 0");
+		CircuitDiagnostic diagnostic = CircuitDiagnostic.check(circuit.grid);
+		assertEquals(Kind.SHORT_LOOP, diagnostic.kind);
+		assertEquals(1, diagnostic.x);
+		assertEquals(4, diagnostic.y);
+		for (SolverMode mode : SolverMode.values())
+		{
+			try
+			{
+				CircuitSolver.solve(circuit.grid, mode);
+				fail(mode + " solved a loop of parts without resistance");
+			} catch (ArithmeticException e)
+			{
+			}
+			assertFalse(circuit.isSolved(mode));
+			assertEquals(Kind.SHORT_LOOP, circuit.getDiagnostic().kind);
+		}
+	}
+
+	/**
+	 * Reads a circuit from its rows, top row first, and the values of its
+	 * parts
+	 */
+	private static Circuit circuit(String rows, String values) throws IOException
+	{
+		int columns = rows.indexOf('\n'), count = rows.length() / (columns + 1);
+		return CircuitText.read(
+				new StringReader("circuit " + columns + " " + count + " 0\n" + rows + "values\n" + values + "\n"));
+	}
+}
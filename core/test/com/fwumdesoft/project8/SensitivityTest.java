@@ -0,0 +1,160 @@
+package com.fwumdesoft.project8;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.fwumdesoft.project8.CircuitSolver.SolverMode;
+
+/**
+ * Checks the derivatives from the adjoint solve against central finite
+ * differences of fresh solves
+ */
+public class SensitivityTest
+{
+	/**
+	 * How far a derivative may be from its finite difference, relative to the
+	 * larger of it and 1
+	 */
+	private static final double TOLERANCE = 1e-5;
+
+	private final int sparseThreshold = CircuitSolver.sparseThreshold;
+
+	@After
+	public void restore()
+	{
+		CircuitSolver.sparseThreshold = sparseThreshold;
+	}
+
+	@Test
+	public void kirchhoffDense()
+	{
+		assertTrue(finiteDifferences(SolverMode.KIRCHHOFF, false) > 0);
+	}
+
+	@Test
+	public void kirchhoffSparse()
+	{
+		assertTrue(finiteDifferences(SolverMode.KIRCHHOFF, true) > 0);
+	}
+
+	@Test
+	public void nodalDense()
+	{
+		assertTrue(finiteDifferences(SolverMode.NODAL, false) > 0);
+	}
+
+	@Test
+	public void nodalSparse()
+	{
+		assertTrue(finiteDifferences(SolverMode.NODAL, true) > 0);
+	}
+
+	@Test
+	public void lampTargetsHaveNoEffect()
+	{
+		for (Circuit circuit : meshes())
+		{
+			Sensitivity sensitivity;
+			try
+			{
+				sensitivity = new IncrementalSolver(SolverMode.KIRCHHOFF).sensitivity(circuit.grid);
+			} catch (ArithmeticException e)
+			{
+				continue;
+			}
+			for (int part = 0; part < sensitivity.parts(); part++)
+				if (circuit.grid[sensitivity.partX[part]][sensitivity.partY[part]].isLamp)
+					for (int lamp = 0; lamp < sensitivity.lamps(); lamp++)
+						assertEquals(0, sensitivity.get(lamp, part), 0);
+		}
+	}
+
+	/**
+	 * Compares every derivative of every circuit against a central difference,
+	 * skipping lamps with no current, where the current has no derivative
+	 *
+	 * @return The number of derivatives compared
+	 */
+	private int finiteDifferences(SolverMode mode, boolean sparse)
+	{
+		CircuitSolver.sparseThreshold = sparse ? 0 : Integer.MAX_VALUE;
+		int compared = 0;
+		for (Circuit circuit : meshes())
+		{
+			Sensitivity sensitivity;
+			try
+			{
+				sensitivity = new IncrementalSolver(mode).sensitivity(circuit.grid);
+			} catch (ArithmeticException e)
+			{
+				continue;
+			}
+			for (int lamp = 0; lamp < sensitivity.lamps(); lamp++)
+			{
+				if (sensitivity.getCurrent(lamp) < 1e-6)
+					continue;
+				CircuitComponent target = circuit.grid[sensitivity.lampX[lamp]][sensitivity.lampY[lamp]];
+				for (int part = 0; part < sensitivity.parts(); part++)
+				{
+					CircuitComponent comp = circuit.grid[sensitivity.partX[part]][sensitivity.partY[part]];
+					if (comp.isLamp)
+						continue;
+					double value = comp.getMainValue(), step = 1e-5 * Math.max(1, Math.abs(value));
+					comp.setMainValue(value + step);
+					CircuitSolver.solve(circuit.grid, mode);
+					double up = target.current;
+					comp.setMainValue(value - step);
+					CircuitSolver.solve(circuit.grid, mode);
+					double down = target.current;
+					comp.setMainValue(value);
+
+					double difference = (up - down) / (2 * step);
+					assertEquals(circuit.name + " lamp " + lamp + " part " + part, difference,
+							sensitivity.get(lamp, part), TOLERANCE * Math.max(1, Math.abs(difference)));
+					compared++;
+				}
+			}
+		}
+		return compared;
+	}
+
+	/**
+	 * Builds square meshes with a wire at every even cell and a part the
+	 * player can change between every pair of neighboring wires: a battery
+	 * every seventh part, a lamp every fifth and a resistor otherwise
+	 */
+	private static List<Circuit> meshes()
+	{
+		Random random = new Random(3);
+		List<Circuit> circuits = new ArrayList<>();
+		for (int size = 3; size <= 11; size += 2)
+		{
+			CircuitComponent[][] grid = new CircuitComponent[size][size];
+			int parts = 0;
+			for (int x = 0; x < size; x++)
+				for (int y = 0; y < size; y++)
+					if (x % 2 == 0 && y % 2 == 0)
+						grid[x][y] = CircuitComponent.wire();
+					else if (x % 2 == 0 || y % 2 == 0)
+					{
+						CircuitComponent comp = parts % 7 == 0 ? CircuitComponent.battery()
+								: parts % 5 == 0 ? CircuitComponent.lamp() : CircuitComponent.resistor();
+						comp.setMainValue(random.nextInt(9) + 1);
+						comp.isChangeable = true;
+						grid[x][y] = comp;
+						parts++;
+					}
+			Circuit circuit = new Circuit(grid, 0);
+			circuit.name = "mesh " + size;
+			circuits.add(circuit);
+		}
+		return circuits;
+	}
+}
@@ -0,0 +1,262 @@
+package com.fwumdesoft.project8;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.fwumdesoft.project8.CircuitSolver.SolverMode;
+
+/**
+ * Solves the same circuits every way the solver can and checks that every
+ * part ends up with the same current
+ */
+public class SolverModeTest
+{
+	/**
+	 * How far a current may be from the dense KIRCHHOFF one, relative to the
+	 * larger of it and 1; loose enough for the iterative solver
+	 */
+	private static final double TOLERANCE = 1e-6;
+
+	private final int sparseThreshold = CircuitSolver.sparseThreshold;
+
+	@After
+	public void restore()
+	{
+		CircuitSolver.sparseThreshold = sparseThreshold;
+	}
+
+	@Test
+	public void shippedCircuits() throws IOException
+	{
+		// The binary sources in core/circuits, with the blank slots filled
+		File folder = new File(System.getProperty("circuits.dir", "circuits"));
+		File[] files = folder.listFiles((dir, name) -> name.endsWith(".circuit"));
+		assertTrue("No circuits in " + folder.getAbsolutePath(), files != null && files.length > 0);
+		List<Circuit> circuits = new ArrayList<>();
+		for (File file : files)
+		{
+			Circuit circuit = CircuitFormat.read(Files.readAllBytes(file.toPath()));
+			circuit.name = file.getName();
+			fill(circuit, new Random(file.getName().hashCode()));
+			circuits.add(circuit);
+		}
+		assertTrue(crossCheck(circuits) > 0);
+	}
+
+	@Test
+	public void syntheticLayouts()
+	{
+		// Small enough to solve densely and large enough for sparse matrices
+		List<Circuit> circuits = new ArrayList<>();
+		for (int size = 5; size <= 21; size += 8)
+		{
+			circuits.add(ladder(size, new Random(size)));
+			circuits.add(mesh(size, new Random(size)));
+			circuits.add(star(size, new Random(size)));
+		}
+		assertEquals(circuits.size(), crossCheck(circuits));
+	}
+
+	@Test
+	public void generatedPuzzles()
+	{
+		Random random = new Random(8);
+		List<Circuit> circuits = new ArrayList<>();
+		for (Circuit puzzle : new CircuitGenerator().generate(20, 8))
+			if (puzzle != null)
+			{
+				fill(puzzle, random);
+				if (CircuitDiagnostic.check(puzzle.grid).isOk())
+					circuits.add(puzzle);
+			}
+		assertTrue(crossCheck(circuits) >= circuits.size() / 2);
+	}
+
+	/**
+	 * Solves each circuit with dense and sparse matrices in every mode,
+	 * skipping the ones dense KIRCHHOFF finds no unique solution for
+	 *
+	 * @return The number of circuits that were compared
+	 */
+	private int crossCheck(List<Circuit> circuits)
+	{
+		int compared = 0;
+		for (Circuit circuit : circuits)
+		{
+			double[] expected;
+			try
+			{
+				expected = currents(circuit, SolverMode.KIRCHHOFF, false);
+			} catch (ArithmeticException e)
+			{
+				continue;
+			}
+			compared++;
+			for (SolverMode mode : SolverMode.values())
+				for (boolean sparse : new boolean[] { false, true })
+					assertClose(circuit.name + " " + mode + (sparse ? " sparse" : " dense"), expected,
+							currents(circuit, mode, sparse));
+		}
+		return compared;
+	}
+
+	/**
+	 * Puts a random battery, resistor or lamp in every slot the player can
+	 * change that is still blank
+	 */
+	private static void fill(Circuit circuit, Random random)
+	{
+		for (CircuitComponent[] row : circuit.grid)
+			for (int i = 0; i < row.length; i++)
+				if (row[i] != null && row[i].isChangeable && !row[i].hasMainValue())
+				{
+					int kind = random.nextInt(3);
+					row[i] = part(kind == 0 ? CircuitComponent.battery()
+							: kind == 1 ? CircuitComponent.resistor() : CircuitComponent.lamp(), random);
+					row[i].isChangeable = true;
+				}
+	}
+
+	/**
+	 * Builds a ladder: two rails of parts along the top and bottom, with a
+	 * rung of parts and wire down every other column and a battery in the top
+	 * rail
+	 */
+	private static Circuit ladder(int size, Random random)
+	{
+		CircuitComponent[][] grid = new CircuitComponent[size][size];
+		for (int x = 0; x < size; x++)
+		{
+			boolean rung = x % 2 == 0;
+			grid[x][0] = rung ? CircuitComponent.wire() : part(random);
+			grid[x][size - 1] = rung ? CircuitComponent.wire() : part(random);
+			if (rung)
+				for (int y = 1; y < size - 1; y++)
+					grid[x][y] = y % 2 == 1 ? part(random) : CircuitComponent.wire();
+		}
+		grid[1][0] = part(CircuitComponent.battery(), random);
+		return named(grid, "ladder");
+	}
+
+	/**
+	 * Builds a mesh: a wire at every even cell, with a part between every
+	 * pair of neighboring wires and a battery every 20 parts
+	 */
+	private static Circuit mesh(int size, Random random)
+	{
+		CircuitComponent[][] grid = new CircuitComponent[size][size];
+		int parts = 0;
+		for (int x = 0; x < size; x++)
+			for (int y = 0; y < size; y++)
+				if (x % 2 == 0 && y % 2 == 0)
+					grid[x][y] = CircuitComponent.wire();
+				else if (x % 2 == 0 || y % 2 == 0)
+					grid[x][y] = parts++ % 20 == 0 ? part(CircuitComponent.battery(), random) : part(random);
+		return named(grid, "mesh");
+	}
+
+	/**
+	 * Builds a star: a ring around the edge and a bar of wire across the
+	 * middle, with a spoke of parts and wire from the bar to the ring down
+	 * every other column and a battery in the first spoke </br>
+	 * One side of the ring holds a part, since a loop of bare wire has no
+	 * single current for KIRCHHOFF to find
+	 */
+	private static Circuit star(int size, Random random)
+	{
+		CircuitComponent[][] grid = new CircuitComponent[size][size];
+		int middle = size / 2;
+		for (int i = 0; i < size; i++)
+		{
+			grid[i][0] = CircuitComponent.wire();
+			grid[i][size - 1] = CircuitComponent.wire();
+			grid[0][i] = CircuitComponent.wire();
+			grid[size - 1][i] = CircuitComponent.wire();
+		}
+		for (int x = 2; x < size - 2; x++)
+			grid[x][middle] = CircuitComponent.wire();
+		for (int x = 2; x < size - 2; x += 2)
+			for (int y = 1; y < size - 1; y++)
+				if (y != middle)
+					grid[x][y] = Math.abs(y - middle) % 2 == 1 ? part(random) : CircuitComponent.wire();
+		grid[size - 1][1] = part(random);
+		grid[2][middle - 1] = part(CircuitComponent.battery(), random);
+		return named(grid, "star");
+	}
+
+	private static Circuit named(CircuitComponent[][] grid, String shape)
+	{
+		Circuit circuit = new Circuit(grid, 0);
+		circuit.name = shape + " " + grid.length;
+		return circuit;
+	}
+
+	/**
+	 * @return A resistor, or a lamp one time in five
+	 */
+	private static CircuitComponent part(Random random)
+	{
+		return part(random.nextInt(5) == 0 ? CircuitComponent.lamp() : CircuitComponent.resistor(), random);
+	}
+
+	/**
+	 * @return The part, with a main value from 1 to 9
+	 */
+	private static CircuitComponent part(CircuitComponent comp, Random random)
+	{
+		comp.setMainValue(random.nextInt(9) + 1);
+		return comp;
+	}
+
+	/**
+	 * Solves a copy of a circuit
+	 *
+	 * @param sparse
+	 *            If every square system is solved with a sparse matrix,
+	 *            instead of none
+	 * @return The current through every part, in the order of the grid
+	 */
+	private static double[] currents(Circuit circuit, SolverMode mode, boolean sparse)
+	{
+		CircuitSolver.sparseThreshold = sparse ? 0 : Integer.MAX_VALUE;
+		Circuit copy = new Circuit(circuit);
+		CircuitSolver.solve(copy.grid, mode);
+		return currents(copy.grid);
+	}
+
+	/**
+	 * @return The current through every part of a solved grid, in the order
+	 *         of the grid
+	 */
+	private static double[] currents(CircuitComponent[][] grid)
+	{
+		List<Double> currents = new ArrayList<>();
+		for (CircuitComponent[] row : grid)
+			for (CircuitComponent comp : row)
+				if (comp != null && comp.hasMainValue())
+					currents.add(comp.current);
+		double[] array = new double[currents.size()];
+		for (int i = 0; i < array.length; i++)
+			array[i] = currents.get(i);
+		return array;
+	}
+
+	private static void assertClose(String message, double[] expected, double[] actual)
+	{
+		assertEquals(message, expected.length, actual.length);
+		for (int i = 0; i < expected.length; i++)
+			if (!(Math.abs(expected[i] - actual[i]) <= TOLERANCE * Math.max(1, Math.abs(expected[i]))))
+				fail(message + ": part " + i + " expected " + expected[i] + " but was " + actual[i]);
+	}
+}
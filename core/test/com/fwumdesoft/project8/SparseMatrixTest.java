@@ -0,0 +1,44 @@
+package com.fwumdesoft.project8;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * Checks that sparse systems without a unique solution are reported as such
+ */
+public class SparseMatrixTest
+{
+	@Test
+	public void sparseSingularThrows()
+	{
+		// One row is twice another, which only shows up while eliminating
+		SparseMatrix numeric = new SparseMatrix(3, 3);
+		double[][] entries = { { 1, 2, 0 }, { 2, 4, 0 }, { 0, 1, 1 } };
+		for (int r = 0; r < 3; r++)
+			for (int c = 0; c < 3; c++)
+				if (entries[r][c] != 0)
+					numeric.add(r, c, entries[r][c]);
+		assertSingular(numeric);
+
+		// A column with no entries at all is caught before eliminating
+		SparseMatrix structural = new SparseMatrix(3, 3);
+		structural.add(0, 0, 1);
+		structural.add(1, 0, 1);
+		structural.add(2, 1, 1);
+		assertSingular(structural);
+	}
+
+	private static void assertSingular(SparseMatrix matrix)
+	{
+		try
+		{
+			matrix.factor();
+			fail("Factored a singular matrix");
+		} catch (ArithmeticException e)
+		{
+			assertEquals(-1, matrix.rank());
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package com.fwumdesoft.project8;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.Test;
+
+/**
+ * Checks the step responses of a resistor with a capacitor and with an
+ * inductor against their closed forms </br>
+ * Backward Euler is off by less than the final value times a fifth of the
+ * step over the time constant, so the steps are a thousandth of it
+ */
+public class TransientSolverTest
+{
+	private static final double VOLTS = 6, OHMS = 3, STEPS_PER_TAU = 1000, TOLERANCE = 1e-3;
+
+	@Test
+	public void capacitorCharges() throws IOException
+	{
+		double farads = 0.5, tau = OHMS * farads;
+		Circuit circuit = circuit("+B+\nC.+\n+R+\n", VOLTS + " " + farads + " " + OHMS);
+		CircuitComponent capacitor = circuit.grid[1][0], resistor = circuit.grid[0][1];
+		TransientSolver solver = new TransientSolver(circuit, tau / STEPS_PER_TAU);
+		for (int step = 1; step <= 5 * STEPS_PER_TAU; step++)
+		{
+			solver.step();
+			double charged = 1 - Math.exp(-solver.getTime() / tau);
+			assertEquals(VOLTS * charged, Math.abs(capacitor.voltageDif), VOLTS * TOLERANCE);
+			assertEquals(VOLTS / OHMS * (1 - charged), Math.abs(resistor.current), VOLTS / OHMS * TOLERANCE);
+			assertEquals(capacitor.voltageDif, solver.getState()[1][0], 0);
+		}
+	}
+
+	@Test
+	public void inductorCurrentRises() throws IOException
+	{
+		double henries = 2, tau = henries / OHMS;
+		Circuit circuit = circuit("+B+\nI.+\n+R+\n", VOLTS + " " + henries + " " + OHMS);
+		CircuitComponent inductor = circuit.grid[1][0];
+		TransientSolver solver = new TransientSolver(circuit, tau / STEPS_PER_TAU);
+		for (int step = 1; step <= 5 * STEPS_PER_TAU; step++)
+		{
+			solver.step();
+			double risen = 1 - Math.exp(-solver.getTime() / tau);
+			assertEquals(VOLTS / OHMS * risen, Math.abs(inductor.current), VOLTS / OHMS * TOLERANCE);
+		}
+	}
+
+	@Test
+	public void editStartsAgain() throws IOException
+	{
+		double farads = 0.5, tau = OHMS * farads;
+		Circuit circuit = circuit("+B+\nC.+\n+R+\n", VOLTS + " " + farads + " " + OHMS);
+		TransientSolver solver = new TransientSolver(circuit, tau / 10);
+		for (int step = 0; step < 20; step++)
+			solver.step();
+		circuit.grid[0][1].setMainValue(OHMS * 2);
+		circuit.modified();
+		solver.step();
+		assertEquals(tau / 10, solver.getTime(), 1e-12);
+	}
+
+	/**
+	 * Reads a circuit from its rows, top row first, and the values of its
+	 * parts
+	 */
+	private static Circuit circuit(String rows, String values) throws IOException
+	{
+		int columns = rows.indexOf('\n'), count = rows.length() / (columns + 1);
+		return CircuitText.read(
+				new StringReader("circuit " + columns + " " + count + " 0\n" + rows + "values\n" + values + "\n"));
+	}
+}